@@ -22,13 +22,16 @@ import org.apache.shindig.common.util.DateUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Multimap;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
@@ -55,6 +58,9 @@ public final class JsonSerializer {
     '0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'
   };
 
+  // Getters of serialized pojos, once per-class.
+  private static final Map<Class<?>, PojoProperties> POJO_PROPERTIES = new MapMaker().makeMap();
+
   private JsonSerializer() {}
 
   public static String serialize(Object object) {
@@ -137,6 +143,102 @@ public final class JsonSerializer {
     return buf.toString();
   }
 
+  /**
+   * Converts a value to the objects that parsing its serialized form gives: JSONObjects, JSONArrays,
+   * strings, numbers, booleans and JSONObject.NULL. Values handed to code that expects parsed JSON,
+   * such as expressions, then behave the same without being serialized and parsed again. Does not
+   * guard against cyclical references.
+   */
+  @SuppressWarnings("unchecked")
+  public static Object toJson(Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      return JSONObject.NULL;
+    } else if (value instanceof Number ||
+               value instanceof Boolean) {
+      return value;
+    } else if (value instanceof CharSequence ||
+               value instanceof DateTime ||
+               value instanceof Locale ||
+               value instanceof Uri ||
+               value.getClass().isEnum()) {
+      return value.toString();
+    } else if (value instanceof Date) {
+      return DateUtil.formatIso8601Date((Date)value);
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      JSONObject json = new JSONObject();
+      Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        putJson(json, key, object.opt(key));
+      }
+      return json;
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      JSONArray json = new JSONArray();
+      for (int i = 0, j = array.length(); i < j; ++i) {
+        putJson(json, array.opt(i));
+      }
+      return json;
+    } else if (value instanceof Map || value instanceof Multimap) {
+      Map<String, ?> map = value instanceof Map ? (Map<String, Object>) value
+          : ((Multimap<String, Object>) value).asMap();
+      JSONObject json = new JSONObject();
+      for (Map.Entry<String, ?> entry : map.entrySet()) {
+        putJson(json, entry.getKey().toString(), entry.getValue());
+      }
+      return json;
+    } else if (value instanceof Collection || value.getClass().isArray()) {
+      Iterable<Object> items = value instanceof Collection ? (Collection<Object>) value
+          : Arrays.asList((Object[]) value);
+      JSONArray json = new JSONArray();
+      for (Object item : items) {
+        putJson(json, item);
+      }
+      return json;
+    } else {
+      // Try getter conversion
+      PojoProperties properties = getPojoProperties(value);
+      JSONObject json = new JSONObject();
+      for (int i = 0; i < properties.getters.length; i++) {
+        try {
+          Object property = properties.getters[i].invoke(value);
+          if (!(properties.omitFalse[i] && Boolean.FALSE.equals(property))) {
+            putJson(json, properties.names[i], property);
+          }
+        } catch (IllegalArgumentException e) {
+          // Shouldn't be possible.
+          throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+          // Bad class.
+          throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+          // Bad class.
+          throw new RuntimeException(e);
+        }
+      }
+      return json;
+    }
+  }
+
+  private static void putJson(JSONObject json, String key, Object value) {
+    // Null values are dropped, as they are when serializing.
+    if (value != null) {
+      try {
+        json.put(key, toJson(value));
+      } catch (JSONException e) {
+        // Non-finite numbers, which can't be serialized either.
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+
+  private static void putJson(JSONArray json, Object value) {
+    if (value != null) {
+      json.put(toJson(value));
+    }
+  }
+
   /**
    * Appends a value to the buffer.
    *
@@ -183,27 +285,21 @@ public final class JsonSerializer {
    * @throws IOException If {@link Appendable#append(char)} throws an exception.
    */
   public static void appendPojo(Appendable buf, Object pojo) throws IOException {
-    Map<String, Method> methods = JsonUtil.getGetters(pojo);
+    PojoProperties properties = getPojoProperties(pojo);
     buf.append('{');
     boolean firstDone = false;
-    for (Map.Entry<String, Method> entry : methods.entrySet()) {
+    for (int i = 0; i < properties.getters.length; i++) {
       try {
-        Object value = entry.getValue().invoke(pojo);
-        if (value != null) {
-          String attribute = entry.getKey();
-
-          // Common use case isOwner/isViewer should not be set unless true
-          if (!(("isOwner".equals(attribute) || "isViewer".equals(attribute)) && value.equals(Boolean.FALSE))) {
-            // Drop null values.
-            if (firstDone) {
-              buf.append(',');
-            } else {
-              firstDone = true;
-            }
-            appendString(buf, attribute);
-            buf.append(':');
-            append(buf, value);
+        Object value = properties.getters[i].invoke(pojo);
+        // Drop null values. Common use case isOwner/isViewer should not be set unless true
+        if (value != null && !(properties.omitFalse[i] && value.equals(Boolean.FALSE))) {
+          if (firstDone) {
+            buf.append(',');
+          } else {
+            firstDone = true;
           }
+          buf.append(properties.keys[i]);
+          append(buf, value);
         }
       } catch (IllegalArgumentException e) {
         // Shouldn't be possible.
@@ -219,6 +315,48 @@ public final class JsonSerializer {
     buf.append('}');
   }
 
+  private static PojoProperties getPojoProperties(Object pojo) {
+    PojoProperties properties = POJO_PROPERTIES.get(pojo.getClass());
+    if (properties == null) {
+      properties = new PojoProperties(JsonUtil.getGetters(pojo));
+      POJO_PROPERTIES.put(pojo.getClass(), properties);
+    }
+    return properties;
+  }
+
+  /**
+   * The getters of a class in serialization order, with their keys already escaped.
+   */
+  private static final class PojoProperties {
+    private final String[] names;
+    private final String[] keys;
+    private final Method[] getters;
+    private final boolean[] omitFalse;
+
+    private PojoProperties(Map<String, Method> methods) {
+      int size = methods.size();
+      names = new String[size];
+      keys = new String[size];
+      getters = new Method[size];
+      omitFalse = new boolean[size];
+      int i = 0;
+      for (Map.Entry<String, Method> entry : methods.entrySet()) {
+        String attribute = entry.getKey();
+        StringBuilder key = new StringBuilder(attribute.length() + 3);
+        try {
+          appendString(key, attribute);
+        } catch (IOException e) {
+          // Doesn't occur; StringBuilder doesn't throw.
+        }
+        names[i] = attribute;
+        keys[i] = key.append(':').toString();
+        getters[i] = entry.getValue();
+        omitFalse[i] = "isOwner".equals(attribute) || "isViewer".equals(attribute);
+        i++;
+      }
+    }
+  }
+
   /**
    * Appends an array to the buffer.
    *
@@ -89,6 +89,7 @@ public final class JsonUtil {
       if (method.getParameterTypes().length == 0) {
         String name = getPropertyName(method);
         if (name != null) {
+          makeAccessible(method);
           methods.put(name, method);
         }
       }
@@ -98,6 +99,18 @@ public final class JsonUtil {
     return methods;
   }
 
+  /**
+   * Lets a getter or setter that is called repeatedly skip the access check on every call. Where
+   * a security manager forbids this, calls are checked as before.
+   */
+  public static void makeAccessible(Method method) {
+    try {
+      method.setAccessible(true);
+    } catch (SecurityException e) {
+      // Calls are checked as before.
+    }
+  }
+
   private static String getPropertyName(Method method) {
     JsonProperty property = method.getAnnotation(JsonProperty.class);
     if (property == null) {
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An approximate LRU cache that does not serialize readers.
+ *
+ * Entries are held in a {@link ConcurrentHashMap}, so reads are lock-free and O(1). Recency is
+ * tracked with the CLOCK (second chance) algorithm: a read only sets a flag on the entry. When a
+ * write pushes the cache over capacity, entries are taken from the head of the clock queue; those
+ * read since they were last examined get their flag cleared and go to the back, the first one
+ * that was not read is evicted. Only eviction takes a lock, and only one thread evicts at a time.
+ *
+ * Compared to {@link LruCache}, an entry that was read once recently may outlive one that was
+ * read several times less recently, which is acceptable for every cache in Shindig.
+ *
+ * When created with a {@link Weigher}, the cache is also bounded by the total weight of its
+ * entries. Values heavier than the whole budget are not cached at all. With a maximum weight of -1,
+ * the weight is only tracked.
+ */
+public class ConcurrentLruCache<K, V> implements WeightedCache<K, V> {
+  private final int capacity;
+  private final long maxWeight;
+  private final Weigher<? super V> weigher;
+  private final ConcurrentHashMap<K, Node<K, V>> map;
+  private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<Node<K, V>>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong weight = new AtomicLong();
+  // Number of nodes in the clock queue, including ones that were since replaced or removed.
+  private final AtomicInteger queued = new AtomicInteger();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  public ConcurrentLruCache(int capacity) {
+    this(capacity, -1, null);
+  }
+
+  /**
+   * @param capacity The maximum number of entries.
+   * @param maxWeight The maximum total weight of the entries, or -1 for no bound.
+   * @param weigher Computes the weight of values. Required if maxWeight is not -1, optional
+   *     otherwise.
+   */
+  public ConcurrentLruCache(int capacity, long maxWeight, Weigher<? super V> weigher) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+    Preconditions.checkArgument(maxWeight == -1 || (maxWeight > 0 && weigher != null),
+        "A weighted cache needs a positive maximum weight and a weigher");
+    this.capacity = capacity;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.map = new ConcurrentHashMap<K, Node<K, V>>(Math.min(capacity, 1 << 16), 0.75f,
+        Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  public V getElement(K key) {
+    Node<K, V> node = map.get(key);
+    if (node == null) {
+      return null;
+    }
+    node.referenced = true;
+    return node.value;
+  }
+
+  public void addElement(K key, V value) {
+    long nodeWeight = 0;
+    if (weigher != null) {
+      nodeWeight = weigher.weigh(value);
+      if (maxWeight != -1 && nodeWeight > maxWeight) {
+        // Would evict everything else and still not fit.
+        removeElement(key);
+        return;
+      }
+    }
+    Node<K, V> node = new Node<K, V>(key, value, nodeWeight);
+    weight.addAndGet(nodeWeight);
+    Node<K, V> old = map.put(key, node);
+    if (old != null) {
+      release(old);
+    } else {
+      size.incrementAndGet();
+    }
+    enqueue(node);
+    if (isOverCapacity() || queued.get() > 2 * capacity) {
+      evict();
+    }
+  }
+
+  public V removeElement(K key) {
+    Node<K, V> node = map.remove(key);
+    if (node == null) {
+      return null;
+    }
+    release(node);
+    size.decrementAndGet();
+    return node.value;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public long getSize() {
+    return size.get();
+  }
+
+  public long getWeight() {
+    return weight.get();
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  private boolean isOverCapacity() {
+    return size.get() > capacity || (maxWeight != -1 && weight.get() > maxWeight);
+  }
+
+  private void release(Node<K, V> node) {
+    node.live = false;
+    weight.addAndGet(-node.weight);
+  }
+
+  private void enqueue(Node<K, V> node) {
+    queued.incrementAndGet();
+    clock.add(node);
+  }
+
+  /**
+   * Evicts entries until the cache is back within capacity. Also drops queue nodes for entries
+   * that were replaced or removed, so that heavy overwriting can't grow the queue unbounded.
+   */
+  private void evict() {
+    evictionLock.lock();
+    try {
+      while (isOverCapacity() || queued.get() > 2 * capacity) {
+        Node<K, V> node = clock.poll();
+        if (node == null) {
+          return;
+        }
+        queued.decrementAndGet();
+        if (!node.live) {
+          // Replaced or removed since it was queued.
+          continue;
+        }
+        if (!isOverCapacity()) {
+          // Only compacting the queue.
+          enqueue(node);
+        } else if (node.referenced) {
+          node.referenced = false;
+          enqueue(node);
+        } else if (map.remove(node.key, node)) {
+          release(node);
+          size.decrementAndGet();
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private static class Node<K, V> {
+    private final K key;
+    private final V value;
+    private final long weight;
+    private volatile boolean referenced;
+    private volatile boolean live = true;
+
+    private Node(K key, V value, long weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+}
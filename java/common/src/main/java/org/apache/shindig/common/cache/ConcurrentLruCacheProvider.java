@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.name.Named;
+
+/**
+ * A cache provider that produces {@link ConcurrentLruCache}s, for servers where contention on
+ * the single lock of {@link LruCache} shows up.
+ *
+ * Capacities are configured exactly as for {@link LruCacheProvider}, with properties of the form
+ *
+ * shindig.cache.lru.<cache name>.capacity=foo
+ *
+ * To use it, bind {@link CacheProvider} to this class in a Guice module.
+ */
+public class ConcurrentLruCacheProvider extends LruCacheProvider {
+
+  @Inject
+  public ConcurrentLruCacheProvider(Injector injector,
+      @Named("shindig.cache.lru.default.capacity") int defaultCapacity) {
+    super(injector, defaultCapacity);
+  }
+
+  public ConcurrentLruCacheProvider(int capacity) {
+    super(capacity);
+  }
+
+  @Override
+  protected <K, V> Cache<K, V> newCache(int capacity) {
+    return new ConcurrentLruCache<K, V>(capacity);
+  }
+}
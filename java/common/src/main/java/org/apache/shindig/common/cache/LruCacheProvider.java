@@ -42,10 +42,17 @@ import org.apache.shindig.common.logging.i18n.MessageKeys;
  *
  * The default value is expected under shindig.cache.lru.default.capacity
  *
+ * Caches created with a {@link Weigher} can additionally be bounded by the total weight (usually
+ * an estimate of the size in bytes) of their entries, with properties in the form
+ *
+ * shindig.cache.lru.<cache name>.max-weight=foo
+ *
+ * There is no default weight bound.
+ *
  * An in memory LRU cache only scales so far. For a production-worthy cache, use
  * {@code EhCacheCacheProvider}.
  */
-public class LruCacheProvider implements CacheProvider {
+public class LruCacheProvider implements WeightedCacheProvider {
   private static final String classname = LruCacheProvider.class.getName();
   private static final Logger LOG = Logger.getLogger(classname, MessageKeys.MESSAGES);
   private final int defaultCapacity;
@@ -89,6 +96,45 @@ public class LruCacheProvider implements CacheProvider {
     return defaultCapacity;
   }
 
+  private long getMaxWeight(String name) {
+    if (injector != null) {
+      String key = "shindig.cache.lru." + name + ".max-weight";
+      Key<String> guiceKey = Key.get(String.class, Names.named(key));
+      try {
+        if (injector.getBinding(guiceKey) != null) {
+          String value = injector.getInstance(guiceKey);
+          try {
+            return Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            if (LOG.isLoggable(Level.WARNING)) {
+              LOG.logp(Level.WARNING, classname, "getMaxWeight(String name)", MessageKeys.LRU_MAX_WEIGHT,new Object[] {"Invalid",name});
+            }
+          }
+        }
+      } catch (ConfigurationException e) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <K, V> Cache<K, V> createCache(String name, Weigher<? super V> weigher) {
+    long maxWeight = getMaxWeight(Preconditions.checkNotNull(name));
+    if (weigher == null || maxWeight <= 0) {
+      return createCache(name);
+    }
+    Cache<K, V> cache = (Cache<K, V>) caches.get(name);
+    if (cache == null) {
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Creating cache named " + name + " with max weight " + maxWeight);
+      }
+      cache = new ConcurrentLruCache<K, V>(getCapacity(name), maxWeight, weigher);
+      caches.put(name, cache);
+    }
+    return cache;
+  }
+
   @SuppressWarnings("unchecked")
   public <K, V> Cache<K, V> createCache(String name) {
     int capacity = getCapacity(Preconditions.checkNotNull(name));
@@ -97,9 +143,18 @@ public class LruCacheProvider implements CacheProvider {
       if (LOG.isLoggable(Level.FINE)) {
         LOG.fine("Creating cache named " + name);
       }
-      cache = new LruCache<K, V>(capacity);
+      cache = newCache(capacity);
       caches.put(name, cache);
     }
     return cache;
   }
+
+  /**
+   * Create the backing cache for a newly requested named cache.
+   *
+   * @param capacity The configured capacity for the cache.
+   */
+  protected <K, V> Cache<K, V> newCache(int capacity) {
+    return new LruCache<K, V>(capacity);
+  }
 }
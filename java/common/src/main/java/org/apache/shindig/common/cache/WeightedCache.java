@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * A cache that bounds the total weight of its entries, as computed by a {@link Weigher}, in
+ * addition to their number.
+ */
+public interface WeightedCache<K, V> extends Cache<K, V> {
+  /**
+   * @return The total weight of the entries currently in the cache.
+   */
+  long getWeight();
+
+  /**
+   * @return The upper bound on the total weight of the cache, -1 signifies that it is unbounded.
+   */
+  long getMaxWeight();
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * A cache provider that can bound caches by the total weight of their entries.
+ *
+ * Callers that know how to weigh their values should check whether the injected
+ * {@link CacheProvider} implements this interface and, if so, pass their {@link Weigher}.
+ */
+public interface WeightedCacheProvider extends CacheProvider {
+  /**
+   * Create a named single instance cache, as {@link CacheProvider#createCache(String)}.
+   * If a weight budget is configured for the cache, the returned cache is a
+   * {@link WeightedCache} that evicts entries to stay within it.
+   *
+   * @param name The non-null name of the cache.
+   * @param weigher Computes the weight of each value added to the cache.
+   */
+  <K, V> Cache<K, V> createCache(String name, Weigher<? super V> weigher);
+}
@@ -36,6 +36,7 @@ public interface MessageKeys {
 	public static final String NOT_REUSE_DOC_BUILDERS="notReuseDocBuilders";
 	//LruCacheProvier
 	public static final String LRU_CAPACITY="LRUCapacity";
+	public static final String LRU_MAX_WEIGHT="LRUMaxWeight";
 	//DynamicConfigProperty
 	public static final String EVAL_EL_FAILED="evalExpressionFailed";
 	//JsonContainerConfigLoader
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A FutureTask that runs in the thread that first asks for its result, rather than in an
+ * executor. Useful for wrapping work that only waits on something already in progress, such as
+ * an asynchronous fetch, without tying up a thread for it.
+ *
+ * A timed get waits for the work in progress first, so it times out like any other Future
+ * instead of blocking in the task for as long as the work takes.
+ */
+public class LazyFutureTask<V> extends FutureTask<V> {
+  private final Future<?> awaited;
+
+  /**
+   * @param callable Work that blocks on nothing but {@code awaited}.
+   * @param awaited The work in progress.
+   */
+  public LazyFutureTask(Callable<V> callable, Future<?> awaited) {
+    super(callable);
+    this.awaited = awaited;
+  }
+
+  /**
+   * @return Whether the result is available without blocking, even if the task hasn't run yet.
+   */
+  @Override
+  public boolean isDone() {
+    return super.isDone() || awaited.isDone();
+  }
+
+  @Override
+  public V get() throws InterruptedException, ExecutionException {
+    // No-op if the task has already run.
+    run();
+    return super.get();
+  }
+
+  @Override
+  public V get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (!super.isDone()) {
+      try {
+        awaited.get(timeout, unit);
+      } catch (ExecutionException e) {
+        // Reported by the task.
+      } catch (CancellationException e) {
+        // Reported by the task.
+      }
+      run();
+    }
+    return super.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A Writer that encodes characters as UTF-8 into a byte buffer, which is written to the
+ * underlying stream when it fills up, and when the writer is flushed or closed.
+ *
+ * Unlike an OutputStreamWriter, characters are encoded as they are appended, without a
+ * charset encoder, an intermediate char buffer or a lock per call. This makes appending the
+ * many small pieces produced by {@link org.apache.shindig.common.JsonSerializer} cheap.
+ *
+ * Instances are not thread safe. Unpaired surrogates are written as '?'.
+ */
+public class Utf8Writer extends Writer {
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final OutputStream out;
+  private final byte[] buffer;
+  private int count;
+  // A high surrogate waiting for the low surrogate that completes it, or 0.
+  private char highSurrogate;
+
+  public Utf8Writer(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  public Utf8Writer(OutputStream out, int bufferSize) {
+    this.out = out;
+    // Room for the longest encoding of a single character.
+    this.buffer = new byte[Math.max(bufferSize, 4)];
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    encode((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    for (int i = off, j = off + len; i < j; ++i) {
+      encode(cbuf[i]);
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    for (int i = off, j = off + len; i < j; ++i) {
+      encode(str.charAt(i));
+    }
+  }
+
+  @Override
+  public Utf8Writer append(char c) throws IOException {
+    encode(c);
+    return this;
+  }
+
+  @Override
+  public Utf8Writer append(CharSequence csq) throws IOException {
+    CharSequence chars = csq == null ? "null" : csq;
+    return append(chars, 0, chars.length());
+  }
+
+  @Override
+  public Utf8Writer append(CharSequence csq, int start, int end) throws IOException {
+    CharSequence chars = csq == null ? "null" : csq;
+    for (int i = start; i < end; ++i) {
+      encode(chars.charAt(i));
+    }
+    return this;
+  }
+
+  /**
+   * Writes out the buffered bytes and flushes the underlying stream. A trailing high surrogate
+   * is kept until the next character arrives.
+   */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (highSurrogate != 0) {
+      highSurrogate = 0;
+      buffer[count++] = '?';
+    }
+    flushBuffer();
+    out.close();
+  }
+
+  private void encode(char c) throws IOException {
+    if (count + 4 > buffer.length) {
+      flushBuffer();
+    }
+
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      // At most 3 more bytes follow, so this still fits.
+      buffer[count++] = '?';
+    }
+
+    if (c < 0x80) {
+      buffer[count++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[count++] = (byte) (0xC0 | (c >> 6));
+      buffer[count++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buffer[count++] = '?';
+    } else {
+      buffer[count++] = (byte) (0xE0 | (c >> 12));
+      buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[count++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+}
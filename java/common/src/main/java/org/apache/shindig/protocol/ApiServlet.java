@@ -21,15 +21,19 @@ import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.servlet.InjectedServlet;
+import org.apache.shindig.common.util.Utf8Writer;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.protocol.conversion.BeanConverter;
 import org.apache.shindig.protocol.conversion.BeanJsonConverter;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -137,6 +141,30 @@ public abstract class ApiServlet extends InjectedServlet {
     }
   }
 
+  /**
+   * Resolve a future into a response, giving up on it once the deadline has passed.
+   *
+   * @param deadline the time in milliseconds after which to stop waiting, or 0 to wait as long
+   *     as it takes
+   */
+  protected ResponseItem getResponseItem(Future<?> future, long deadline) {
+    if (future == null || deadline <= 0) {
+      return getResponseItem(future);
+    }
+    try {
+      long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+      Object result = future.get(remaining, TimeUnit.MILLISECONDS);
+      return new ResponseItem(result != null ? result : Collections.emptyMap());
+    } catch (TimeoutException te) {
+      future.cancel(true);
+      return new ResponseItem(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Request timed out");
+    } catch (InterruptedException ie) {
+      return responseItemFromException(ie);
+    } catch (ExecutionException ee) {
+      return responseItemFromException(ee.getCause());
+    }
+  }
+
   protected ResponseItem responseItemFromException(Throwable t) {
     if (t instanceof ProtocolException) {
       ProtocolException pe = (ProtocolException) t;
@@ -158,4 +186,12 @@ public abstract class ApiServlet extends InjectedServlet {
     }
     servletResponse.setCharacterEncoding(DEFAULT_ENCODING);
   }
+
+  /**
+   * @return A writer that encodes output as UTF-8 straight into the response body. It must be
+   *     flushed once the response is written.
+   */
+  protected Writer getResponseWriter(HttpServletResponse servletResponse) throws IOException {
+    return new Utf8Writer(servletResponse.getOutputStream());
+  }
 }
@@ -30,8 +30,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -195,7 +195,6 @@ public class DataServiceServlet extends ApiServlet {
 
     servletResponse.setContentType(responseConverter.getContentType());
     if (responseItem.getErrorCode() >= 200 && responseItem.getErrorCode() < 400) {
-      PrintWriter writer = servletResponse.getWriter();
       Object response = responseItem.getResponse();
       // TODO: ugliness resulting from not using RestfulItem
       if (!(response instanceof DataCollection) && !(response instanceof RestfulCollection)) {
@@ -207,9 +206,12 @@ public class DataServiceServlet extends ApiServlet {
           ContentTypes.OUTPUT_JSON_CONTENT_TYPE.equals(responseConverter.getContentType())) ?
           servletRequest.getParameter("callback") : null;
 
-      if (callback != null) writer.write(callback + '(');
-      writer.write(responseConverter.convertToString(response));
-      if (callback != null) writer.write(");\n");
+      // Serialize straight into the response instead of building the whole body first.
+      Writer writer = getResponseWriter(servletResponse);
+      if (callback != null) writer.append(callback).append('(');
+      responseConverter.append(writer, response);
+      if (callback != null) writer.append(");\n");
+      writer.flush();
     } else {
       sendError(servletResponse, responseItem);
     }
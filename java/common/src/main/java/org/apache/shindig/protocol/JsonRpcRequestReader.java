@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.protocol;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a JSON-RPC request, or the requests of a batch one at a time, straight from the request
+ * body. Only the text of the request currently being read is held in memory, rather than the
+ * whole body and the whole batch as JSON.
+ *
+ * The reader only splits the batch; each request is parsed by {@link JSONObject}, so the same
+ * lenient syntax is accepted as before.
+ */
+final class JsonRpcRequestReader {
+  private static final int EOF = -1;
+
+  private final Reader reader;
+  private int next = EOF;
+  private boolean peeked = false;
+  private boolean batch;
+  private boolean started = false;
+  private boolean finished = false;
+
+  JsonRpcRequestReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * @return true if the body is a batch of requests, false if it's a single request.
+   */
+  boolean isBatch() throws IOException {
+    if (!started) {
+      batch = skipWhitespace() == '[';
+    }
+    return batch;
+  }
+
+  /**
+   * @return the next request, or null if there are no more.
+   * @throws JSONException if the body or the request isn't valid JSON.
+   */
+  JSONObject next() throws IOException, JSONException {
+    if (finished) {
+      return null;
+    }
+    if (!isBatch()) {
+      started = true;
+      finished = true;
+      return new JSONObject(readObject());
+    }
+
+    int c;
+    if (!started) {
+      started = true;
+      read(); // The '['
+      c = skipWhitespace();
+      if (c == ']') {
+        finished = true;
+        return null;
+      }
+    } else {
+      c = skipWhitespace();
+      if (c == ']') {
+        finished = true;
+        return null;
+      }
+      if (c != ',') {
+        throw new JSONException("Expected ',' or ']' in batch, found " + describe(c));
+      }
+      read();
+      skipWhitespace();
+    }
+    return new JSONObject(readObject());
+  }
+
+  /**
+   * Read the text of the object that starts at the current character.
+   */
+  private String readObject() throws IOException, JSONException {
+    int c = skipWhitespace();
+    if (c != '{') {
+      throw new JSONException("Expected a request object, found " + describe(c));
+    }
+
+    StringBuilder text = new StringBuilder();
+    int depth = 0;
+    char quote = 0;
+    do {
+      c = read();
+      if (c == EOF) {
+        throw new JSONException("Unterminated request object");
+      }
+      text.append((char) c);
+      if (quote != 0) {
+        if (c == '\\') {
+          c = read();
+          if (c == EOF) {
+            throw new JSONException("Unterminated string");
+          }
+          text.append((char) c);
+        } else if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = (char) c;
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+      }
+    } while (depth > 0);
+    return text.toString();
+  }
+
+  /**
+   * @return the next character that isn't whitespace, without consuming it.
+   */
+  private int skipWhitespace() throws IOException {
+    int c = peek();
+    while (c != EOF && Character.isWhitespace(c)) {
+      read();
+      c = peek();
+    }
+    return c;
+  }
+
+  private int peek() throws IOException {
+    if (!peeked) {
+      next = reader.read();
+      peeked = true;
+    }
+    return next;
+  }
+
+  private int read() throws IOException {
+    int c = peek();
+    peeked = false;
+    return c;
+  }
+
+  private static String describe(int c) {
+    return c == EOF ? "end of input" : "'" + (char) c + '\'';
+  }
+}
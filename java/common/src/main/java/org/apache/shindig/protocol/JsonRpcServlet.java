@@ -38,9 +38,13 @@ import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +81,27 @@ public class JsonRpcServlet extends ApiServlet {
     jsonRpcBothFields = "both".equals(jsonRpcResultField);
   }
 
+  private long batchTimeoutMs = 0;
+  private int maxBatchSize = 0;
+
+  /**
+   * Set how long a request, or all requests of a batch together, may take. Requests that
+   * haven't completed by then get a timeout error. 0 for no limit.
+   */
+  @Inject(optional = true)
+  void setBatchTimeout(@Named("shindig.json-rpc.batch-timeout-ms") long batchTimeoutMs) {
+    this.batchTimeoutMs = batchTimeoutMs;
+  }
+
+  /**
+   * Set the largest number of requests a batch may contain. Larger batches are rejected as they
+   * are read. 0 for no limit.
+   */
+  @Inject(optional = true)
+  void setMaxBatchSize(@Named("shindig.json-rpc.max-batch-size") int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
   @Override
   protected void service(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
       throws IOException {
@@ -101,15 +126,18 @@ public class JsonRpcServlet extends ApiServlet {
     HttpUtil.setCORSheader(servletResponse, containerConfig.<String>getList(token.getContainer(), "gadgets.parentOrigins"));
 
     try {
-      String content = null;
+      Reader content = null;
       String callback = null; // for JSONP
       Map<String,FormDataItem> formData = Maps.newHashMap();
 
       // Get content or deal with JSON-RPC GET
       if ("POST".equals(method)) {
-        content = getPostContent(servletRequest, formData);
+        content = getPostReader(servletRequest, formData);
       } else if (HttpUtil.isJSONP(servletRequest)) {
-        content = servletRequest.getParameter("request");
+        String request = servletRequest.getParameter("request");
+        if (request != null) {
+          content = new StringReader(request);
+        }
         callback = servletRequest.getParameter("callback");
       } else {
         // GET request, fromRequest() creates the json objects directly.
@@ -126,11 +154,21 @@ public class JsonRpcServlet extends ApiServlet {
         return;
       }
 
-      if (isContentJsonBatch(content)) {
-        JSONArray batch = new JSONArray(content);
+      JsonRpcRequestReader requests = new JsonRpcRequestReader(content);
+      if (requests.isBatch()) {
+        JSONArray batch = new JSONArray();
+        for (JSONObject request = requests.next(); request != null; request = requests.next()) {
+          if (maxBatchSize > 0 && batch.length() == maxBatchSize) {
+            // Reject the batch without reading the rest of it.
+            sendError(servletResponse, new ResponseItem(HttpServletResponse.SC_EXPECTATION_FAILED,
+                "A batch may contain at most " + maxBatchSize + " requests"));
+            return;
+          }
+          batch.put(request);
+        }
         dispatchBatch(batch, formData, servletRequest, servletResponse, token, callback);
       } else {
-        JSONObject request = new JSONObject(content);
+        JSONObject request = requests.next();
         dispatch(request, formData, servletRequest, servletResponse, token, callback);
       }
       return;
@@ -144,6 +182,24 @@ public class JsonRpcServlet extends ApiServlet {
     }
   }
 
+  /**
+   * @return a reader for the JSON request in the body of a POST, or null if there is none. The
+   *     body is read as the request is parsed, rather than into a String up front.
+   */
+  protected Reader getPostReader(HttpServletRequest request, Map<String,FormDataItem> formItems)
+      throws ContentTypes.InvalidContentTypeException, IOException {
+    if (formParser.isMultipartContent(request)) {
+      String content = getPostContent(request, formItems);
+      return content == null ? null : new StringReader(content);
+    }
+
+    ContentTypes.checkContentTypes(ALLOWED_CONTENT_TYPES, request.getContentType());
+    String encoding = request.getCharacterEncoding();
+    InputStream in = request.getInputStream();
+    return new BufferedReader(encoding == null ? new InputStreamReader(in) :
+        new InputStreamReader(in, encoding));
+  }
+
   protected String getPostContent(HttpServletRequest request, Map<String,FormDataItem> formItems)
       throws ContentTypes.InvalidContentTypeException, IOException {
     String content = null;
@@ -174,8 +230,10 @@ public class JsonRpcServlet extends ApiServlet {
   protected void dispatchBatch(JSONArray batch, Map<String, FormDataItem> formItems ,
       HttpServletRequest servletRequest, HttpServletResponse servletResponse,
       SecurityToken token, String callback) throws JSONException, IOException {
-    // Use linked hash map to preserve order
     List<Future<?>> responses = Lists.newArrayListWithCapacity(batch.length());
+    List<String> keys = Lists.newArrayListWithCapacity(batch.length());
+    // The time spent starting the requests counts against the timeout.
+    long deadline = getDeadline();
 
     // Gather all Futures.  We do this up front so that
     // the first call to get() comes after all futures are created,
@@ -184,25 +242,28 @@ public class JsonRpcServlet extends ApiServlet {
     for (int i = 0; i < batch.length(); i++) {
       JSONObject batchObj = batch.getJSONObject(i);
       responses.add(getHandler(batchObj, servletRequest).execute(formItems, token, jsonConverter));
+      keys.add(batchObj.has("id") ? batchObj.getString("id") : null);
     }
 
-    // Resolve each Future into a response.
-    // TODO: should use shared deadline across each request
-    List<Object> result = new ArrayList<Object>(batch.length());
-    for (int i = 0; i < batch.length(); i++) {
-      JSONObject batchObj = batch.getJSONObject(i);
-      String key = null;
-      if (batchObj.has("id")) {
-        key = batchObj.getString("id");
+    // Resolve each Future into a response, and write it out right away instead of collecting
+    // the whole batch first. Whatever has been written is flushed before waiting on a Future,
+    // so the client isn't held up by the slowest request.
+    Writer writer = getResponseWriter(servletResponse);
+    if (callback != null) writer.append(callback).append('(');
+    writer.append('[');
+    for (int i = 0; i < responses.size(); i++) {
+      Future<?> future = responses.get(i);
+      if (future != null && !future.isDone()) {
+        writer.flush();
       }
-      result.add(getJSONResponse(key, getResponseItem(responses.get(i))));
+      if (i > 0) {
+        writer.append(',');
+      }
+      jsonConverter.append(writer, getJSONResponse(keys.get(i), getResponseItem(future, deadline)));
     }
-
-    // Generate the output
-    Writer writer = servletResponse.getWriter();
-    if (callback != null) writer.append(callback).append('(');
-    jsonConverter.append(writer, result);
+    writer.append(']');
     if (callback != null) writer.append(");\n");
+    writer.flush();
   }
 
   protected void dispatch(JSONObject request, Map<String, FormDataItem> formItems,
@@ -214,19 +275,26 @@ public class JsonRpcServlet extends ApiServlet {
       key = request.getString("id");
     }
 
+    long deadline = getDeadline();
     // getRpcHandler never returns null
     Future<?> future = getHandler(request, servletRequest).execute(formItems, token, jsonConverter);
 
-    // Resolve each Future into a response.
-    // TODO: should use shared deadline across each request
-    ResponseItem response = getResponseItem(future);
+    ResponseItem response = getResponseItem(future, deadline);
     Object result = getJSONResponse(key, response);
 
     // Generate the output
-    Writer writer = servletResponse.getWriter();
+    Writer writer = getResponseWriter(servletResponse);
     if (callback != null) writer.append(callback).append('(');
     jsonConverter.append(writer, result);
     if (callback != null) writer.append(");\n");
+    writer.flush();
+  }
+
+  /**
+   * @return when requests started now must complete by, or 0 if they may take as long as needed.
+   */
+  private long getDeadline() {
+    return batchTimeoutMs > 0 ? System.currentTimeMillis() + batchTimeoutMs : 0;
   }
 
   /**
@@ -240,16 +308,6 @@ public class JsonRpcServlet extends ApiServlet {
     result.put(jsonRpcResultField, data);
   }
 
-  /**
-   * Determine if the content contains a batch request
-   *
-   * @param content json content or null
-   * @return true if content contains is a json array, not a json object or null
-   */
-  private boolean isContentJsonBatch(String content) {
-    if (content == null) return false;
-    return ((content.indexOf('[') != -1) && content.indexOf('[') < content.indexOf('{'));
-  }
   /**
    * Wrap call to dispatcher to allow for implementation specific overrides
    * and servlet-request contextual handling
@@ -267,38 +325,47 @@ public class JsonRpcServlet extends ApiServlet {
         responseItem.getErrorCode() >= 400) {
       result.put("error", getErrorJson(responseItem));
     } else {
-      Object response = responseItem.getResponse();
-      if (response instanceof DataCollection) {
-        addResult(result, ((DataCollection) response).getEntry());
-      } else if (response instanceof RestfulCollection) {
-        Map<String, Object> map = Maps.newHashMap();
-        RestfulCollection<?> collection = (RestfulCollection<?>) response;
-        // Return sublist info
-        if (collection.getTotalResults() != collection.getEntry().size()) {
-          map.put("startIndex", collection.getStartIndex());
-          map.put("itemsPerPage", collection.getItemsPerPage());
-        }
-        // always put in totalResults
-        map.put("totalResults", collection.getTotalResults());
+      addResult(result, getJSONResult(responseItem.getResponse()));
+
+      // TODO: put "code" for != 200?
+    }
+    return result;
+  }
 
-        if (!collection.isFiltered())
-          map.put("filtered", collection.isFiltered());
+  /**
+   * Get the result of a successful call in the form it's returned to JSON-RPC clients.
+   *
+   * @param response the object returned by the handler
+   * @return the entry of a DataCollection, a map with the list and paging information of a
+   *     RestfulCollection, or otherwise the response itself
+   */
+  public static Object getJSONResult(Object response) {
+    if (response instanceof DataCollection) {
+      return ((DataCollection) response).getEntry();
+    } else if (response instanceof RestfulCollection) {
+      Map<String, Object> map = Maps.newHashMap();
+      RestfulCollection<?> collection = (RestfulCollection<?>) response;
+      // Return sublist info
+      if (collection.getTotalResults() != collection.getEntry().size()) {
+        map.put("startIndex", collection.getStartIndex());
+        map.put("itemsPerPage", collection.getItemsPerPage());
+      }
+      // always put in totalResults
+      map.put("totalResults", collection.getTotalResults());
 
-        if (!collection.isUpdatedSince())
-          map.put("updatedSince", collection.isUpdatedSince());
+      if (!collection.isFiltered())
+        map.put("filtered", collection.isFiltered());
 
-        if (!collection.isSorted())
-          map.put("sorted", collection.isUpdatedSince());
+      if (!collection.isUpdatedSince())
+        map.put("updatedSince", collection.isUpdatedSince());
 
-        map.put("list", collection.getEntry());
-        addResult(result, map);
-      } else {
-        addResult(result, response);
-      }
+      if (!collection.isSorted())
+        map.put("sorted", collection.isUpdatedSince());
 
-      // TODO: put "code" for != 200?
+      map.put("list", collection.getEntry());
+      return map;
     }
-    return result;
+    return response;
   }
 
   /** Map of old-style error titles */
@@ -314,7 +381,10 @@ public class JsonRpcServlet extends ApiServlet {
   // TODO(doll): Refactor the responseItem so that the fields on it line up with this format.
   // Then we can use the general converter to output the response to the client and we won't
   // be harcoded to json.
-  private Object getErrorJson(ResponseItem responseItem) {
+  /**
+   * Get the error of a failed call in the form it's returned to JSON-RPC clients.
+   */
+  public static Object getErrorJson(ResponseItem responseItem) {
     Map<String, Object> error = new HashMap<String, Object>(2, 1);
     error.put("code", responseItem.getErrorCode());
 
@@ -341,9 +411,12 @@ public class JsonRpcServlet extends ApiServlet {
   @Override
   protected void sendError(HttpServletResponse servletResponse, ResponseItem responseItem)
       throws IOException {
-    jsonConverter.append(servletResponse.getWriter(), getErrorJson(responseItem));
-
+    // Flushing commits the response, so the status goes first.
     servletResponse.setStatus(responseItem.getErrorCode());
+
+    Writer writer = getResponseWriter(servletResponse);
+    jsonConverter.append(writer, getErrorJson(responseItem));
+    writer.flush();
   }
 
   private void sendBadRequest(Throwable t, HttpServletResponse response) throws IOException {
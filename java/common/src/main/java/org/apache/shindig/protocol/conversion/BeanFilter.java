@@ -21,8 +21,11 @@ package org.apache.shindig.protocol.conversion;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 
+import org.apache.shindig.common.cache.LruCache;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -37,6 +40,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Filter content of a bean according to fields list.
@@ -48,7 +52,9 @@ import java.util.Set;
  * specifying "view.*" require specifying "view" in order to get the view itself.
  * (Note that the processBeanFilter resolve the last limitation)
  *
- * Note this code create a new object for each filtered object.
+ * Note this code create a new object for each filtered object, but decides which of its
+ * methods pass through only once per set of fields, for all objects of a class at the same level
+ * of a filtered bean.
  * Filtering can be done also using cglib.InterfaceMaker and reflect.Proxy.makeProxyInstance
  * That results with an object that have same finger print as source, but cannot be cast to it.
  *
@@ -59,6 +65,12 @@ public class BeanFilter {
   public static final String ALL_FIELDS = "*";
   public static final String DELIMITER = ".";
 
+  // Most callers filter with one of a few field sets, so the decisions for each are kept.
+  private static final int MAX_PROJECTIONS = 100;
+
+  private final LruCache<Set<String>, Projection> projections =
+      new LruCache<Set<String>, Projection>(MAX_PROJECTIONS);
+
   /** Annotation for required field that should not be filtered */
   @Target(ElementType.METHOD)
   @Retention(RetentionPolicy.RUNTIME)
@@ -73,15 +85,25 @@ public class BeanFilter {
    * @param fields list of fields to pass through.
    */
   public Object createFilteredBean(Object data, Set<String> fields) {
-    return createFilteredBean(data, fields, "");
+    return createFilteredBean(data, fields == null ? null : getProjection(fields), "");
+  }
+
+  private Projection getProjection(Set<String> fields) {
+    Set<String> key = ImmutableSet.copyOf(fields);
+    Projection projection = projections.getElement(key);
+    if (projection == null) {
+      projection = new Projection(key);
+      projections.addElement(key, projection);
+    }
+    return projection;
   }
 
   @SuppressWarnings("unchecked")
-  private Object createFilteredBean(Object data, Set<String> fields, String fieldName) {
+  private Object createFilteredBean(Object data, Projection projection, String fieldName) {
     // For null, atomic object or for all fields just return original.
-    if (data == null || fields == null
+    if (data == null || projection == null
         || BeanDelegator.PRIMITIVE_TYPE_CLASSES.contains(data.getClass())
-        || fields.contains(ALL_FIELDS)) {
+        || projection.fields.contains(ALL_FIELDS)) {
       return data;
     }
 
@@ -90,7 +112,7 @@ public class BeanFilter {
       Map<Object, Object> oldMap = (Map<Object, Object>) data;
       Map<Object, Object> newMap = Maps.newHashMapWithExpectedSize(oldMap.size());
       for (Map.Entry<Object, Object> entry : oldMap.entrySet()) {
-        newMap.put(entry.getKey(), createFilteredBean(entry.getValue(), fields, fieldName));
+        newMap.put(entry.getKey(), createFilteredBean(entry.getValue(), projection, fieldName));
       }
       return newMap;
     }
@@ -100,14 +122,87 @@ public class BeanFilter {
       List<Object> oldList = (List<Object>) data;
       List<Object> newList = Lists.newArrayListWithCapacity(oldList.size());
       for (Object entry : oldList) {
-        newList.add(createFilteredBean(entry, fields, fieldName));
+        newList.add(createFilteredBean(entry, projection, fieldName));
       }
       return newList;
     }
 
     // Create a new intercepted object:
     return Proxy.newProxyInstance( data.getClass().getClassLoader(),
-        data.getClass().getInterfaces(), new FilterInvocationHandler(data, fields, fieldName));
+        data.getClass().getInterfaces(), new FilterInvocationHandler(data, projection, fieldName));
+  }
+
+  /**
+   * A set of fields to filter by. Whether a method of a filtered object passes through is decided
+   * once per class and level of nesting, for all objects of the class at that level, such as the
+   * items of a list. Shared by concurrent calls with the same fields.
+   */
+  private static final class Projection {
+    private final Set<String> fields;
+    // The filters of each class of filtered objects, by the field name of the objects.
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, Map<Method, MethodFilter>>> levels =
+        new MapMaker().makeMap();
+
+    Projection(Set<String> fields) {
+      this.fields = fields;
+    }
+
+    /**
+     * @return The filters for the interface methods of the given class at a level. The map is
+     *     never changed once returned.
+     */
+    Map<Method, MethodFilter> getFilters(String prefix, Class<?> type) {
+      ConcurrentMap<Class<?>, Map<Method, MethodFilter>> level = levels.get(prefix);
+      if (level == null) {
+        level = new MapMaker().makeMap();
+        ConcurrentMap<Class<?>, Map<Method, MethodFilter>> existing =
+            levels.putIfAbsent(prefix, level);
+        if (existing != null) {
+          level = existing;
+        }
+      }
+      Map<Method, MethodFilter> filters = level.get(type);
+      if (filters == null) {
+        // Concurrent callers may build the same filters; either copy will do.
+        filters = Maps.newHashMap();
+        for (Class<?> iface : type.getInterfaces()) {
+          for (Method method : iface.getMethods()) {
+            filters.put(method, new MethodFilter(method, prefix, fields));
+          }
+        }
+        level.put(type, filters);
+      }
+      return filters;
+    }
+  }
+
+  /**
+   * How a method is filtered at a level of nesting.
+   */
+  private static final class MethodFilter {
+    // The full field name of a filtered getter, or null for other methods.
+    private final String fieldName;
+    // The method returns null instead of being invoked.
+    private final boolean excluded;
+    // The result of the method is filtered in turn.
+    private final boolean filterResult;
+
+    MethodFilter(Method method, String prefix, Set<String> fields) {
+      String name = null;
+      boolean exclude = false;
+      if (method.getName().startsWith("get")
+          // Do not filter out primitive types, it will result in NPE
+          && !method.getReturnType().isPrimitive()) {
+        // Look for Required annotation
+        boolean required = (method.getAnnotation(Unfiltered.class) != null);
+        name = prefix + method.getName().substring(3).toLowerCase();
+        exclude = !required && !fields.contains(name);
+      }
+      this.fieldName = name;
+      this.excluded = exclude;
+      // if the request ask for all fields, we don't need to filter them
+      this.filterResult = name != null && !fields.contains(name + DELIMITER + ALL_FIELDS);
+    }
   }
 
   /**
@@ -117,28 +212,27 @@ public class BeanFilter {
    */
   private class FilterInvocationHandler implements InvocationHandler {
     private final String prefix;
-    private final Set<String> fields;
+    private final Projection projection;
+    private final Map<Method, MethodFilter> filters;
     private final Object origData;
 
-    FilterInvocationHandler(Object origData, Set<String> fields, String fieldName) {
-      this.fields = fields;
+    FilterInvocationHandler(Object origData, Projection projection, String fieldName) {
+      this.projection = projection;
       this.prefix = Strings.isNullOrEmpty(fieldName) ? "" : fieldName + DELIMITER;
+      this.filters = projection.getFilters(prefix, origData.getClass());
       this.origData = origData;
     }
 
     public Object invoke(Object data, Method method, Object[] args) {
-      String fieldName = null;
-      Object result = null;
-      if (method.getName().startsWith("get")
-          // Do not filter out primitive types, it will result in NPE
-          && !method.getReturnType().isPrimitive()) {
-        // Look for Required annotation
-        boolean required = (method.getAnnotation(Unfiltered.class) != null);
-        fieldName = prefix + method.getName().substring(3).toLowerCase();
-        if (!required && !fields.contains(fieldName)) {
-          return null;
-        }
+      MethodFilter filter = filters.get(method);
+      if (filter == null) {
+        // Methods of Object, such as toString.
+        filter = new MethodFilter(method, prefix, projection.fields);
       }
+      if (filter.excluded) {
+        return null;
+      }
+      Object result = null;
       try {
         result = method.invoke(origData, args);
       } catch (IllegalArgumentException e) {
@@ -148,10 +242,8 @@ public class BeanFilter {
       } catch (InvocationTargetException e) {
         throw new RuntimeException(e);
       }
-      if (result != null && fieldName != null
-          // if the request ask for all fields, we don't need to filter them
-          && !fields.contains(fieldName + DELIMITER + ALL_FIELDS)) {
-        return createFilteredBean(result, fields, fieldName);
+      if (result != null && filter.filterResult) {
+        return createFilteredBean(result, projection, filter.fieldName);
         // TODO: Consider improving the above by saving the filtered bean in a local map for reuse
         // for current use the get is called once, so it would actually create overhead
       }
@@ -21,12 +21,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Lists;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 
 import org.apache.shindig.common.JsonProperty;
 import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.JsonUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.protocol.ContentTypes;
 import org.apache.shindig.protocol.model.Enum;
@@ -59,7 +61,11 @@ import java.util.Set;
 public class BeanJsonConverter implements BeanConverter {
 
   // Only compute the filtered setters once per-class
-  private static final Map<Class<?>, Map<String, Method>> setters = new MapMaker().makeMap();
+  private static final Map<Class<?>, Setter[]> setters = new MapMaker().makeMap();
+
+  // Enum constants by their string value, once per-class
+  private static final Map<Class<?>, Map<String, Object>> enumConstants =
+      new MapMaker().makeMap();
 
   private final Injector injector;
 
@@ -86,8 +92,8 @@ public class BeanJsonConverter implements BeanConverter {
     JsonSerializer.append(buf, pojo);
   }
 
-  private static Map<String, Method> getSetters(Class<?> type) {
-    Map<String, Method> methods = setters.get(type);
+  private static Setter[] getSetters(Class<?> type) {
+    Setter[] methods = setters.get(type);
 
     if (methods != null) {
       return methods;
@@ -102,7 +108,12 @@ public class BeanJsonConverter implements BeanConverter {
         }
       }
     }
-    methods = builder.build();
+
+    List<Setter> list = Lists.newArrayList();
+    for (Map.Entry<String, Method> entry : builder.build().entrySet()) {
+      list.add(new Setter(entry.getKey(), entry.getValue()));
+    }
+    methods = list.toArray(new Setter[list.size()]);
 
     setters.put(type, methods);
     return methods;
@@ -227,10 +238,19 @@ public class BeanJsonConverter implements BeanConverter {
   }
 
   private Object convertToEnum(String value, Class<?> type) {
-    for (Object o : type.getEnumConstants()) {
-      if (o.toString().equals(value)) {
-        return o;
+    Map<String, Object> constants = enumConstants.get(type);
+    if (constants == null) {
+      constants = Maps.newHashMap();
+      for (Object o : type.getEnumConstants()) {
+        if (!constants.containsKey(o.toString())) {
+          constants.put(o.toString(), o);
+        }
       }
+      enumConstants.put(type, constants);
+    }
+    Object constant = value == null ? null : constants.get(value);
+    if (constant != null) {
+      return constant;
     }
     throw new IllegalArgumentException("No enum value " + value + " in " + type.getName());
   }
@@ -261,12 +281,11 @@ public class BeanJsonConverter implements BeanConverter {
 
   private Object convertToClass(JSONObject in, Class<?> type) {
     Object out = injector.getInstance(type);
-    for (Map.Entry<String, Method> entry : getSetters(out.getClass()).entrySet()) {
-      Object value = in.opt(entry.getKey());
+    for (Setter setter : getSetters(out.getClass())) {
+      Object value = in.opt(setter.name);
       if (value != null) {
-        Method method = entry.getValue();
         try {
-          method.invoke(out, convertToObject(value, method.getGenericParameterTypes()[0]));
+          setter.method.invoke(out, convertToObject(value, setter.type));
         } catch (IllegalArgumentException e) {
           throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
@@ -278,4 +297,20 @@ public class BeanJsonConverter implements BeanConverter {
     }
     return out;
   }
+
+  /**
+   * A property setter, with everything needed to call it looked up once.
+   */
+  private static final class Setter {
+    private final String name;
+    private final Method method;
+    private final Type type;
+
+    private Setter(String name, Method method) {
+      this.name = name;
+      this.method = method;
+      this.type = method.getGenericParameterTypes()[0];
+      JsonUtil.makeAccessible(method);
+    }
+  }
 }
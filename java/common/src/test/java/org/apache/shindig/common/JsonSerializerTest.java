@@ -20,6 +20,8 @@ package org.apache.shindig.common;
 
 import static org.apache.shindig.common.JsonAssert.assertJsonEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Strings;
 
@@ -31,6 +33,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -169,6 +172,30 @@ public class JsonSerializerTest {
         JsonSerializer.serialize(pojo));
   }
 
+  public static class ViewerPojo {
+    @JsonProperty("isViewer")
+    public boolean getViewer() {
+      return false;
+    }
+
+    @JsonProperty("isOwner")
+    public boolean getOwner() {
+      return true;
+    }
+
+    @JsonProperty("quoted\"name")
+    public String getQuotedName() {
+      return "value";
+    }
+  }
+
+  @Test
+  public void serializePojoRepeatedly() throws Exception {
+    String expected = "{isOwner:true,'quoted\"name':'value'}";
+    assertJsonEquals(expected, JsonSerializer.serialize(new ViewerPojo()));
+    assertJsonEquals(expected, JsonSerializer.serialize(new ViewerPojo()));
+  }
+
   @Test
   public void serializeMixedObjects() throws Exception {
     Map<String, ?> map = ImmutableMap.of(
@@ -196,6 +223,22 @@ public class JsonSerializerTest {
         JsonSerializer.serialize(data));
   }
 
+  @Test
+  public void toJsonMatchesParsedSerialization() throws Exception {
+    Collection<Object> data = Arrays.asList(
+        new JsonPojo(),
+        new ViewerPojo(),
+        ImmutableMap.of("date", new Date(0L), "list", Arrays.asList("one", null, "two")),
+        RetentionPolicy.RUNTIME,
+        null);
+    Object json = JsonSerializer.toJson(data);
+
+    assertTrue(json instanceof JSONArray);
+    JSONObject viewer = ((JSONArray) json).getJSONObject(1);
+    assertFalse(viewer.has("isViewer"));
+    assertJsonEquals(JsonSerializer.serialize(data), JsonSerializer.serialize(json));
+  }
+
   @Test
   public void emptyString() throws Exception {
     StringBuilder builder = new StringBuilder();
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrentLruCacheTest {
+  private static final int TEST_CAPACITY = 2;
+
+  private final ConcurrentLruCache<String, String> cache
+      = new ConcurrentLruCache<String, String>(TEST_CAPACITY);
+
+  @Test
+  public void normalCapacityOk() {
+    for (int i = 0; i < TEST_CAPACITY; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    assertEquals(TEST_CAPACITY, cache.getSize());
+    assertEquals(TEST_CAPACITY, cache.getCapacity());
+    assertEquals("0", cache.getElement("0"));
+  }
+
+  @Test
+  public void exceededCapacityRemoved() {
+    for (int i = 0; i < TEST_CAPACITY + 1; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    assertEquals(TEST_CAPACITY, cache.getSize());
+    assertNull(cache.getElement("0"));
+  }
+
+  @Test
+  public void recentlyReadEntryRetained() {
+    cache.addElement("0", "0");
+    cache.addElement("1", "1");
+    cache.getElement("0");
+    cache.addElement("2", "2");
+    assertEquals("0", cache.getElement("0"));
+    assertNull(cache.getElement("1"));
+    assertEquals("2", cache.getElement("2"));
+  }
+
+  @Test
+  public void replaceKeepsSize() {
+    for (int i = 0; i < 100; ++i) {
+      cache.addElement("0", Integer.toString(i));
+    }
+    assertEquals(1, cache.getSize());
+    assertEquals("99", cache.getElement("0"));
+  }
+
+  @Test
+  public void removeElement() {
+    cache.addElement("0", "0");
+    assertEquals("0", cache.removeElement("0"));
+    assertNull(cache.removeElement("0"));
+    assertEquals(0, cache.getSize());
+  }
+
+  private static final Weigher<String> LENGTH_WEIGHER = new Weigher<String>() {
+    public long weigh(String value) {
+      return value.length();
+    }
+  };
+
+  @Test
+  public void exceededWeightRemoved() {
+    ConcurrentLruCache<String, String> weighted
+        = new ConcurrentLruCache<String, String>(10, 10, LENGTH_WEIGHER);
+    weighted.addElement("a", "aaaa");
+    weighted.addElement("b", "bbbb");
+    assertEquals(8, weighted.getWeight());
+    weighted.addElement("c", "cccc");
+    assertEquals(2, weighted.getSize());
+    assertEquals(8, weighted.getWeight());
+    assertNull(weighted.getElement("a"));
+    assertEquals(10, weighted.getMaxWeight());
+  }
+
+  @Test
+  public void replaceUpdatesWeight() {
+    ConcurrentLruCache<String, String> weighted
+        = new ConcurrentLruCache<String, String>(10, 10, LENGTH_WEIGHER);
+    weighted.addElement("a", "aaaa");
+    weighted.addElement("a", "aa");
+    assertEquals(2, weighted.getWeight());
+    weighted.removeElement("a");
+    assertEquals(0, weighted.getWeight());
+  }
+
+  @Test
+  public void overweightValueNotCached() {
+    ConcurrentLruCache<String, String> weighted
+        = new ConcurrentLruCache<String, String>(10, 10, LENGTH_WEIGHER);
+    weighted.addElement("a", "aaaa");
+    weighted.addElement("a", "aaaaaaaaaaaa");
+    assertNull(weighted.getElement("a"));
+    assertEquals(0, weighted.getWeight());
+    assertEquals(0, weighted.getSize());
+  }
+
+  @Test
+  public void unboundedWeightTracked() {
+    ConcurrentLruCache<String, String> weighted
+        = new ConcurrentLruCache<String, String>(10, -1, LENGTH_WEIGHER);
+    weighted.addElement("a", "aaaaaaaaaaaa");
+    assertEquals("aaaaaaaaaaaa", weighted.getElement("a"));
+    assertEquals(12, weighted.getWeight());
+  }
+
+  @Test
+  public void providerCreatesConcurrentCaches() {
+    CacheProvider provider = new ConcurrentLruCacheProvider(10);
+    Cache<String, String> created = provider.createCache("foo");
+    assertTrue(created instanceof ConcurrentLruCache);
+    assertEquals(10, created.getCapacity());
+  }
+}
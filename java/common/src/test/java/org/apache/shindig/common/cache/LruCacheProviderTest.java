@@ -81,4 +81,33 @@ public class LruCacheProviderTest {
     assertEquals(10, getCache(provider, "foo").capacity);
   }
 
+  private static final Weigher<Object> UNIT_WEIGHER = new Weigher<Object>() {
+    public long weigh(Object value) {
+      return 1;
+    }
+  };
+
+  @Test
+  public void configuredMaxWeight() throws Exception {
+    Module module = new AbstractModule() {
+      @Override
+      public void configure() {
+        binder().bindConstant()
+            .annotatedWith(Names.named("shindig.cache.lru.foo.max-weight"))
+            .to("5000");
+      }
+    };
+    LruCacheProvider provider = new LruCacheProvider(Guice.createInjector(module), 10);
+    Cache<Object, Object> cache = provider.createCache("foo", UNIT_WEIGHER);
+    assertEquals(5000, ((WeightedCache<Object, Object>) cache).getMaxWeight());
+    assertEquals(10, cache.getCapacity());
+    assertSame(cache, provider.createCache("foo", UNIT_WEIGHER));
+  }
+
+  @Test
+  public void unweightedWithoutMaxWeight() throws Exception {
+    LruCacheProvider provider = createProvider("foo", "100", 10);
+    assertEquals(100, ((LruCache<Object, Object>) provider.createCache("foo", UNIT_WEIGHER))
+        .capacity);
+  }
 }
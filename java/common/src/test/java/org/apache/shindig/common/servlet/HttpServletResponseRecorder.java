@@ -41,6 +41,7 @@ public class HttpServletResponseRecorder extends HttpServletResponseWrapper {
   private PrintWriter writer;
   private final Map<String, String> headers = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
   private int httpStatusCode = HttpServletResponse.SC_OK;
+  private boolean committed = false;
   private String encoding = Charset.defaultCharset().name();
 
   public HttpServletResponseRecorder(HttpServletResponse response) {
@@ -83,9 +84,22 @@ public class HttpServletResponseRecorder extends HttpServletResponseWrapper {
       public void write(int b) {
         baos.write(b);
       }
+
+      @Override
+      public void flush() {
+        committed = true;
+      }
     };
   }
 
+  /**
+   * @return True once the output stream has been flushed, as a container would commit then.
+   */
+  @Override
+  public boolean isCommitted() {
+    return committed;
+  }
+
   @Override
   public void addHeader(String name, String value) {
     headers.put(name, value);
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * ServletOutputStream used for testing. Keeps everything written to it.
+ */
+public class FakeServletOutputStream extends ServletOutputStream {
+  private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+  @Override
+  public void write(int b) {
+    stream.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    stream.write(b, off, len);
+  }
+
+  public byte[] toByteArray() {
+    return stream.toByteArray();
+  }
+
+  /**
+   * @return Everything written so far, decoded as UTF-8.
+   */
+  @Override
+  public String toString() {
+    try {
+      return stream.toString("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
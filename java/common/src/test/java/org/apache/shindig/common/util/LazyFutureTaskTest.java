@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.util;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests LazyFutureTask.
+ */
+public class LazyFutureTaskTest extends Assert {
+  private final SettableFuture<String> awaited = SettableFuture.create();
+  private final LazyFutureTask<String> task = new LazyFutureTask<String>(
+      new Callable<String>() {
+        public String call() throws Exception {
+          return awaited.get() + " done";
+        }
+      }, awaited);
+
+  @Test
+  public void testGet() throws Exception {
+    awaited.set("foo");
+    assertEquals("foo done", task.get());
+  }
+
+  @Test
+  public void testGetWithTimeout() throws Exception {
+    awaited.set("foo");
+    assertEquals("foo done", task.get(1L, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout = 5000)
+  public void testGetTimesOut() throws Exception {
+    try {
+      task.get(10L, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    assertFalse(task.isDone());
+
+    awaited.set("foo");
+    assertEquals("foo done", task.get(1L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDoneOnceAwaitedIsDone() throws Exception {
+    assertFalse(task.isDone());
+    awaited.set("foo");
+    assertTrue(task.isDone());
+    assertEquals("foo done", task.get());
+  }
+
+  @Test
+  public void testFailureReportedByTask() throws Exception {
+    RuntimeException re = new RuntimeException();
+    awaited.setException(re);
+    try {
+      task.get(1L, TimeUnit.SECONDS);
+      fail("Expected the task to fail");
+    } catch (ExecutionException e) {
+      assertSame(re, e.getCause().getCause());
+    }
+  }
+}
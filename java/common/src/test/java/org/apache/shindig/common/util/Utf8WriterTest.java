@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import junitx.framework.ArrayAssert;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests for Utf8Writer.
+ */
+public class Utf8WriterTest {
+  private static final String TEXT = "ascii, \u00e9\u00e8, \u4e2d\u6587, \ud834\udd1e and more";
+
+  @Test
+  public void encodesLikeStringGetBytes() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8Writer writer = new Utf8Writer(out);
+    writer.append(TEXT.substring(0, 10)).append(TEXT, 10, 20);
+    writer.write(TEXT.substring(20).toCharArray());
+    writer.flush();
+
+    ArrayAssert.assertEquals(TEXT.getBytes("UTF-8"), out.toByteArray());
+  }
+
+  @Test
+  public void smallBufferSplitsSurrogatePairs() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8Writer writer = new Utf8Writer(out, 1);
+    for (char c : TEXT.toCharArray()) {
+      writer.append(c);
+    }
+    writer.flush();
+
+    assertEquals(TEXT, new String(out.toByteArray(), "UTF-8"));
+  }
+
+  @Test
+  public void unpairedSurrogates() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Utf8Writer writer = new Utf8Writer(out);
+    writer.write("a\udd1eb\ud834c\ud834");
+    writer.close();
+
+    assertEquals("a?b?c?", out.toString("UTF-8"));
+  }
+}
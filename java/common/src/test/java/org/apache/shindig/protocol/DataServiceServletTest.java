@@ -18,7 +18,7 @@
 package org.apache.shindig.protocol;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -27,9 +27,11 @@ import com.google.common.base.Strings;
 import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.common.testing.FakeGadgetToken;
 import org.apache.shindig.common.testing.FakeHttpServletRequest;
+import org.apache.shindig.common.testing.FakeServletOutputStream;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.protocol.conversion.BeanConverter;
 import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.easymock.EasyMock;
 import org.junit.Assert;
@@ -98,14 +100,18 @@ public class DataServiceServletTest extends Assert {
 
     String method = Strings.isNullOrEmpty(overrideMethod) ? actualMethod : overrideMethod;
 
-    EasyMock.expect(jsonConverter.convertToString(
-        ImmutableMap.of("entry", TestHandler.REST_RESULTS.get(method))))
-        .andReturn("{ 'entry' : " + TestHandler.REST_RESULTS.get(method) + " }");
-
-    PrintWriter writerMock = EasyMock.createMock(PrintWriter.class);
-    EasyMock.expect(res.getWriter()).andReturn(writerMock);
-    writerMock.write(TestHandler.GET_RESPONSE);
-    EasyMock.expectLastCall();
+    final String response = "{ 'entry' : " + TestHandler.REST_RESULTS.get(method) + " }";
+    jsonConverter.append(EasyMock.isA(Writer.class),
+        EasyMock.eq(ImmutableMap.of("entry", TestHandler.REST_RESULTS.get(method))));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        ((Writer) EasyMock.getCurrentArguments()[0]).append(response);
+        return null;
+      }
+    });
+
+    FakeServletOutputStream output = new FakeServletOutputStream();
+    EasyMock.expect(res.getOutputStream()).andReturn(output);
     res.setCharacterEncoding("UTF-8");
     res.setContentType(ContentTypes.OUTPUT_JSON_CONTENT_TYPE);
 
@@ -113,6 +119,8 @@ public class DataServiceServletTest extends Assert {
     servlet.service(req, res);
     mockControl.verify();
     mockControl.reset();
+
+    Assert.assertEquals(response, output.toString());
   }
 
   @Test
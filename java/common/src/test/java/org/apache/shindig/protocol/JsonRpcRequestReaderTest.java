@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.protocol;
+package org.apache.shindig.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+public class JsonRpcRequestReaderTest {
+
+  @Test
+  public void readsBatchOneRequestAtATime() throws Exception {
+    JsonRpcRequestReader reader = new JsonRpcRequestReader(new StringReader(
+        " [{method:'a.get', params:{s:'}]\\\\', l:[1, {n:2}]}}, \n{\"method\":\"b.get\"}] "));
+
+    assertTrue(reader.isBatch());
+    assertEquals("}]\\", reader.next().getJSONObject("params").getString("s"));
+    assertEquals("b.get", reader.next().getString("method"));
+    assertNull(reader.next());
+  }
+
+  @Test
+  public void readsSingleRequest() throws Exception {
+    JsonRpcRequestReader reader = new JsonRpcRequestReader(new StringReader(
+        "{method:'a.get', params:{l:[1]}}"));
+
+    assertFalse(reader.isBatch());
+    assertEquals("a.get", reader.next().getString("method"));
+    assertNull(reader.next());
+  }
+
+  @Test(expected = JSONException.class)
+  public void missingSeparator() throws Exception {
+    JsonRpcRequestReader reader = new JsonRpcRequestReader(new StringReader(
+        "[{method:'a.get'} {method:'b.get'}]"));
+
+    reader.next();
+    reader.next();
+  }
+}
@@ -24,6 +24,7 @@ import static org.easymock.EasyMock.reset;
 
 import org.apache.shindig.common.JsonAssert;
 import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.common.testing.FakeServletOutputStream;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.protocol.conversion.BeanJsonConverter;
 import org.apache.shindig.protocol.multipart.FormDataItem;
@@ -32,12 +33,13 @@ import org.easymock.IMocksControl;
 import org.easymock.EasyMock;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -71,8 +73,7 @@ public class JsonRpcServletTest extends Assert {
 
   private final IMocksControl mockControl = EasyMock.createNiceControl();
 
-  private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-  private final PrintWriter writer = new PrintWriter(stream);
+  private final FakeServletOutputStream output = new FakeServletOutputStream();
   private final TestHandler handler = new TestHandler();
 
   @Before
@@ -104,16 +105,15 @@ public class JsonRpcServletTest extends Assert {
     });
   }
 
-  private String getOutput() throws IOException {
-    writer.close();
-    return stream.toString("UTF-8");
+  private String getOutput() {
+    return output.toString();
   }
 
   @Test
   public void testMethodRecognition() throws Exception {
     setupRequest("{method:test.get,id:id,params:{userId:5,groupId:@self}}");
 
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -151,7 +151,7 @@ public class JsonRpcServletTest extends Assert {
     formItems.add(mockFormDataItem(IMAGE_FIELDNAME, IMAGE_TYPE, IMAGE_DATA_BYTES, false));
     expect(multipartFormParser.isMultipartContent(req)).andReturn(true);
     expect(multipartFormParser.parse(req)).andReturn(formItems);
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -193,7 +193,7 @@ public class JsonRpcServletTest extends Assert {
     formItems.add(mockFormDataItem("request", null, request.getBytes(), true));
     expect(multipartFormParser.isMultipartContent(req)).andReturn(true);
     expect(multipartFormParser.parse(req)).andReturn(formItems);
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -240,7 +240,7 @@ public class JsonRpcServletTest extends Assert {
         "oauth_signature".getBytes(), true));
     expect(multipartFormParser.isMultipartContent(req)).andReturn(true);
     expect(multipartFormParser.parse(req)).andReturn(formItems);
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -284,7 +284,7 @@ public class JsonRpcServletTest extends Assert {
         true));
     expect(multipartFormParser.isMultipartContent(req)).andReturn(true);
     expect(multipartFormParser.parse(req)).andReturn(formItems);
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -299,7 +299,7 @@ public class JsonRpcServletTest extends Assert {
   public void testInvalidService() throws Exception {
     setupRequest("{method:junk.get,id:id,params:{userId:5,groupId:@self}}");
 
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -320,7 +320,7 @@ public class JsonRpcServletTest extends Assert {
   public void testFailedRequest() throws Exception {
     setupRequest("{id:id,method:test.futureException}");
 
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -335,7 +335,7 @@ public class JsonRpcServletTest extends Assert {
   public void testBasicBatch() throws Exception {
     setupRequest("[{method:test.get,id:'1'},{method:test.get,id:'2'}]");
 
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -346,6 +346,55 @@ public class JsonRpcServletTest extends Assert {
         getOutput());
   }
 
+  @Test
+  public void testBatchDeadline() throws Exception {
+    setupRequest("[{method:test.get,id:'1'},{method:test.create,id:'2'}]");
+    handler.setMock(new TestHandler() {
+      @Override
+      public Object get(RequestItem req) {
+        return ImmutableMap.of("foo", "bar");
+      }
+
+      @Override
+      public Future<?> create(RequestItem req) {
+        // Never completes
+        return new FutureTask<Object>(new Callable<Object>() {
+          public Object call() {
+            return CREATE_RESPONSE;
+          }
+        });
+      }
+    });
+    servlet.setBatchTimeout(10);
+
+    expect(res.getOutputStream()).andReturn(output);
+    expectLastCall();
+
+    mockControl.replay();
+    servlet.service(req, res);
+    mockControl.verify();
+
+    JsonAssert.assertJsonEquals("[{id:'1',result:{foo:'bar'}}," +
+        "{id:'2',error:{message:'Request timed out',code:504}}]", getOutput());
+  }
+
+  @Test
+  public void testBatchTooLarge() throws Exception {
+    setupRequest("[{method:test.get,id:'1'},{method:test.get,id:'2'},{method:test.get,id:'3'}]");
+    servlet.setMaxBatchSize(2);
+
+    expect(res.getOutputStream()).andReturn(output);
+    expectLastCall();
+
+    mockControl.replay();
+    servlet.service(req, res);
+    mockControl.verify();
+
+    JsonAssert.assertJsonEquals(
+        "{code:417,message:'limitExceeded: A batch may contain at most 2 requests'}",
+        getOutput());
+  }
+
   @Test
   public void testGetExecution() throws Exception {
     expect(req.getParameterMap()).andStubReturn(
@@ -355,7 +404,7 @@ public class JsonRpcServletTest extends Assert {
     expect(req.getCharacterEncoding()).andStubReturn("UTF-8");
     res.setCharacterEncoding("UTF-8");
 
-    expect(res.getWriter()).andReturn(writer);
+    expect(res.getOutputStream()).andReturn(output);
     expectLastCall();
 
     mockControl.replay();
@@ -21,6 +21,7 @@ package org.apache.shindig.protocol.conversion;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 import org.apache.shindig.protocol.conversion.BeanDelegatorTest.SimpleBean;
 import org.apache.shindig.protocol.conversion.BeanDelegatorTest.SimpleBeanInterface;
@@ -99,6 +100,43 @@ public class BeanFilterTest extends Assert {
     assertArrayEquals(data.getList().toArray(), newData.getList().toArray());
   }
 
+  @Test
+  public void testBeanList() throws Exception {
+    List<String> list = ImmutableList.of("test");
+    SimpleBean data = new SimpleBean().setBeanList(ImmutableList.of(
+        new SimpleBean().setS("sub1").setList(list), new SimpleBean().setS("sub2").setList(list)));
+    SimpleBeanInterface dataBean = (SimpleBeanInterface) beanDelegator.createDelegator(data);
+
+    SimpleBeanInterface newData = (SimpleBeanInterface) beanFilter.createFilteredBean(dataBean,
+        ImmutableSet.<String>of("beanlist", "beanlist.s"));
+    List<SimpleBeanInterface> beans = newData.getBeanList();
+    assertEquals(2, beans.size());
+    for (int i = 0; i < beans.size(); i++) {
+      assertEquals("sub" + (i + 1), beans.get(i).getS());
+      assertNull("List is filtered out", beans.get(i).getList());
+      assertNotNull("Required field", beans.get(i).getRequired());
+    }
+    assertNull("S is filtered out", newData.getS());
+  }
+
+  @Test
+  public void testRepeatedFieldSets() throws Exception {
+    SimpleBean data = new SimpleBean().setS("Main").setList(ImmutableList.of("test"));
+    SimpleBeanInterface dataBean = (SimpleBeanInterface) beanDelegator.createDelegator(data);
+
+    for (int i = 0; i < 2; i++) {
+      SimpleBeanInterface withS = (SimpleBeanInterface) beanFilter.createFilteredBean(dataBean,
+          ImmutableSet.<String>of("s"));
+      assertEquals("Main", withS.getS());
+      assertNull(withS.getList());
+
+      SimpleBeanInterface withList = (SimpleBeanInterface) beanFilter.createFilteredBean(
+          dataBean, Sets.newHashSet("list"));
+      assertNull(withList.getS());
+      assertEquals(ImmutableList.of("test"), withList.getList());
+    }
+  }
+
   @Test
   public void testMap() throws Exception {
     List<String> list = ImmutableList.of("test");
@@ -26,12 +26,20 @@ import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.LocaleSpec;
 import org.apache.shindig.gadgets.spec.MessageBundle;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Default implementation of a message bundle factory.
@@ -42,12 +50,15 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
   private static final Locale ALL_ALL = new Locale("all", "ALL");
   public static final String CACHE_NAME = "messageBundles";
 
+  private final ExecutorService executor;
+
   @Inject
   public DefaultMessageBundleFactory(ExecutorService executor,
                                      RequestPipeline pipeline,
                                      CacheProvider cacheProvider,
                                      @Named("shindig.cache.xml.refreshInterval") long refresh) {
     super(MessageBundle.class, executor, pipeline, makeCache(cacheProvider), refresh);
+    this.executor = executor;
   }
 
   private static Cache<Uri, Object> makeCache(CacheProvider cacheProvider) {
@@ -61,39 +72,81 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
 
   public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache, String container, String view)
       throws GadgetException {
-    MessageBundle exact = getBundleFor(spec, locale, ignoreCache, container, view);
-
     // We don't want to fetch the same bundle multiple times, so we verify that the exact match
     // has not already been fetched.
-    MessageBundle lang, country, all;
-
     boolean isAllLanguage = locale.getLanguage().equalsIgnoreCase("all");
     boolean isAllCountry = locale.getCountry().equalsIgnoreCase("ALL");
 
-    if (isAllCountry) {
-      lang = MessageBundle.EMPTY;
-    } else {
-      lang = getBundleFor(spec, new Locale(locale.getLanguage(), "ALL"), ignoreCache, container, view);
-    }
+    Locale langLocale = isAllCountry ? null : new Locale(locale.getLanguage(), "ALL");
+    Locale countryLocale = isAllLanguage ? null : new Locale("all", locale.getCountry());
+    // If either of these is true, we already picked up both anyway.
+    Locale allLocale = (isAllCountry || isAllLanguage) ? null : ALL_ALL;
 
-    if (isAllLanguage) {
-      country = MessageBundle.EMPTY;
-    } else {
-      country = getBundleFor(spec, new Locale("all", locale.getCountry()), ignoreCache, container, view);
+    if (!ignoreCache) {
+      prefetch(spec, container, view, locale, langLocale, countryLocale, allLocale);
     }
 
-    if (isAllCountry || isAllLanguage) {
-      // If either of these is true, we already picked up both anyway.
-      all = MessageBundle.EMPTY;
-    } else {
-      all = getBundleFor(spec, ALL_ALL, ignoreCache, container, view);
-    }
+    MessageBundle exact = getBundleFor(spec, locale, ignoreCache, container, view);
+    MessageBundle lang = getBundleFor(spec, langLocale, ignoreCache, container, view);
+    MessageBundle country = getBundleFor(spec, countryLocale, ignoreCache, container, view);
+    MessageBundle all = getBundleFor(spec, allLocale, ignoreCache, container, view);
 
     return new MessageBundle(all, country, lang, exact);
   }
 
+  /**
+   * Fetch the external bundles for the given locales that aren't cached yet concurrently, so that
+   * a cold render waits for one round trip instead of one per locale. The results land in the
+   * cache; failures are reported when the bundle is requested again.
+   */
+  private void prefetch(GadgetSpec spec, String container, String view, Locale... locales) {
+    Map<Uri, LocaleQuery> queries = Maps.newLinkedHashMap();
+    for (Locale locale : locales) {
+      LocaleSpec localeSpec = locale == null ? null : spec.getModulePrefs().getLocale(locale, view);
+      if (localeSpec != null && localeSpec.getMessages().toString().length() != 0 &&
+          !queries.containsKey(localeSpec.getMessages()) &&
+          cache.getElement(localeSpec.getMessages()) == null) {
+        queries.put(localeSpec.getMessages(), newQuery(spec, localeSpec, false, container));
+      }
+    }
+    if (queries.size() < 2) {
+      return;
+    }
+
+    List<Future<MessageBundle>> fetches = Lists.newArrayListWithCapacity(queries.size() - 1);
+    Iterator<LocaleQuery> it = queries.values().iterator();
+    LocaleQuery first = it.next();
+    while (it.hasNext()) {
+      final LocaleQuery query = it.next();
+      fetches.add(executor.submit(new Callable<MessageBundle>() {
+        public MessageBundle call() throws GadgetException {
+          return getSpec(query);
+        }
+      }));
+    }
+    try {
+      getSpec(first);
+    } catch (GadgetException e) {
+      // Reported by getBundleFor.
+    }
+    for (Future<MessageBundle> fetch : fetches) {
+      try {
+        fetch.get();
+      } catch (ExecutionException e) {
+        // Reported by getBundleFor.
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
   private MessageBundle getBundleFor(GadgetSpec spec, Locale locale, boolean ignoreCache, String container, String view)
       throws GadgetException {
+    if (locale == null) {
+      return MessageBundle.EMPTY;
+    }
+
     LocaleSpec localeSpec = spec.getModulePrefs().getLocale(locale, view);
     if (localeSpec == null) {
       return MessageBundle.EMPTY;
@@ -103,14 +156,18 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
       return localeSpec.getMessageBundle();
     }
 
+    return super.getSpec(newQuery(spec, localeSpec, ignoreCache, container));
+  }
+
+  private static LocaleQuery newQuery(GadgetSpec spec, LocaleSpec localeSpec, boolean ignoreCache,
+      String container) {
     LocaleQuery query = new LocaleQuery();
     query.setSpecUri(localeSpec.getMessages())
          .setGadgetUri(spec.getUrl())
          .setContainer(container)
          .setIgnoreCache(ignoreCache);
     query.locale = localeSpec;
-
-    return super.getSpec(query);
+    return query;
   }
 
   private static class LocaleQuery extends Query {
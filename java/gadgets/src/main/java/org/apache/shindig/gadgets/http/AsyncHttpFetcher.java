@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.Future;
+
+/**
+ * The asynchronous counterpart of {@link HttpFetcher}: starts a fetch and returns immediately,
+ * reporting the result through a future and an optional callback.
+ *
+ * The default implementation runs a blocking HttpFetcher on a thread pool, which can be bounded
+ * to cap the number of threads tied up in upstream calls. An implementation on top of a non-blocking client can be
+ * bound instead to remove the thread per fetch entirely.
+ */
+@ImplementedBy(ExecutorAsyncHttpFetcher.class)
+public interface AsyncHttpFetcher {
+
+  /**
+   * Start fetching HTTP content.
+   *
+   * @param request The request to fetch.
+   * @param callback Notified when the fetch completes, may be null.
+   * @return The response, including error conditions. Failures that can't be mapped to an HTTP
+   *     result code are reported as a GadgetException cause of the ExecutionException.
+   */
+  Future<HttpResponse> fetch(HttpRequest request, Callback callback);
+
+  /**
+   * Receives the result of an asynchronous fetch. Callbacks run on a thread owned by the fetcher
+   * and may do moderate work such as rewriting and caching the response, so implementations with
+   * I/O threads should not invoke them on those.
+   */
+  interface Callback {
+    void completed(HttpResponse response);
+
+    void failed(GadgetException e);
+  }
+}
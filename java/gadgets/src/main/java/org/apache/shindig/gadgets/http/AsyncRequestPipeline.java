@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Implemented by request pipelines that can execute requests without blocking the caller.
+ * Callers that issue many requests at once check whether the injected {@link RequestPipeline}
+ * implements this, and otherwise run blocking requests on their own threads.
+ */
+public interface AsyncRequestPipeline {
+
+  /**
+   * Start executing the given request.
+   *
+   * @return The response. Failures are reported as a GadgetException cause of the
+   *     ExecutionException. Listeners run once the response has been rewritten and cached.
+   */
+  ListenableFuture<HttpResponse> executeAsync(HttpRequest request);
+}
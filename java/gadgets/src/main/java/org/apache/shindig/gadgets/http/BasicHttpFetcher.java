@@ -19,7 +19,9 @@ package org.apache.shindig.gadgets.http;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -48,22 +50,22 @@ import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.client.protocol.RequestAddCookies;
 import org.apache.http.client.protocol.ResponseProcessCookies;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.params.ConnPerRoute;
 import org.apache.http.conn.params.ConnRouteParams;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -71,12 +73,15 @@ import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.ByteArrayBuffer;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.GadgetException;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ProxySelector;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -84,6 +89,9 @@ import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -102,17 +110,27 @@ import javax.servlet.http.HttpServletResponse;
  * 2. This class does not enforce any limits on what is fetched from remote hosts.
  */
 @Singleton
-public class BasicHttpFetcher implements HttpFetcher {
+public class BasicHttpFetcher implements StreamingHttpFetcher,
+    GuiceServletContextListener.CleanupCapable {
   private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
   private static final int DEFAULT_READ_TIMEOUT_MS = 5000;
   private static final int DEFAULT_MAX_OBJECT_SIZE = 0;  // no limit
   private static final long DEFAULT_SLOW_RESPONSE_WARNING = 10000;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 256;
+  private static final long MIN_EVICTION_PERIOD_MS = 1000;
 
   protected final HttpClient FETCHER;
 
+  private final InstrumentedClientConnManager connManager;
+  private final HostConnPerRoute connPerRoute;
+
   // mutable fields must be volatile
   private volatile int maxObjSize;
   private volatile long slowResponseWarning;
+  private volatile long keepAliveMs = -1;
+
+  // guarded by this
+  private ScheduledExecutorService evictor;
  
   //class name for logging purpose
   private static final String classname = BasicHttpFetcher.class.getName();
@@ -156,7 +174,8 @@ public class BasicHttpFetcher implements HttpFetcher {
 
     // These are probably overkill for most sites.
     ConnManagerParams.setMaxTotalConnections(params, 1152);
-    ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(256));
+    connPerRoute = new HostConnPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    ConnManagerParams.setMaxConnectionsPerRoute(params, connPerRoute);
 
     HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
     HttpProtocolParams.setUserAgent(params, "Apache Shindig");
@@ -175,8 +194,8 @@ public class BasicHttpFetcher implements HttpFetcher {
     schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
     schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
 
-    ClientConnectionManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-    DefaultHttpClient client = new DefaultHttpClient(cm, params);
+    connManager = new InstrumentedClientConnManager(params, schemeRegistry, connPerRoute);
+    DefaultHttpClient client = new DefaultHttpClient(connManager, params);
 
     // Set proxy if set via guice.
     if (!Strings.isNullOrEmpty(basicHttpFetcherProxy)) {
@@ -185,6 +204,20 @@ public class BasicHttpFetcher implements HttpFetcher {
           client.getParams(), new HttpHost(splits[0], Integer.parseInt(splits[1]), "http"));
     }
 
+    // Honor the server's keep-alive timeout, up to the configured maximum.
+    client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+      @Override
+      public long getKeepAliveDuration(org.apache.http.HttpResponse response,
+          HttpContext context) {
+        long serverMs = super.getKeepAliveDuration(response, context);
+        long maxMs = keepAliveMs;
+        if (maxMs <= 0) {
+          return serverMs;
+        }
+        return (serverMs <= 0 || serverMs > maxMs) ? maxMs : serverMs;
+      }
+    });
+
     // try resending the request once
     client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(1, true));
 
@@ -238,6 +271,31 @@ public class BasicHttpFetcher implements HttpFetcher {
     FETCHER = client;
   }
 
+  /**
+   * Per route connection limits, looked up by the name of the target host.
+   */
+  static class HostConnPerRoute implements ConnPerRoute {
+    private volatile int defaultMax;
+    private volatile Map<String, Integer> hostMax = ImmutableMap.of();
+
+    HostConnPerRoute(int defaultMax) {
+      this.defaultMax = defaultMax;
+    }
+
+    void setDefaultMax(int defaultMax) {
+      this.defaultMax = defaultMax;
+    }
+
+    void setHostMax(Map<String, Integer> hostMax) {
+      this.hostMax = hostMax;
+    }
+
+    public int getMaxForRoute(HttpRoute route) {
+      Integer max = hostMax.get(route.getTargetHost().getHostName().toLowerCase());
+      return max != null ? max : defaultMax;
+    }
+  }
+
   static class GzipDecompressingEntity extends HttpEntityWrapper {
     public GzipDecompressingEntity(final HttpEntity entity) {
       super(entity);
@@ -282,6 +340,11 @@ public class BasicHttpFetcher implements HttpFetcher {
 
   public HttpResponse fetch(org.apache.shindig.gadgets.http.HttpRequest request)
       throws GadgetException {
+    return fetch(request, null);
+  }
+
+  public HttpResponse fetch(org.apache.shindig.gadgets.http.HttpRequest request,
+      BodyHandler handler) throws GadgetException {
     HttpUriRequest httpMethod = null;
     Preconditions.checkNotNull(request);
     final String methodType = request.getMethod();
@@ -356,6 +419,11 @@ public class BasicHttpFetcher implements HttpFetcher {
         httpMethod.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
       }
 
+      if (request.getTimeoutMs() > 0) {
+        HttpConnectionParams.setConnectionTimeout(httpMethod.getParams(), request.getTimeoutMs());
+        HttpConnectionParams.setSoTimeout(httpMethod.getParams(), request.getTimeoutMs());
+      }
+
       // HttpClient doesn't handle all cases when breaking url (specifically '_' in domain)
       // So lets pass it the url parsed:
       response = FETCHER.execute(host, httpMethod);
@@ -369,7 +437,7 @@ public class BasicHttpFetcher implements HttpFetcher {
         slowResponseWarning(request, started, now);
       }
 
-      return makeResponse(response);
+      return makeResponse(response, handler);
 
     } catch (Exception e) {
       long now = System.currentTimeMillis();
@@ -455,14 +523,110 @@ public class BasicHttpFetcher implements HttpFetcher {
     FETCHER.getParams().setIntParameter(HttpConnectionParams.SO_TIMEOUT, readTimeoutMs);
   }
 
+  /**
+   * Change the maximum number of connections to a single host, for hosts without a limit of
+   * their own. Applies to hosts first fetched from after the change.
+   *
+   * @param maxConnections the maximum number of connections per host
+   */
+  @Inject(optional = true)
+  public void setMaxConnectionsPerRoute(
+      @Named("shindig.http.client.max-connections-per-route") int maxConnections) {
+    Preconditions.checkArgument(maxConnections > 0,
+        "max-connections-per-route must be greater than 0");
+    connPerRoute.setDefaultMax(maxConnections);
+  }
+
+  /**
+   * Set the maximum number of connections for individual hosts, so that a slow host can't take
+   * connections needed by the others. Applies to hosts first fetched from after the change.
+   *
+   * @param limits comma separated host=count pairs, for example "slow.example.com=16"
+   */
+  @Inject(optional = true)
+  public void setMaxConnectionsPerHost(
+      @Named("shindig.http.client.max-connections-per-host") String limits) {
+    ImmutableMap.Builder<String, Integer> hostMax = ImmutableMap.builder();
+    for (String limit : Splitter.on(',').trimResults().omitEmptyStrings().split(limits)) {
+      String[] parts = StringUtils.split(limit, '=');
+      Preconditions.checkArgument(parts.length == 2 && StringUtils.isNumeric(parts[1].trim()),
+          "Bad max-connections-per-host entry: " + limit);
+      hostMax.put(parts[0].trim().toLowerCase(), Integer.valueOf(parts[1].trim()));
+    }
+    connPerRoute.setHostMax(hostMax.build());
+  }
+
+  /**
+   * Change the maximum time an idle connection is kept open for reuse. Shorter timeouts sent
+   * by the server in a Keep-Alive header are honored.
+   *
+   * @param keepAliveMs maximum keep-alive time in milliseconds
+   */
+  @Inject(optional = true)
+  public void setKeepAliveMs(@Named("shindig.http.client.keep-alive-ms") long keepAliveMs) {
+    Preconditions.checkArgument(keepAliveMs > 0, "keep-alive-ms must be greater than 0");
+    this.keepAliveMs = keepAliveMs;
+  }
+
+  /**
+   * Close pooled connections that have been idle for longer than the given time, along with
+   * those past their keep-alive time, so connections the server has likely dropped aren't reused.
+   *
+   * @param idleTimeoutMs idle time in milliseconds after which connections are closed
+   */
+  @Inject(optional = true)
+  public synchronized void setIdleConnectionTimeoutMs(
+      @Named("shindig.http.client.idle-connection-timeout-ms") final long idleTimeoutMs) {
+    Preconditions.checkArgument(idleTimeoutMs > 0,
+        "idle-connection-timeout-ms must be greater than 0");
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    evictor = Executors.newSingleThreadScheduledExecutor(DefaultGuiceModule.DAEMON_THREAD_FACTORY);
+    long period = Math.max(idleTimeoutMs / 2, MIN_EVICTION_PERIOD_MS);
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          connManager.closeExpiredConnections();
+          connManager.closeIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+          // Keep the task scheduled.
+          LOG.log(Level.WARNING, "Failed to close idle connections", e);
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  @Inject(optional = true)
+  public void setCleanupHandler(GuiceServletContextListener.CleanupHandler cleanupHandler) {
+    cleanupHandler.register(this);
+  }
+
+  /**
+   * @return A snapshot of the connection pool for each route currently in use.
+   */
+  public Map<HttpRoute, ConnectionPoolStats> getConnectionPoolStats() {
+    return connManager.getStats();
+  }
+
+  public synchronized void cleanup() {
+    if (evictor != null) {
+      evictor.shutdownNow();
+      evictor = null;
+    }
+    connManager.shutdown();
+  }
+
 
   /**
    * @param response The response to parse
+   * @param handler Receives the body if it is to be streamed, may be null.
    * @return A HttpResponse object made by consuming the response of the
    *         given HttpMethod.
    * @throws IOException when problems occur processing the body content
    */
-  private HttpResponse makeResponse(org.apache.http.HttpResponse response) throws IOException {
+  private HttpResponse makeResponse(org.apache.http.HttpResponse response, BodyHandler handler)
+      throws IOException {
     HttpResponseBuilder builder = new HttpResponseBuilder();
 
     if (response.getAllHeaders() != null) {
@@ -478,14 +642,58 @@ public class BasicHttpFetcher implements HttpFetcher {
       return HttpResponse.badrequest("Exceeded maximum number of bytes - " + maxObjSize);
     }
 
+    builder.setHttpStatusCode(response.getStatusLine().getStatusCode());
+
+    if (handler != null && entity != null) {
+      HttpResponse head = builder.create();
+      OutputStream out = handler.getBodyStream(head, entity.getContentLength());
+      if (out != null) {
+        streamSafe(entity, out);
+        return head;
+      }
+    }
+
     byte[] responseBytes = (entity == null) ? null : toByteArraySafe(entity);
 
     return builder
-        .setHttpStatusCode(response.getStatusLine().getStatusCode())
         .setResponse(responseBytes)
         .create();
   }
 
+  /**
+   * Copy the entity to the given stream through a fixed size buffer, enforcing the maximum object
+   * size for entities that didn't declare a length. EOFExceptions are handled as in
+   * {@link #toByteArraySafe(HttpEntity)}.
+   *
+   * @throws IOException if an error occurs reading or writing, or the entity is too large.
+   */
+  private void streamSafe(HttpEntity entity, OutputStream out) throws IOException {
+    InputStream instream = entity.getContent();
+    if (instream == null) {
+      return;
+    }
+    long total = 0;
+    try {
+      byte[] tmp = new byte[16384];
+      int l;
+      while ((l = instream.read(tmp)) != -1) {
+        total += l;
+        if (maxObjSize > 0 && total > maxObjSize) {
+          throw new IOException("Exceeded maximum number of bytes - " + maxObjSize);
+        }
+        out.write(tmp, 0, l);
+      }
+    } catch (EOFException eofe) {
+      if (!isIgnorableEof(instream, eofe)) {
+        throw eofe;
+      }
+      LOG.log(Level.FINE, "EOFException: ", eofe);
+    } finally {
+      instream.close();
+    }
+    out.flush();
+  }
+
   /**
    * This method is Safe replica version of org.apache.http.util.EntityUtils.toByteArray.
    * The try block embedding 'instream.read' has a corresponding catch block for 'EOFException'
@@ -538,9 +746,7 @@ public class BasicHttpFetcher implements HttpFetcher {
        * throws EOFException with empty message. A bug has been filed with Sun
        * and will be mentioned here once it is accepted.
        */
-      if (instream.available() == 0 &&
-          (eofe.getMessage() == null ||
-           eofe.getMessage().equals("Unexpected end of ZLIB input stream"))) {
+      if (isIgnorableEof(instream, eofe)) {
         LOG.log(Level.FINE, "EOFException: ", eofe);
       } else {
         throw eofe;
@@ -551,4 +757,11 @@ public class BasicHttpFetcher implements HttpFetcher {
     }
     return buffer.toByteArray();
   }
+
+  private static boolean isIgnorableEof(InputStream instream, EOFException eofe)
+      throws IOException {
+    return instream.available() == 0 &&
+        (eofe.getMessage() == null ||
+         eofe.getMessage().equals("Unexpected end of ZLIB input stream"));
+  }
 }
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+/**
+ * A snapshot of the connection pool for a single route of {@link BasicHttpFetcher}.
+ */
+public class ConnectionPoolStats {
+  private final int leased;
+  private final int pending;
+  private final int available;
+  private final int max;
+  private final long leaseCount;
+  private final long totalWaitMs;
+  private final long timeoutCount;
+
+  public ConnectionPoolStats(int leased, int pending, int available, int max, long leaseCount,
+      long totalWaitMs, long timeoutCount) {
+    this.leased = leased;
+    this.pending = pending;
+    this.available = available;
+    this.max = max;
+    this.leaseCount = leaseCount;
+    this.totalWaitMs = totalWaitMs;
+    this.timeoutCount = timeoutCount;
+  }
+
+  /**
+   * @return The number of connections currently in use.
+   */
+  public int getLeased() {
+    return leased;
+  }
+
+  /**
+   * @return The number of requests currently waiting for a connection.
+   */
+  public int getPending() {
+    return pending;
+  }
+
+  /**
+   * @return The number of open connections that are idle in the pool.
+   */
+  public int getAvailable() {
+    return available;
+  }
+
+  /**
+   * @return The maximum number of connections allowed for the route.
+   */
+  public int getMax() {
+    return max;
+  }
+
+  /**
+   * @return The number of connections handed out since the route was first used.
+   */
+  public long getLeaseCount() {
+    return leaseCount;
+  }
+
+  /**
+   * @return The total time, in milliseconds, spent waiting for connections.
+   */
+  public long getTotalWaitMs() {
+    return totalWaitMs;
+  }
+
+  /**
+   * @return The average time, in milliseconds, spent waiting for a connection.
+   */
+  public long getAverageWaitMs() {
+    long requests = leaseCount + timeoutCount;
+    return requests == 0 ? 0 : totalWaitMs / requests;
+  }
+
+  /**
+   * @return The number of requests that gave up waiting for a connection.
+   */
+  public long getTimeoutCount() {
+    return timeoutCount;
+  }
+
+  @Override
+  public String toString() {
+    return "leased=" + leased + ", pending=" + pending + ", available=" + available +
+        ", max=" + max + ", leases=" + leaseCount + ", averageWaitMs=" + getAverageWaitMs() +
+        ", timeouts=" + timeoutCount;
+  }
+}
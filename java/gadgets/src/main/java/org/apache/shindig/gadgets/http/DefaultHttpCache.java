@@ -19,6 +19,7 @@ package org.apache.shindig.gadgets.http;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.WeightedCacheProvider;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -35,7 +36,12 @@ public class DefaultHttpCache extends AbstractHttpCache {
 
   @Inject
   public DefaultHttpCache(CacheProvider cacheProvider) {
-    cache = cacheProvider.createCache(CACHE_NAME);
+    if (cacheProvider instanceof WeightedCacheProvider) {
+      cache = ((WeightedCacheProvider) cacheProvider).createCache(CACHE_NAME,
+          new HttpResponseWeigher());
+    } else {
+      cache = cacheProvider.createCache(CACHE_NAME);
+    }
   }
 
   @Override
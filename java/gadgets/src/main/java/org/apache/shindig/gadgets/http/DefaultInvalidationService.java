@@ -23,6 +23,7 @@ import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.AuthType;
+import org.apache.shindig.gadgets.render.RenderedGadgetCache;
 
 import com.google.inject.Inject;
 
@@ -54,6 +55,7 @@ public class DefaultInvalidationService implements InvalidationService {
   private final HttpCache httpCache;
   protected final Cache<String,Long> invalidationEntries;
   private final AtomicLong marker;
+  private RenderedGadgetCache renderedGadgetCache;
 
   private static final String TOKEN_PREFIX = "INV_TOK:";
 
@@ -69,11 +71,19 @@ public class DefaultInvalidationService implements InvalidationService {
     this.marker = marker;
   }
 
+  @Inject(optional = true)
+  public void setRenderedGadgetCache(RenderedGadgetCache renderedGadgetCache) {
+    this.renderedGadgetCache = renderedGadgetCache;
+  }
+
   public void invalidateApplicationResources(Set<Uri> uris, SecurityToken token) {
     // TODO Add checks on content
     for (Uri uri : uris) {
       httpCache.removeResponse(new HttpRequest(uri));
     }
+    if (renderedGadgetCache != null) {
+      renderedGadgetCache.invalidate(uris);
+    }
   }
 
   /**
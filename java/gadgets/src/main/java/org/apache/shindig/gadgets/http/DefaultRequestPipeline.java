@@ -17,6 +17,9 @@
  */
 package org.apache.shindig.gadgets.http;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
@@ -26,6 +29,7 @@ import org.apache.shindig.common.Nullable;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.util.DateUtil;
 import org.apache.shindig.common.util.Utf8UrlCoder;
+import org.apache.shindig.gadgets.AuthType;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.oauth.OAuthRequest;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
@@ -41,13 +45,18 @@ import java.util.Date;
  * signing on top of standard HTTP requests.
  */
 @Singleton
-public class DefaultRequestPipeline implements RequestPipeline {
+public class DefaultRequestPipeline implements RequestPipeline, AsyncRequestPipeline,
+    StreamingRequestPipeline {
   private final HttpFetcher httpFetcher;
   private final HttpCache httpCache;
   private final Provider<OAuthRequest> oauthRequestProvider;
   private final ResponseRewriterRegistry responseRewriterRegistry;
   private final InvalidationService invalidationService;
   private final HttpResponseMetadataHelper metadataHelper;
+  private RequestCoalescer requestCoalescer;
+  private HttpResponseRevalidator revalidator;
+  private AsyncHttpFetcher asyncHttpFetcher;
+  private HostCircuitBreaker circuitBreaker;
 
   // At what point you don't trust remote server date stamp on response (in milliseconds)
   // (Should be less then DEFAULT_TTL)
@@ -72,11 +81,147 @@ public class DefaultRequestPipeline implements RequestPipeline {
     this.metadataHelper = metadataHelper;
   }
 
-  public HttpResponse execute(HttpRequest request) throws GadgetException {
+  /**
+   * Enables single-flight fetching: concurrent cache misses for the same cache key share the
+   * result of one upstream fetch instead of each fetching separately.
+   */
+  @Inject(optional = true)
+  public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+    this.requestCoalescer = requestCoalescer;
+  }
+
+  /**
+   * Enables stale-while-revalidate: recently expired responses are served immediately while
+   * they are refreshed in the background.
+   */
+  @Inject(optional = true)
+  public void setRevalidator(HttpResponseRevalidator revalidator) {
+    this.revalidator = revalidator;
+  }
+
+  /**
+   * Enables {@link #executeAsync(HttpRequest)} to fetch without blocking the calling thread.
+   */
+  @Inject(optional = true)
+  public void setAsyncHttpFetcher(AsyncHttpFetcher asyncHttpFetcher) {
+    this.asyncHttpFetcher = asyncHttpFetcher;
+  }
+
+  /**
+   * Enables per-host circuit breaking: fetches to a failing host are rejected immediately, and
+   * served from stale cache entries where there are any.
+   */
+  @Inject(optional = true)
+  public void setCircuitBreaker(HostCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public HttpResponse execute(final HttpRequest request) throws GadgetException {
     normalizeProtocol(request);
-    HttpResponse invalidatedResponse = null;
-    HttpResponse staleResponse = null;
+    CacheLookup lookup = lookup(request);
+    if (lookup.response != null) {
+      return lookup.response;
+    }
+    HttpResponse invalidatedResponse = lookup.invalidated;
+    HttpResponse staleResponse = lookup.stale;
+
+    if (requestCoalescer != null && isShareable(request)) {
+      final HttpResponse invalidated = invalidatedResponse;
+      final HttpResponse stale = staleResponse;
+      HttpResponse response = requestCoalescer.execute(httpCache.createKey(request),
+          new RequestCoalescer.Fetch() {
+            public HttpResponse fetch() throws GadgetException {
+              return fetchResponse(request, invalidated, stale);
+            }
+          });
+      if (response.getHttpStatusCode() >= 500 && staleResponse != null) {
+        // The shared fetch failed or we gave up waiting on it; serve the stale entry instead.
+        return staleResponse;
+      }
+      return response;
+    }
+    return fetchResponse(request, invalidatedResponse, staleResponse);
+  }
 
+  /**
+   * Streams anonymous requests that bypass the cache, where the fetcher supports it. Nothing is
+   * cached or rewritten for these, so apart from where the body goes they are executed as usual.
+   */
+  public HttpResponse executeStreaming(HttpRequest request,
+      StreamingHttpFetcher.BodyHandler handler) throws GadgetException {
+    if (!request.getIgnoreCache() || request.getAuthType() != AuthType.NONE ||
+        !(httpFetcher instanceof StreamingHttpFetcher)) {
+      return execute(request);
+    }
+    normalizeProtocol(request);
+    HttpResponse fetchedResponse = fetchFromOrigin(request, handler);
+    if (fetchedResponse == null) {
+      return circuitOpen(null, null);
+    }
+    return fetchResponse(request, fetchedResponse, null, null);
+  }
+
+  /**
+   * Executes anonymous requests without blocking the calling thread: cache hits complete
+   * immediately and misses are fetched through the {@link AsyncHttpFetcher}, then rewritten and
+   * cached on its thread. Other requests, or all of them when no AsyncHttpFetcher is set, are
+   * executed in the calling thread.
+   *
+   * Asynchronous misses are not coalesced, since waiting on another caller's fetch would tie up a
+   * thread again.
+   */
+  public ListenableFuture<HttpResponse> executeAsync(final HttpRequest request) {
+    if (asyncHttpFetcher == null || request.getAuthType() != AuthType.NONE) {
+      try {
+        return Futures.immediateFuture(execute(request));
+      } catch (GadgetException e) {
+        return Futures.<HttpResponse>immediateFailedFuture(e);
+      }
+    }
+
+    final CacheLookup lookup;
+    try {
+      normalizeProtocol(request);
+      lookup = lookup(request);
+    } catch (GadgetException e) {
+      return Futures.<HttpResponse>immediateFailedFuture(e);
+    }
+    if (lookup.response != null) {
+      return Futures.immediateFuture(lookup.response);
+    }
+
+    int timeoutMs = circuitBreaker == null ? 0 : circuitBreaker.allowRequest(request);
+    if (timeoutMs == HostCircuitBreaker.REJECTED) {
+      return Futures.immediateFuture(circuitOpen(lookup.invalidated, lookup.stale));
+    }
+
+    final long started = HttpUtil.getTimeSource().currentTimeMillis();
+    final SettableFuture<HttpResponse> result = SettableFuture.create();
+    asyncHttpFetcher.fetch(withTimeout(request, timeoutMs), new AsyncHttpFetcher.Callback() {
+      public void completed(HttpResponse response) {
+        recordOutcome(request, response, started);
+        try {
+          result.set(fetchResponse(request, response, lookup.invalidated, lookup.stale));
+        } catch (GadgetException e) {
+          result.setException(e);
+        } catch (RuntimeException e) {
+          result.setException(e);
+        }
+      }
+
+      public void failed(GadgetException e) {
+        releaseOutcome(request);
+        result.setException(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Look the request up in the cache.
+   */
+  private CacheLookup lookup(HttpRequest request) {
+    CacheLookup lookup = new CacheLookup();
     if (!request.getIgnoreCache()) {
       HttpResponse cachedResponse = httpCache.getResponse(request);
       // Note that we don't remove invalidated entries from the cache as we want them to be
@@ -85,32 +230,194 @@ public class DefaultRequestPipeline implements RequestPipeline {
       if (cachedResponse != null && !cachedResponse.isStrictNoCache()) {
         if (!cachedResponse.isStale()) {
           if(invalidationService.isValid(request, cachedResponse)) {
-            return cachedResponse;
+            lookup.response = cachedResponse;
           } else {
-            invalidatedResponse = cachedResponse;
+            lookup.invalidated = cachedResponse;
           }
         } else {
           if (!cachedResponse.isError()) {
-            // Remember good but stale cached response, to be served if server unavailable
-            staleResponse = cachedResponse;
+            if (revalidator != null && isShareable(request) &&
+                revalidator.isWithinGracePeriod(cachedResponse)) {
+              scheduleRevalidation(request, cachedResponse);
+              lookup.response = cachedResponse;
+            } else {
+              // Remember good but stale cached response, to be served if server unavailable
+              lookup.stale = cachedResponse;
+            }
           }
         }
       }
     }
+    return lookup;
+  }
+
+  /**
+   * Only anonymous cacheable GETs are shared between callers or refreshed in the background.
+   * Signed and OAuth fetches carry per-request state (approval flows, token refreshes) that must
+   * not be handed to other users.
+   */
+  protected boolean isShareable(HttpRequest request) {
+    return !request.getIgnoreCache() &&
+        request.getAuthType() == AuthType.NONE &&
+        "GET".equals(request.getMethod());
+  }
+
+  private void scheduleRevalidation(final HttpRequest request, final HttpResponse cachedResponse) {
+    revalidator.submit(httpCache.createKey(request), new Runnable() {
+      public void run() {
+        try {
+          revalidate(request, cachedResponse);
+        } catch (GadgetException e) {
+          // The stale entry stays in place; a later request will try again.
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Refresh a stale cache entry with a conditional request. A 304 response extends the life of
+   * the cached entry without refetching or rewriting its body.
+   */
+  protected void revalidate(HttpRequest request, HttpResponse cachedResponse)
+      throws GadgetException {
+    HttpRequest conditional = new HttpRequest(request);
+    String etag = cachedResponse.getHeader("ETag");
+    if (etag != null) {
+      conditional.setHeader("If-None-Match", etag);
+    }
+    String lastModified = cachedResponse.getHeader("Last-Modified");
+    if (lastModified != null) {
+      conditional.setHeader("If-Modified-Since", lastModified);
+    }
 
-    HttpResponse fetchedResponse = null;
+    HttpResponse fetchedResponse = fetchFromOrigin(conditional, null);
+    if (fetchedResponse == null) {
+      // The host's circuit is open; the stale entry stays in place.
+      return;
+    }
+    if (fetchedResponse.getHttpStatusCode() == HttpResponse.SC_NOT_MODIFIED) {
+      HttpResponseBuilder builder = new HttpResponseBuilder(cachedResponse);
+      builder.setHeader("Date",
+          DateUtil.formatRfc1123Date(HttpUtil.getTimeSource().currentTimeMillis()));
+      for (String header : new String[] { "Cache-Control", "Expires", "ETag" }) {
+        String value = fetchedResponse.getHeader(header);
+        if (value != null) {
+          builder.setHeader(header, value);
+        }
+      }
+      HttpResponse refreshed = builder.create();
+      if (refreshed.getCacheTtl() > 0) {
+        refreshed = invalidationService.markResponse(request, refreshed);
+      }
+      httpCache.addResponse(request, refreshed);
+    } else if (fetchedResponse.getHttpStatusCode() < 500) {
+      fetchResponse(request, fetchedResponse, null, null);
+    }
+  }
+
+  /**
+   * Fetch, rewrite and cache a response for a request that could not be served from cache.
+   */
+  protected HttpResponse fetchResponse(HttpRequest request, HttpResponse invalidatedResponse,
+      HttpResponse staleResponse) throws GadgetException {
+    HttpResponse fetchedResponse = fetchFromOrigin(request, null);
+    if (fetchedResponse == null) {
+      return circuitOpen(invalidatedResponse, staleResponse);
+    }
+    return fetchResponse(request, fetchedResponse, invalidatedResponse, staleResponse);
+  }
+
+  /**
+   * Fetch the request from its origin, through the circuit breaker if one is set.
+   *
+   * @param handler Where the body of an anonymous request is streamed to, or null to buffer it.
+   * @return The response, or null if the host's circuit is open.
+   */
+  private HttpResponse fetchFromOrigin(HttpRequest request,
+      StreamingHttpFetcher.BodyHandler handler) throws GadgetException {
+    if (circuitBreaker == null) {
+      return fetchFromOriginDirect(request, handler);
+    }
+    int timeoutMs = circuitBreaker.allowRequest(request);
+    if (timeoutMs == HostCircuitBreaker.REJECTED) {
+      return null;
+    }
+    long started = HttpUtil.getTimeSource().currentTimeMillis();
+    HttpResponse response = null;
+    try {
+      response = fetchFromOriginDirect(withTimeout(request, timeoutMs), handler);
+      return response;
+    } finally {
+      if (response != null) {
+        recordOutcome(request, response, started);
+      } else {
+        // Connect errors and timeouts come back as responses; exceptions are errors of our own.
+        releaseOutcome(request);
+      }
+    }
+  }
+
+  /**
+   * The request to fetch with the circuit breaker's timeout, where that is shorter than the
+   * request's own. The caller's request is left as is, since it may be shared.
+   */
+  private static HttpRequest withTimeout(HttpRequest request, int timeoutMs) {
+    if (timeoutMs <= 0 || (request.getTimeoutMs() > 0 && request.getTimeoutMs() <= timeoutMs)) {
+      return request;
+    }
+    return new HttpRequest(request).setTimeoutMs(timeoutMs);
+  }
+
+  private void recordOutcome(HttpRequest request, HttpResponse response, long started) {
+    if (circuitBreaker != null) {
+      circuitBreaker.record(request,
+          !HostCircuitBreaker.isHostFailure(response.getHttpStatusCode()),
+          HttpUtil.getTimeSource().currentTimeMillis() - started);
+    }
+  }
+
+  private void releaseOutcome(HttpRequest request) {
+    if (circuitBreaker != null) {
+      circuitBreaker.release(request);
+    }
+  }
+
+  /**
+   * The response for a request to a host whose circuit is open: a cached response if there is
+   * one, otherwise an uncached 503.
+   */
+  private HttpResponse circuitOpen(HttpResponse invalidatedResponse, HttpResponse staleResponse) {
+    if (invalidatedResponse != null) {
+      return invalidatedResponse;
+    }
+    if (staleResponse != null) {
+      return staleResponse;
+    }
+    return new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_SERVICE_UNAVAILABLE)
+        .setResponseString("Upstream host unavailable")
+        .create();
+  }
+
+  private HttpResponse fetchFromOriginDirect(HttpRequest request,
+      StreamingHttpFetcher.BodyHandler handler) throws GadgetException {
     switch (request.getAuthType()) {
       case NONE:
-        fetchedResponse = httpFetcher.fetch(request);
-        break;
+        if (handler != null) {
+          return ((StreamingHttpFetcher) httpFetcher).fetch(request, handler);
+        }
+        return httpFetcher.fetch(request);
       case SIGNED:
       case OAUTH:
-        fetchedResponse = oauthRequestProvider.get().fetch(request);
-        break;
+        return oauthRequestProvider.get().fetch(request);
       default:
         return HttpResponse.error();
     }
+  }
 
+  private HttpResponse fetchResponse(HttpRequest request, HttpResponse fetchedResponse,
+      HttpResponse invalidatedResponse, HttpResponse staleResponse) throws GadgetException {
     if (fetchedResponse.isError() && invalidatedResponse != null) {
       // Use the invalidated cached response if it is not stale. We don't update its
       // mark so it remains invalidated
@@ -187,4 +494,14 @@ public class DefaultRequestPipeline implements RequestPipeline {
     }
     return response;
   }
+
+  /**
+   * The outcome of a cache lookup: a response that can be served as is, or the cached responses
+   * to fall back on if fetching fails.
+   */
+  private static class CacheLookup {
+    private HttpResponse response;
+    private HttpResponse invalidated;
+    private HttpResponse stale;
+  }
 }
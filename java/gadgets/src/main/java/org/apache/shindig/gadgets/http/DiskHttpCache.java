@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An HttpCache that persists responses to local disk through {@link DiskResponseStore}, so that
+ * a restarted server doesn't have to refetch everything from origin servers.
+ *
+ * To use it, bind {@link HttpCache} to this class and configure the shindig.cache.http.disk.*
+ * properties. The directory has no default, and each server needs its own.
+ */
+@Singleton
+public class DiskHttpCache extends AbstractHttpCache
+    implements GuiceServletContextListener.CleanupCapable {
+  private final DiskResponseStore store;
+
+  @Inject
+  public DiskHttpCache(@Named("shindig.cache.http.disk.directory") String directory,
+                       @Named("shindig.cache.http.disk.segment-bytes") int segmentBytes,
+                       @Named("shindig.cache.http.disk.max-segments") int maxSegments,
+                       @Named("shindig.cache.http.disk.stale-retention-ms") long staleRetentionMs,
+                       GuiceServletContextListener.CleanupHandler cleanupHandler)
+      throws IOException {
+    store = new DiskResponseStore(new File(directory), segmentBytes, maxSegments,
+        staleRetentionMs);
+    cleanupHandler.register(this);
+  }
+
+  @Override
+  protected HttpResponse getResponseImpl(String key) {
+    return store.getElement(key);
+  }
+
+  @Override
+  protected void addResponseImpl(String key, HttpResponse response) {
+    store.addElement(key, response);
+  }
+
+  @Override
+  protected HttpResponse removeResponseImpl(String key) {
+    return store.removeElement(key);
+  }
+
+  public void cleanup() {
+    store.close();
+  }
+}
@@ -0,0 +1,671 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.shindig.common.cache.Cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of HttpResponses, so that a restarted server starts with a warm cache.
+ *
+ * Responses are appended, in {@link HttpResponse#writeExternal} format followed by their
+ * metadata, to a log made of memory-mapped segment files of a fixed size. Every record carries a checksum and the
+ * response's cache expiration, so on startup the index is rebuilt by scanning the segments in
+ * order without deserializing any response, and a record torn by a crash ends the scan of its
+ * segment.
+ *
+ * When the active segment fills up a new one is started. Old segments that are mostly dead
+ * (overwritten, removed or long expired records) are compacted by copying their live records
+ * forward, and once the maximum number of segments is reached the oldest segment is dropped.
+ * Space for the copies is reserved in the active segment while holding the store's lock, but
+ * the copying itself happens outside of it, so reads aren't held up by compaction. A crash while
+ * copying loses the records written to the active segment after the reserved space.
+ *
+ * Only one store may use a directory at a time; it is locked for as long as the store is open.
+ *
+ * Expired responses are still returned, as with any other HttpCache storage, so that they can be
+ * served if the origin fails, but only until they have been expired for longer than the
+ * configured stale retention.
+ */
+public class DiskResponseStore implements Cache<String, HttpResponse> {
+  private static final Logger LOG = Logger.getLogger(DiskResponseStore.class.getName());
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String LOCK_FILE = "lock";
+  // Record length and checksum.
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final long staleRetentionMs;
+
+  private final LinkedList<Segment> segments = Lists.newLinkedList();
+  private final Map<String, Location> index = Maps.newHashMap();
+  // Removal markers that may still hide a record in an older segment, by key.
+  private final Map<String, Location> removals = Maps.newHashMap();
+  // Compactions whose space was reserved, waiting to be copied outside of the lock.
+  private final List<Compaction> pendingCompactions = Lists.newArrayList();
+  private final RandomAccessFile lockFile;
+  private Segment active;
+  private long nextSegmentId = 0;
+
+  /**
+   * Opens the store in the given directory, rebuilding the index from any existing segments.
+   *
+   * @param directory Where segment files are kept. Created if needed, and must not be in use by
+   *     another store.
+   * @param segmentSize Size of each segment file, which bounds the size of a cached response.
+   * @param maxSegments Number of segments kept before the oldest is dropped.
+   * @param staleRetentionMs How long after expiration a response is still kept.
+   */
+  public DiskResponseStore(File directory, int segmentSize, int maxSegments,
+      long staleRetentionMs) throws IOException {
+    Preconditions.checkArgument(segmentSize > RECORD_HEADER_SIZE, "Segment size too small");
+    Preconditions.checkArgument(maxSegments >= 2, "At least two segments are required");
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.staleRetentionMs = staleRetentionMs;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create cache directory " + directory);
+    }
+    lockFile = lock(directory);
+    try {
+      load();
+    } catch (IOException e) {
+      closeQuietly(lockFile);
+      throw e;
+    }
+  }
+
+  private static RandomAccessFile lock(File directory) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    FileLock lock;
+    try {
+      lock = file.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Held by another store in this JVM.
+      lock = null;
+    } catch (IOException e) {
+      closeQuietly(file);
+      throw e;
+    }
+    if (lock == null) {
+      closeQuietly(file);
+      throw new IOException("Cache directory " + directory + " is in use by another store");
+    }
+    return file;
+  }
+
+  private static void closeQuietly(RandomAccessFile file) {
+    try {
+      file.close();
+    } catch (IOException e) {
+      LOG.log(Level.INFO, "Unable to close " + file, e);
+    }
+  }
+
+  public HttpResponse getElement(String key) {
+    byte[] value;
+    synchronized (this) {
+      Location location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      if (isExpired(location.expiration)) {
+        index.remove(key);
+        location.segment.liveBytes -= location.length;
+        return null;
+      }
+      value = location.readValue();
+    }
+
+    try {
+      HttpResponse response = new HttpResponse();
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value));
+      response.readExternal(in);
+      int metadataSize = in.readInt();
+      if (metadataSize == 0) {
+        return response;
+      }
+      HttpResponseBuilder builder = new HttpResponseBuilder(response);
+      for (int i = 0; i < metadataSize; ++i) {
+        builder.setMetadata(in.readUTF(), in.readUTF());
+      }
+      return builder.create();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read cached response for " + key, e);
+    } catch (ClassNotFoundException e) {
+      LOG.log(Level.WARNING, "Unable to read cached response for " + key, e);
+    }
+    return null;
+  }
+
+  public void addElement(String key, HttpResponse value) {
+    long expiration = value.getCacheExpiration();
+    if (expiration == -1) {
+      expiration = HttpResponse.getTimeSource().currentTimeMillis();
+    }
+
+    byte[] record;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.getContentLength() + 512);
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      value.writeExternal(out);
+      Map<String, String> metadata = value.getMetadata();
+      out.writeInt(metadata.size());
+      for (Map.Entry<String, String> entry : metadata.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+      out.flush();
+      record = buildRecord(PUT, key, expiration, bytes.toByteArray());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to serialize response for " + key, e);
+      return;
+    }
+
+    synchronized (this) {
+      try {
+        Location location = append(record, expiration, true);
+        if (location != null) {
+          replace(key, location);
+        } else if (index.containsKey(key)) {
+          // Too big to store; make sure an older version doesn't linger.
+          replace(key, null);
+          appendRemoval(key);
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to write cached response for " + key, e);
+      }
+    }
+    runCompactions();
+  }
+
+  public HttpResponse removeElement(String key) {
+    HttpResponse response = getElement(key);
+    synchronized (this) {
+      if (index.containsKey(key)) {
+        replace(key, null);
+        try {
+          appendRemoval(key);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to record removal of " + key, e);
+        }
+      }
+    }
+    runCompactions();
+    return response;
+  }
+
+  public long getCapacity() {
+    return -1;
+  }
+
+  public synchronized long getSize() {
+    return index.size();
+  }
+
+  /**
+   * Flush all segments to disk.
+   */
+  public synchronized void flush() {
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  /**
+   * Flush and release all segments. The store can't be used afterwards.
+   */
+  public synchronized void close() {
+    flush();
+    for (Segment segment : segments) {
+      segment.close();
+    }
+    segments.clear();
+    index.clear();
+    removals.clear();
+    pendingCompactions.clear();
+    active = null;
+    closeQuietly(lockFile);
+  }
+
+  private boolean isExpired(long expiration) {
+    return expiration + staleRetentionMs < HttpResponse.getTimeSource().currentTimeMillis();
+  }
+
+  private void replace(String key, Location location) {
+    if (location != null) {
+      // The new record comes after any marker, so the marker can't hide it.
+      removals.remove(key);
+    }
+    Location old = location == null ? index.remove(key) : index.put(key, location);
+    if (old != null) {
+      old.segment.liveBytes -= old.length;
+    }
+  }
+
+  private static byte[] buildRecord(byte type, String key, long expiration, byte[] value)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length + key.length() + 32);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.writeByte(type);
+    out.writeLong(expiration);
+    out.writeUTF(key);
+    out.write(value);
+    out.flush();
+
+    byte[] record = bytes.toByteArray();
+    int length = record.length - RECORD_HEADER_SIZE;
+    CRC32 crc = new CRC32();
+    crc.update(record, RECORD_HEADER_SIZE, length);
+    ByteBuffer header = ByteBuffer.wrap(record);
+    header.putInt(length);
+    header.putInt((int) crc.getValue());
+    return record;
+  }
+
+  /**
+   * Append a marker hiding earlier records for the key when the segments are scanned.
+   */
+  private void appendRemoval(String key) throws IOException {
+    // Markers never count as live. Compaction copies them forward instead, for as long as an
+    // older segment might still hold a record for the key.
+    Location marker = append(buildRecord(DELETE, key, 0, new byte[0]), 0, false);
+    if (marker != null) {
+      removals.put(key, marker);
+    }
+  }
+
+  /**
+   * Append a record to the active segment, starting a new segment if it doesn't fit.
+   *
+   * @return The location of the record, or null if the record is larger than a segment.
+   */
+  private Location append(byte[] record, long expiration, boolean live) throws IOException {
+    // A zero length marks the end of a segment, so always leave room for one.
+    if (record.length + 4 > segmentSize) {
+      return null;
+    }
+    // Compaction may fill the new segment, in which case another one is needed.
+    while (active.position + record.length + 4 > segmentSize) {
+      rollover();
+    }
+    int offset = active.position;
+    ByteBuffer target = active.buffer.duplicate();
+    target.position(offset);
+    target.put(record);
+    active.position += record.length;
+    if (live) {
+      active.liveBytes += record.length;
+    }
+    return new Location(active, offset, record.length, expiration);
+  }
+
+  private void rollover() throws IOException {
+    active.buffer.force();
+    active = openSegment(nextSegmentId++);
+    segments.add(active);
+    compact();
+    while (segments.size() > maxSegments) {
+      dropOldest();
+    }
+  }
+
+  /**
+   * Reserve space in the active segment for the live records of mostly-dead segments. They are
+   * copied by {@link #runCompactions()} once the lock is released. Removal markers are copied
+   * too while any older segment remains.
+   */
+  private void compact() {
+    for (Segment segment : segments) {
+      if (segment == active || segment.compacting || segment.liveBytes * 2 > segment.position) {
+        continue;
+      }
+      List<Move> moves = Lists.newArrayList();
+      int bytes = 0;
+      for (Map.Entry<String, Location> entry : entriesIn(index, segment)) {
+        if (!isExpired(entry.getValue().expiration)) {
+          moves.add(new Move(index, entry.getKey(), entry.getValue()));
+          bytes += entry.getValue().length;
+        }
+      }
+      // Segments are compacted oldest first, so any segment before this one is older.
+      if (segments.getFirst() != segment) {
+        for (Map.Entry<String, Location> entry : entriesIn(removals, segment)) {
+          moves.add(new Move(removals, entry.getKey(), entry.getValue()));
+          bytes += entry.getValue().length;
+        }
+      }
+      if (active.position + bytes + 4 > segmentSize) {
+        // Not enough room to move them; try again on the next rollover.
+        continue;
+      }
+      for (Move move : moves) {
+        move.to = new Location(active, active.position, move.from.length, move.from.expiration);
+        active.position += move.from.length;
+        if (move.map == index) {
+          active.liveBytes += move.from.length;
+        }
+      }
+      segment.compacting = true;
+      pendingCompactions.add(new Compaction(segment, moves));
+    }
+  }
+
+  /**
+   * Copy the records of reserved compactions, then point the index at the copies and delete the
+   * compacted segments. Records replaced or removed while copying keep their newer location.
+   */
+  private void runCompactions() {
+    List<Compaction> compactions;
+    synchronized (this) {
+      if (pendingCompactions.isEmpty()) {
+        return;
+      }
+      compactions = Lists.newArrayList(pendingCompactions);
+      pendingCompactions.clear();
+    }
+
+    for (Compaction compaction : compactions) {
+      // Neither range is written by anyone else: the source segment is no longer appended to,
+      // and the target space was reserved for this compaction.
+      for (Move move : compaction.moves) {
+        ByteBuffer source = move.from.segment.buffer.duplicate();
+        source.position(move.from.offset);
+        source.limit(move.from.offset + move.from.length);
+        ByteBuffer target = move.to.segment.buffer.duplicate();
+        target.position(move.to.offset);
+        target.put(source);
+      }
+
+      synchronized (this) {
+        if (active == null) {
+          // Closed while copying.
+          return;
+        }
+        for (Move move : compaction.moves) {
+          boolean current = move.map.get(move.key) == move.from;
+          if (current && !move.to.segment.deleted) {
+            move.map.put(move.key, move.to);
+          } else if (move.map == index) {
+            move.to.segment.liveBytes -= move.to.length;
+          }
+        }
+        // Anything still pointing at the segment had expired, or is a marker no longer needed.
+        removeIndexEntries(compaction.segment);
+        if (segments.remove(compaction.segment)) {
+          compaction.segment.delete();
+        }
+      }
+    }
+  }
+
+  private static List<Map.Entry<String, Location>> entriesIn(Map<String, Location> map,
+      Segment segment) {
+    List<Map.Entry<String, Location>> entries = Lists.newArrayList();
+    for (Map.Entry<String, Location> entry : map.entrySet()) {
+      if (entry.getValue().segment == segment) {
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  private void dropOldest() {
+    Segment oldest = segments.removeFirst();
+    removeIndexEntries(oldest);
+    oldest.delete();
+  }
+
+  private void removeIndexEntries(Segment segment) {
+    removeEntries(index, segment);
+    removeEntries(removals, segment);
+  }
+
+  private static void removeEntries(Map<String, Location> map, Segment segment) {
+    Iterator<Location> it = map.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().segment == segment) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Rebuild the index from the segments on disk.
+   */
+  private void load() throws IOException {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    List<Long> ids = Lists.newArrayList();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        try {
+          ids.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(),
+              name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          LOG.warning("Ignoring unexpected file in cache directory: " + file);
+        }
+      }
+    }
+    Collections.sort(ids);
+
+    for (Long id : ids) {
+      Segment segment = openSegment(id);
+      segments.add(segment);
+      scan(segment);
+      nextSegmentId = id + 1;
+    }
+    if (segments.isEmpty()) {
+      segments.add(openSegment(nextSegmentId++));
+    }
+    active = segments.getLast();
+    while (segments.size() > maxSegments) {
+      dropOldest();
+    }
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info("Loaded " + index.size() + " cached responses from " + segments.size() +
+          " segments in " + directory);
+    }
+  }
+
+  private void scan(Segment segment) {
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int position = 0;
+    while (position + RECORD_HEADER_SIZE <= segmentSize) {
+      buffer.position(position);
+      int length = buffer.getInt();
+      if (length <= 0 || position + RECORD_HEADER_SIZE + length > segmentSize) {
+        break;
+      }
+      int checksum = buffer.getInt();
+      byte[] body = new byte[length];
+      buffer.get(body);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != checksum) {
+        LOG.warning("Truncating cache segment " + segment.file + " at corrupt record " + position);
+        break;
+      }
+
+      try {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        long expiration = in.readLong();
+        String key = in.readUTF();
+        int recordLength = RECORD_HEADER_SIZE + length;
+        if (type == PUT && !isExpired(expiration)) {
+          segment.liveBytes += recordLength;
+          replace(key, new Location(segment, position, recordLength, expiration));
+        } else {
+          replace(key, null);
+          if (type == DELETE) {
+            removals.put(key, new Location(segment, position, recordLength, expiration));
+          }
+        }
+      } catch (IOException e) {
+        LOG.warning("Truncating cache segment " + segment.file + " at unreadable record " + position);
+        break;
+      }
+      position += RECORD_HEADER_SIZE + length;
+    }
+    // Clear anything after the last good record, so appends can't be mistaken for old data.
+    if (position + 4 <= segmentSize) {
+      buffer.position(position);
+      buffer.putInt(0);
+    }
+    segment.position = position;
+  }
+
+  private Segment openSegment(long id) throws IOException {
+    File file = new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      return new Segment(file, raf, buffer);
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private static class Segment {
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private int position = 0;
+    private long liveBytes = 0;
+    private boolean compacting = false;
+    private boolean deleted = false;
+
+    private Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+      this.file = file;
+      this.raf = raf;
+      this.buffer = buffer;
+    }
+
+    private void close() {
+      try {
+        raf.close();
+      } catch (IOException e) {
+        LOG.log(Level.INFO, "Unable to close cache segment " + file, e);
+      }
+    }
+
+    private void delete() {
+      deleted = true;
+      close();
+      if (!file.delete()) {
+        LOG.info("Unable to delete cache segment " + file);
+      }
+    }
+  }
+
+  /**
+   * The live records of a segment being compacted, and where they are copied to.
+   */
+  private static class Compaction {
+    private final Segment segment;
+    private final List<Move> moves;
+
+    private Compaction(Segment segment, List<Move> moves) {
+      this.segment = segment;
+      this.moves = moves;
+    }
+  }
+
+  private static class Move {
+    private final Map<String, Location> map;
+    private final String key;
+    private final Location from;
+    private Location to;
+
+    private Move(Map<String, Location> map, String key, Location from) {
+      this.map = map;
+      this.key = key;
+      this.from = from;
+    }
+  }
+
+  private static class Location {
+    private final Segment segment;
+    private final int offset;
+    private final int length;
+    private final long expiration;
+
+    private Location(Segment segment, int offset, int length, long expiration) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.expiration = expiration;
+    }
+
+    /**
+     * @return The serialized response stored in the record.
+     */
+    private byte[] readValue() {
+      ByteBuffer buffer = segment.buffer.duplicate();
+      buffer.position(offset + RECORD_HEADER_SIZE + 1 + 8);
+      int keyLength = buffer.getShort() & 0xFFFF;
+      buffer.position(buffer.position() + keyLength);
+      byte[] value = new byte[offset + length - buffer.position()];
+      buffer.get(value);
+      return value;
+    }
+  }
+}
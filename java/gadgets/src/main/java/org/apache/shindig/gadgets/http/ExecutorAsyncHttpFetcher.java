@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.Nullable;
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
+import org.apache.shindig.gadgets.GadgetException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the blocking {@link HttpFetcher} on a thread pool. By default every fetch gets a thread,
+ * as with the executor the pipeline used before. Configuring a thread count caps the number of
+ * threads blocked on upstream servers: fetches beyond the pool size wait in a queue, and once a
+ * bounded queue is full further fetches fail straight away with a 503 rather than waiting behind
+ * a backlog that would outlast their callers.
+ */
+@Singleton
+public class ExecutorAsyncHttpFetcher implements AsyncHttpFetcher,
+    GuiceServletContextListener.CleanupCapable {
+  private final HttpFetcher fetcher;
+  private volatile ThreadPoolExecutor executor;
+
+  @Inject
+  public ExecutorAsyncHttpFetcher(HttpFetcher fetcher,
+      @Nullable GuiceServletContextListener.CleanupHandler cleanupHandler) {
+    this.fetcher = fetcher;
+    executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), DefaultGuiceModule.DAEMON_THREAD_FACTORY);
+    if (cleanupHandler != null) {
+      cleanupHandler.register(this);
+    }
+  }
+
+  /**
+   * Bounds the pool. Called during injection, before any fetch has been started.
+   *
+   * @param threads The number of fetch threads, or 0 or less for a thread per fetch.
+   * @param queueSize The number of fetches that may wait for a thread, or 0 or less for no limit.
+   *     Ignored when threads is not bounded.
+   */
+  @Inject(optional = true)
+  public void setPoolSize(@Named("shindig.http.async.threads") int threads,
+      @Named("shindig.http.async.queue-size") int queueSize) {
+    if (threads <= 0) {
+      return;
+    }
+    BlockingQueue<Runnable> queue = queueSize > 0 ?
+        new ArrayBlockingQueue<Runnable>(queueSize) : new LinkedBlockingQueue<Runnable>();
+    ThreadPoolExecutor previous = executor;
+    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue,
+        DefaultGuiceModule.DAEMON_THREAD_FACTORY);
+    previous.shutdown();
+  }
+
+  public Future<HttpResponse> fetch(final HttpRequest request, final Callback callback) {
+    final SettableFuture<HttpResponse> result = SettableFuture.create();
+    Runnable task = new Runnable() {
+      public void run() {
+        HttpResponse response;
+        try {
+          response = fetcher.fetch(request);
+        } catch (GadgetException e) {
+          failed(result, callback, e);
+          return;
+        } catch (RuntimeException e) {
+          failed(result, callback,
+              new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e));
+          return;
+        }
+        try {
+          if (callback != null) {
+            callback.completed(response);
+          }
+        } finally {
+          result.set(response);
+        }
+      }
+    };
+
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // The queue is full, or the executor has been shut down.
+      failed(result, callback, rejected(request));
+    }
+    return result;
+  }
+
+  private static GadgetException rejected(HttpRequest request) {
+    return new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+        "Too many fetches queued, not fetching " + request.getUri(),
+        HttpResponse.SC_SERVICE_UNAVAILABLE);
+  }
+
+  private static void failed(SettableFuture<HttpResponse> result, Callback callback,
+      GadgetException e) {
+    try {
+      if (callback != null) {
+        callback.failed(e);
+      }
+    } finally {
+      result.setException(e);
+    }
+  }
+
+  /**
+   * @return The number of fetches waiting for a thread.
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  public void cleanup() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the health of each upstream host so that fetches to a host that is failing are rejected
+ * immediately, instead of each one waiting out the full connect or read timeout.
+ *
+ * A host's circuit is closed while it is healthy. It opens once enough of the requests within a
+ * window fail, and rejects requests for a while. Only failures of the host to answer count:
+ * connect errors and timeouts, which fetchers report as 504s, and 502, 503 and 504 responses.
+ * Other errors say nothing about the host's health. After that a single probe is let through
+ * (half open): if it succeeds the circuit closes, otherwise it opens again.
+ *
+ * Fetch timeouts can also adapt to each host: once enough successful fetches have been seen,
+ * requests get a timeout of a multiple of the observed latency percentile, bounded by the
+ * configured minimum and maximum. A host that suddenly slows down then fails fast and trips its
+ * circuit, rather than tying up threads for the default timeout.
+ *
+ * Both are off by default. A failure percentage of 0 disables the circuit breaker and adaptive
+ * timeouts, and a timeout multiplier of 0 disables adaptive timeouts alone.
+ */
+@Singleton
+public class HostCircuitBreaker {
+  private static final Logger LOG = Logger.getLogger(HostCircuitBreaker.class.getName());
+
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  /** Returned by {@link #allowRequest(HttpRequest)} when the request should not be sent. */
+  public static final int REJECTED = -1;
+
+  static final int DEFAULT_FAILURE_PERCENT = 0;
+  static final int DEFAULT_MIN_REQUESTS = 20;
+  static final long DEFAULT_WINDOW_MS = 10000L;
+  static final long DEFAULT_OPEN_MS = 5000L;
+  static final int DEFAULT_TIMEOUT_PERCENTILE = 99;
+  static final double DEFAULT_TIMEOUT_MULTIPLIER = 0;
+  static final int DEFAULT_MIN_TIMEOUT_MS = 1000;
+  static final int DEFAULT_MAX_TIMEOUT_MS = 5000;
+
+  // Latency samples kept per host, and how many are needed before timeouts adapt.
+  static final int SAMPLE_SIZE = 128;
+  static final int MIN_SAMPLES = 32;
+  private static final int RECOMPUTE_INTERVAL = 16;
+
+  // Hosts that haven't been fetched from in a while start over with a closed circuit.
+  private final ConcurrentMap<String, HostState> hosts =
+      new MapMaker().expireAfterAccess(10, TimeUnit.MINUTES).makeMap();
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  private int failurePercent = DEFAULT_FAILURE_PERCENT;
+  private int minRequests = DEFAULT_MIN_REQUESTS;
+  private long windowMs = DEFAULT_WINDOW_MS;
+  private long openMs = DEFAULT_OPEN_MS;
+  private int timeoutPercentile = DEFAULT_TIMEOUT_PERCENTILE;
+  private double timeoutMultiplier = DEFAULT_TIMEOUT_MULTIPLIER;
+  private int minTimeoutMs = DEFAULT_MIN_TIMEOUT_MS;
+  private int maxTimeoutMs = DEFAULT_MAX_TIMEOUT_MS;
+
+  @Inject(optional = true)
+  public void setFailurePercent(
+      @Named("shindig.http.circuit-breaker.failure-percent") int failurePercent) {
+    this.failurePercent = failurePercent;
+  }
+
+  @Inject(optional = true)
+  public void setMinRequests(@Named("shindig.http.circuit-breaker.min-requests") int minRequests) {
+    this.minRequests = minRequests;
+  }
+
+  @Inject(optional = true)
+  public void setWindowMs(@Named("shindig.http.circuit-breaker.window-ms") long windowMs) {
+    this.windowMs = windowMs;
+  }
+
+  @Inject(optional = true)
+  public void setOpenMs(@Named("shindig.http.circuit-breaker.open-ms") long openMs) {
+    this.openMs = openMs;
+  }
+
+  @Inject(optional = true)
+  public void setTimeoutPercentile(
+      @Named("shindig.http.circuit-breaker.timeout-percentile") int timeoutPercentile) {
+    this.timeoutPercentile = timeoutPercentile;
+  }
+
+  @Inject(optional = true)
+  public void setTimeoutMultiplier(
+      @Named("shindig.http.circuit-breaker.timeout-multiplier") double timeoutMultiplier) {
+    this.timeoutMultiplier = timeoutMultiplier;
+  }
+
+  @Inject(optional = true)
+  public void setMinTimeoutMs(
+      @Named("shindig.http.circuit-breaker.min-timeout-ms") int minTimeoutMs) {
+    this.minTimeoutMs = minTimeoutMs;
+  }
+
+  @Inject(optional = true)
+  public void setMaxTimeoutMs(
+      @Named("shindig.http.circuit-breaker.max-timeout-ms") int maxTimeoutMs) {
+    this.maxTimeoutMs = maxTimeoutMs;
+  }
+
+  /**
+   * Check whether the request may be sent to its host. Every allowed request must be followed by
+   * a call to {@link #record(HttpRequest, boolean, long)} or {@link #release(HttpRequest)}.
+   *
+   * The request itself is left as is, since it may be shared by other callers: the caller fetches
+   * with the returned timeout where that is shorter than the request's own.
+   *
+   * @return {@link #REJECTED} if the host's circuit is open and the request should not be sent,
+   *     otherwise the adaptive timeout for the host, or 0 if there is none.
+   */
+  public int allowRequest(HttpRequest request) {
+    HostState host = getHost(request);
+    if (host == null) {
+      return 0;
+    }
+    synchronized (host) {
+      long now = now();
+      if (host.state == State.OPEN && now - host.openedAt >= openMs) {
+        host.state = State.HALF_OPEN;
+        host.probeStarted = 0;
+      }
+      if (host.state == State.HALF_OPEN) {
+        // Only one probe at a time, but don't wait forever on a probe that never reported back.
+        if (host.probeStarted != 0 && now - host.probeStarted < openMs) {
+          rejectedCount.incrementAndGet();
+          return REJECTED;
+        }
+        host.probeStarted = now;
+        // The latency seen before the failure may no longer hold, so probe with the full timeout.
+        return 0;
+      } else if (host.state == State.OPEN) {
+        rejectedCount.incrementAndGet();
+        return REJECTED;
+      }
+      return Math.max(host.timeoutMs, 0);
+    }
+  }
+
+  /**
+   * @return Whether a response with the given status means the host failed to answer.
+   */
+  public static boolean isHostFailure(int httpStatusCode) {
+    return httpStatusCode == HttpResponse.SC_BAD_GATEWAY ||
+        httpStatusCode == HttpResponse.SC_SERVICE_UNAVAILABLE ||
+        httpStatusCode == HttpResponse.SC_GATEWAY_TIMEOUT;
+  }
+
+  /**
+   * Record the response to a request allowed by {@link #allowRequest(HttpRequest)}.
+   *
+   * @param succeeded False if the host failed to answer, see {@link #isHostFailure(int)}.
+   * @param latencyMs How long the request took.
+   */
+  public void record(HttpRequest request, boolean succeeded, long latencyMs) {
+    HostState host = getHost(request);
+    if (host == null) {
+      return;
+    }
+    synchronized (host) {
+      long now = now();
+      if (succeeded) {
+        host.addSample(latencyMs);
+      }
+      switch (host.state) {
+        case HALF_OPEN:
+          if (succeeded) {
+            host.close(now);
+            LOG.info("Closing circuit for " + host.name);
+          } else {
+            host.open(now);
+          }
+          break;
+        case CLOSED:
+          if (now - host.windowStart >= windowMs) {
+            host.windowStart = now;
+            host.requests = 0;
+            host.failures = 0;
+          }
+          host.requests++;
+          if (!succeeded) {
+            host.failures++;
+            if (host.requests >= minRequests &&
+                host.failures * 100L >= (long) host.requests * failurePercent) {
+              host.open(now);
+              if (LOG.isLoggable(Level.WARNING)) {
+                LOG.warning("Opening circuit for " + host.name + " after " + host.failures +
+                    " of " + host.requests + " requests failed");
+              }
+            }
+          }
+          break;
+        default:
+          // Requests started before the circuit opened don't change its state.
+          break;
+      }
+    }
+  }
+
+  /**
+   * Record that a request allowed by {@link #allowRequest(HttpRequest)} ended without an answer
+   * that says anything about the host, such as an error of our own. Nothing is counted, but a
+   * half open circuit lets the next probe through.
+   */
+  public void release(HttpRequest request) {
+    HostState host = getHost(request);
+    if (host == null) {
+      return;
+    }
+    synchronized (host) {
+      if (host.state == State.HALF_OPEN) {
+        host.probeStarted = 0;
+      }
+    }
+  }
+
+  /**
+   * @return The state of the circuit for the given host, as host[:port].
+   */
+  public State getState(String host) {
+    HostState state = hosts.get(host.toLowerCase());
+    if (state == null) {
+      return State.CLOSED;
+    }
+    synchronized (state) {
+      return state.state;
+    }
+  }
+
+  /**
+   * @return The adaptive timeout for the given host, as host[:port], or -1 if there aren't enough
+   *     samples yet.
+   */
+  public int getTimeoutMs(String host) {
+    HostState state = hosts.get(host.toLowerCase());
+    if (state == null) {
+      return -1;
+    }
+    synchronized (state) {
+      return state.timeoutMs;
+    }
+  }
+
+  /**
+   * @return The number of requests rejected because their host's circuit was open.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Fill the host's samples as if the given number of fetches had already succeeded.
+   */
+  @VisibleForTesting
+  void seedSamples(HttpRequest request, int count, long latencyMs) {
+    HostState host = getHost(request);
+    synchronized (host) {
+      Arrays.fill(host.samples, latencyMs);
+      host.next = count % SAMPLE_SIZE;
+      host.sampleCount = Math.min(count, SAMPLE_SIZE);
+      host.sinceRecompute = count % RECOMPUTE_INTERVAL;
+    }
+  }
+
+  private HostState getHost(HttpRequest request) {
+    String authority = request.getUri().getAuthority();
+    if (failurePercent <= 0 || authority == null) {
+      return null;
+    }
+    String name = authority.toLowerCase();
+    HostState host = hosts.get(name);
+    if (host == null) {
+      host = new HostState(name, now());
+      HostState existing = hosts.putIfAbsent(name, host);
+      if (existing != null) {
+        host = existing;
+      }
+    }
+    return host;
+  }
+
+  private static long now() {
+    return HttpResponse.getTimeSource().currentTimeMillis();
+  }
+
+  /**
+   * The circuit and latency samples for a single host. Guarded by its own lock.
+   */
+  private class HostState {
+    private final String name;
+    private State state = State.CLOSED;
+    private long windowStart;
+    private int requests;
+    private int failures;
+    private long openedAt;
+    private long probeStarted;
+
+    private final long[] samples = new long[SAMPLE_SIZE];
+    // Where the next sample goes, and how many are held, at most SAMPLE_SIZE.
+    private int next;
+    private int sampleCount;
+    private int sinceRecompute;
+    private int timeoutMs = -1;
+
+    private HostState(String name, long now) {
+      this.name = name;
+      this.windowStart = now;
+    }
+
+    private void open(long now) {
+      state = State.OPEN;
+      openedAt = now;
+    }
+
+    private void close(long now) {
+      state = State.CLOSED;
+      windowStart = now;
+      requests = 0;
+      failures = 0;
+    }
+
+    private void addSample(long latencyMs) {
+      samples[next] = latencyMs;
+      next = (next + 1) % SAMPLE_SIZE;
+      if (sampleCount < SAMPLE_SIZE) {
+        sampleCount++;
+      }
+      sinceRecompute = (sinceRecompute + 1) % RECOMPUTE_INTERVAL;
+      if (timeoutMultiplier > 0 && sampleCount >= MIN_SAMPLES && sinceRecompute == 0) {
+        long[] sorted = new long[sampleCount];
+        System.arraycopy(samples, 0, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(sorted.length * timeoutPercentile / 100.0) - 1;
+        long percentile = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        long timeout = (long) (percentile * timeoutMultiplier);
+        timeoutMs = (int) Math.max(minTimeoutMs, Math.min(maxTimeoutMs, timeout));
+      }
+    }
+  }
+}
@@ -76,6 +76,9 @@ public class HttpRequest {
   // Whether to follow redirects
   private boolean followRedirects = true;
 
+  // Connect and read timeout for the fetch, -1 for the fetcher's default.
+  private int timeoutMs = -1;
+
   // Context for the request.
   private Uri gadget;
   private String container = ContainerConfig.DEFAULT_CONTAINER;
@@ -117,6 +120,7 @@ public class HttpRequest {
     authType = request.authType;
     rewriteMimeType = request.rewriteMimeType;
     followRedirects = request.followRedirects;
+    timeoutMs = request.timeoutMs;
   }
 
   public HttpRequest setMethod(String method) {
@@ -287,6 +291,15 @@ public class HttpRequest {
     return this;
   }
 
+  /**
+   * @param timeoutMs The connect and read timeout for fetching this request, in milliseconds, or
+   *     -1 to use the fetcher's default.
+   */
+  public HttpRequest setTimeoutMs(int timeoutMs) {
+    this.timeoutMs = timeoutMs;
+    return this;
+  }
+
   /**
    * @param authType The type of authentication being used for this request.
    */
@@ -452,6 +465,14 @@ public class HttpRequest {
     return followRedirects;
   }
 
+  /**
+   * @return The connect and read timeout for fetching this request, in milliseconds, or -1 to use
+   *     the fetcher's default.
+   */
+  public int getTimeoutMs() {
+    return timeoutMs;
+  }
+
   /**
    * @return The type of authentication being used for this request.
    */
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.Nullable;
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Supports stale-while-revalidate serving of cached responses.
+ *
+ * Responses that expired no longer than {@code shindig.cache.http.stale-while-revalidate-ms} ago
+ * may be served to the user as-is while a refresh runs in the background. Refreshes run on a
+ * small bounded pool; at most one refresh per cache key is outstanding, and refreshes that don't
+ * fit in the queue are dropped (the next request for the stale entry will try again).
+ *
+ * A grace window of 0 (the default) disables stale-while-revalidate entirely.
+ */
+@Singleton
+public class HttpResponseRevalidator implements GuiceServletContextListener.CleanupCapable {
+  private static final Logger LOG = Logger.getLogger(HttpResponseRevalidator.class.getName());
+
+  static final int DEFAULT_THREADS = 4;
+  static final int MAX_QUEUED_REFRESHES = 1000;
+
+  private final ConcurrentMap<String, Boolean> pending = new MapMaker().makeMap();
+  private final ThreadPoolExecutor executor;
+  private long staleWhileRevalidateMs = 0;
+
+  @Inject
+  public HttpResponseRevalidator(@Nullable GuiceServletContextListener.CleanupHandler cleanupHandler) {
+    executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REFRESHES),
+        DefaultGuiceModule.DAEMON_THREAD_FACTORY);
+    if (cleanupHandler != null) {
+      cleanupHandler.register(this);
+    }
+  }
+
+  @Inject(optional = true)
+  public void setStaleWhileRevalidateMs(
+      @Named("shindig.cache.http.stale-while-revalidate-ms") long staleWhileRevalidateMs) {
+    this.staleWhileRevalidateMs = staleWhileRevalidateMs;
+  }
+
+  @Inject(optional = true)
+  public void setThreads(@Named("shindig.cache.http.revalidate-threads") int threads) {
+    if (threads > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(threads);
+      executor.setCorePoolSize(threads);
+    } else {
+      executor.setCorePoolSize(threads);
+      executor.setMaximumPoolSize(threads);
+    }
+  }
+
+  /**
+   * @return True if the response is stale, but recently enough that it may still be served while
+   *     a refresh happens in the background.
+   */
+  public boolean isWithinGracePeriod(HttpResponse response) {
+    if (staleWhileRevalidateMs <= 0 || response.isError() || response.isStrictNoCache()) {
+      return false;
+    }
+    long expiration = response.getCacheExpiration();
+    if (expiration == -1) {
+      return false;
+    }
+    long age = HttpResponse.getTimeSource().currentTimeMillis() - expiration;
+    return age >= 0 && age <= staleWhileRevalidateMs;
+  }
+
+  /**
+   * Schedule a background refresh for the given cache key, unless one is already outstanding.
+   *
+   * @return True if the refresh was scheduled.
+   */
+  public boolean submit(final String key, final Runnable refresh) {
+    if (key == null || pending.putIfAbsent(key, Boolean.TRUE) != null) {
+      return false;
+    }
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            refresh.run();
+          } catch (RuntimeException e) {
+            if (LOG.isLoggable(Level.INFO)) {
+              LOG.log(Level.INFO, "Background refresh failed for " + key, e);
+            }
+          } finally {
+            pending.remove(key);
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      pending.remove(key);
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Refresh queue full, skipping background refresh for " + key);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return The number of refreshes queued or running.
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public void cleanup() {
+    executor.shutdown();
+  }
+}
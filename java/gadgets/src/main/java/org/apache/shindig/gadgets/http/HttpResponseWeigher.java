@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.common.cache.Weigher;
+
+import java.util.Map;
+
+/**
+ * Estimates the heap footprint, in bytes, of a cached HttpResponse: its body plus its headers
+ * and metadata. Strings are counted at two bytes per character.
+ */
+public class HttpResponseWeigher implements Weigher<HttpResponse> {
+  // Rough cost of the response object itself, its header map and metadata map.
+  static final int RESPONSE_OVERHEAD = 256;
+  // Rough cost of a map entry, excluding the characters of its key and value.
+  static final int ENTRY_OVERHEAD = 48;
+
+  public long weigh(HttpResponse response) {
+    long weight = RESPONSE_OVERHEAD + response.getContentLength();
+    for (Map.Entry<String, String> header : response.getHeaders().entries()) {
+      weight += weigh(header);
+    }
+    for (Map.Entry<String, String> entry : response.getMetadata().entrySet()) {
+      weight += weigh(entry);
+    }
+    return weight;
+  }
+
+  private static long weigh(Map.Entry<String, String> entry) {
+    return ENTRY_OVERHEAD + 2L * (entry.getKey().length() + entry.getValue().length());
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ThreadSafeClientConnManager that counts leased and waiting connections per route, so that
+ * routes starving the pool can be found before requests start failing with
+ * ConnectionPoolTimeoutException.
+ *
+ * Counters for routes with no open connections are dropped when idle connections are closed,
+ * which keeps the number of tracked routes bounded by the size of the pool.
+ */
+class InstrumentedClientConnManager extends ThreadSafeClientConnManager {
+  private final ConnPerRoute connPerRoute;
+  private final ConcurrentMap<HttpRoute, RouteCounters> counters = new MapMaker().makeMap();
+  // Weak keys compare by identity, and don't pin connections that are never released.
+  private final ConcurrentMap<ManagedClientConnection, RouteCounters> leasedConnections =
+      new MapMaker().weakKeys().makeMap();
+
+  public InstrumentedClientConnManager(HttpParams params, SchemeRegistry schemeRegistry,
+      ConnPerRoute connPerRoute) {
+    super(params, schemeRegistry);
+    this.connPerRoute = connPerRoute;
+  }
+
+  @Override
+  public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+    final ClientConnectionRequest request = super.requestConnection(route, state);
+    final RouteCounters routeCounters = getCounters(route);
+    return new ClientConnectionRequest() {
+      public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+          throws InterruptedException, ConnectionPoolTimeoutException {
+        long started = System.nanoTime();
+        routeCounters.pending.incrementAndGet();
+        ManagedClientConnection conn;
+        try {
+          conn = request.getConnection(timeout, unit);
+        } catch (ConnectionPoolTimeoutException e) {
+          routeCounters.timeouts.incrementAndGet();
+          throw e;
+        } finally {
+          routeCounters.pending.decrementAndGet();
+          routeCounters.waitNanos.addAndGet(System.nanoTime() - started);
+        }
+        routeCounters.leases.incrementAndGet();
+        routeCounters.leased.incrementAndGet();
+        leasedConnections.put(conn, routeCounters);
+        return conn;
+      }
+
+      public void abortRequest() {
+        request.abortRequest();
+      }
+    };
+  }
+
+  @Override
+  public void releaseConnection(ManagedClientConnection conn, long validDuration,
+      TimeUnit timeUnit) {
+    // A connection may be released more than once; only the first release counts.
+    RouteCounters routeCounters = leasedConnections.remove(conn);
+    if (routeCounters != null) {
+      routeCounters.leased.decrementAndGet();
+    }
+    super.releaseConnection(conn, validDuration, timeUnit);
+  }
+
+  @Override
+  public void closeIdleConnections(long idleTimeout, TimeUnit tunit) {
+    super.closeIdleConnections(idleTimeout, tunit);
+    for (Map.Entry<HttpRoute, RouteCounters> entry : counters.entrySet()) {
+      RouteCounters routeCounters = entry.getValue();
+      if (routeCounters.leased.get() == 0 && routeCounters.pending.get() == 0 &&
+          getConnectionsInPool(entry.getKey()) == 0) {
+        counters.remove(entry.getKey(), routeCounters);
+      }
+    }
+  }
+
+  /**
+   * @return A snapshot of the pool for every route with open or requested connections. The
+   *     counts are read without locking the pool, so they are approximate under load.
+   */
+  public Map<HttpRoute, ConnectionPoolStats> getStats() {
+    ImmutableMap.Builder<HttpRoute, ConnectionPoolStats> stats = ImmutableMap.builder();
+    for (Map.Entry<HttpRoute, RouteCounters> entry : counters.entrySet()) {
+      HttpRoute route = entry.getKey();
+      RouteCounters routeCounters = entry.getValue();
+      int leased = routeCounters.leased.get();
+      int available = Math.max(0, getConnectionsInPool(route) - leased);
+      stats.put(route, new ConnectionPoolStats(leased, routeCounters.pending.get(), available,
+          connPerRoute.getMaxForRoute(route), routeCounters.leases.get(),
+          TimeUnit.NANOSECONDS.toMillis(routeCounters.waitNanos.get()),
+          routeCounters.timeouts.get()));
+    }
+    return stats.build();
+  }
+
+  private RouteCounters getCounters(HttpRoute route) {
+    RouteCounters routeCounters = counters.get(route);
+    if (routeCounters == null) {
+      routeCounters = new RouteCounters();
+      RouteCounters existing = counters.putIfAbsent(route, routeCounters);
+      if (existing != null) {
+        routeCounters = existing;
+      }
+    }
+    return routeCounters;
+  }
+
+  private static class RouteCounters {
+    final AtomicInteger leased = new AtomicInteger();
+    final AtomicInteger pending = new AtomicInteger();
+    final AtomicLong leases = new AtomicLong();
+    final AtomicLong waitNanos = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+  }
+}
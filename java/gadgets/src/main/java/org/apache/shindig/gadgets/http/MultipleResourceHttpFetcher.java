@@ -23,10 +23,13 @@ import com.google.common.collect.Lists;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.Pair;
+import org.apache.shindig.common.util.LazyFutureTask;
 import org.apache.shindig.gadgets.GadgetException;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask; 
 import java.util.List;
 import java.util.Map;
@@ -34,7 +37,8 @@ import java.util.Map;
 
 /**
  * This class provides simple way for doing parallel fetches for multiple
- * resourcs using FutureTask's.
+ * resourcs using FutureTask's. Pipelines that implement {@link AsyncRequestPipeline} fetch
+ * without using the executor.
  */
 public class MultipleResourceHttpFetcher {
   private final RequestPipeline requestPipeline;
@@ -82,6 +86,14 @@ public class MultipleResourceHttpFetcher {
 
   // Fetch the content of the requested uri. 
   private FutureTask<RequestContext> createHttpFetcher(HttpRequest request) {
+    if (requestPipeline instanceof AsyncRequestPipeline) {
+      // The pipeline fetches without a thread of ours; only wait for it when asked.
+      Future<HttpResponse> response =
+          ((AsyncRequestPipeline) requestPipeline).executeAsync(request);
+      return new LazyFutureTask<RequestContext>(new AsyncFetchCallable(request, response),
+          response);
+    }
+
     // Fetch the content of the requested uri.
     FutureTask<RequestContext> httpFetcher =
         new FutureTask<RequestContext>(new HttpFetchCallable(request, requestPipeline));
@@ -89,6 +101,28 @@ public class MultipleResourceHttpFetcher {
     return httpFetcher;
   }
 
+  private static class AsyncFetchCallable implements Callable<RequestContext> {
+    private final HttpRequest httpReq;
+    private final Future<HttpResponse> httpResp;
+
+    public AsyncFetchCallable(HttpRequest httpReq, Future<HttpResponse> httpResp) {
+      this.httpReq = httpReq;
+      this.httpResp = httpResp;
+    }
+
+    public RequestContext call() throws InterruptedException {
+      try {
+        return new RequestContext(httpReq, httpResp.get(), null);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        GadgetException gadgetException = (cause instanceof GadgetException)
+            ? (GadgetException) cause
+            : new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, cause);
+        return new RequestContext(httpReq, null, gadgetException);
+      }
+    }
+  }
+
   private static class HttpFetchCallable implements Callable<RequestContext> {
     private final HttpRequest httpReq;
     private final RequestPipeline requestPipeline;
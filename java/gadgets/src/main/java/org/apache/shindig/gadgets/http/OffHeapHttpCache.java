@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * An HttpCache that stores responses in direct memory through {@link OffHeapResponseCache}.
+ *
+ * To use it, bind {@link HttpCache} to this class and configure
+ * shindig.cache.http.offheap.max-bytes and shindig.cache.http.offheap.slab-bytes.
+ */
+@Singleton
+public class OffHeapHttpCache extends AbstractHttpCache {
+  private final OffHeapResponseCache cache;
+
+  @Inject
+  public OffHeapHttpCache(@Named("shindig.cache.http.offheap.max-bytes") long maxBytes,
+                          @Named("shindig.cache.http.offheap.slab-bytes") int slabBytes) {
+    cache = new OffHeapResponseCache(maxBytes, slabBytes);
+  }
+
+  public OffHeapResponseCache getCache() {
+    return cache;
+  }
+
+  @Override
+  protected HttpResponse getResponseImpl(String key) {
+    return cache.getElement(key);
+  }
+
+  @Override
+  protected void addResponseImpl(String key, HttpResponse response) {
+    cache.addElement(key, response);
+  }
+
+  @Override
+  protected HttpResponse removeResponseImpl(String key) {
+    return cache.removeElement(key);
+  }
+}
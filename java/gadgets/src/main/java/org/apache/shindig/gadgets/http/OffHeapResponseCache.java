@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.shindig.common.cache.WeightedCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of HttpResponses that keeps serialized responses in direct (off-heap) buffers, so that
+ * large bodies don't inflate the old generation. Only a small index lives on the heap.
+ *
+ * Storage is managed by a slab allocator, similar to memcached's: memory is handed out in slabs
+ * of a fixed size, each slab is assigned to a size class when first needed and cut into equal
+ * chunks, and every entry occupies one chunk of the smallest class that fits it. When a class has
+ * no free chunk and no slabs are left, either the least recently used entry of that class is
+ * evicted, or, if some slab of another class was used less recently than that entry, that whole
+ * slab is emptied and handed over. This way a class that started out with few slabs isn't starved
+ * for good once all slabs have been handed out. Responses larger than a slab are not cached.
+ *
+ * Each entry is stored as a short header (status, headers, metadata) followed by the raw body,
+ * which is copied out in one piece. The {@link HttpResponse#writeExternal} format is not used
+ * because ObjectOutputStream interleaves block markers with the body bytes.
+ */
+public class OffHeapResponseCache implements WeightedCache<String, HttpResponse> {
+  private static final Logger LOG = Logger.getLogger(OffHeapResponseCache.class.getName());
+
+  static final int MIN_CHUNK_SIZE = 1024;
+  static final double CHUNK_GROWTH_FACTOR = 1.25;
+
+  private final int slabSize;
+  private final int maxSlabs;
+  private final SlabClass[] classes;
+  private final Map<String, Entry> index = Maps.newHashMap();
+  private final List<Slab> slabs = Lists.newArrayList();
+  private long usedBytes = 0;
+  // Incremented on every access, to order slabs and entries by recency across classes.
+  private long clock = 0;
+
+  /**
+   * @param maxBytes The total amount of direct memory to use.
+   * @param slabSize The size of each slab, which is also the largest entry that can be cached.
+   */
+  public OffHeapResponseCache(long maxBytes, int slabSize) {
+    Preconditions.checkArgument(slabSize >= MIN_CHUNK_SIZE,
+        "Slab size must be at least " + MIN_CHUNK_SIZE);
+    Preconditions.checkArgument(maxBytes >= slabSize, "Max bytes must hold at least one slab");
+    this.slabSize = slabSize;
+    this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, maxBytes / slabSize);
+
+    List<SlabClass> sizes = Lists.newArrayList();
+    int chunkSize = MIN_CHUNK_SIZE;
+    while (chunkSize < slabSize) {
+      sizes.add(new SlabClass(chunkSize));
+      // Keep chunks 8-byte aligned.
+      chunkSize = (((int) Math.ceil(chunkSize * CHUNK_GROWTH_FACTOR)) + 7) & ~7;
+    }
+    sizes.add(new SlabClass(slabSize));
+    classes = sizes.toArray(new SlabClass[sizes.size()]);
+  }
+
+  public HttpResponse getElement(String key) {
+    Entry entry = pin(key);
+    if (entry == null) {
+      return null;
+    }
+    try {
+      ByteBuffer buffer = entry.contents();
+      DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+      HttpResponseBuilder builder = readHead(in);
+      byte[] body = new byte[buffer.remaining()];
+      buffer.get(body);
+      return builder.setResponseNoCopy(body).create();
+    } catch (IOException e) {
+      // Can only happen if the entry was corrupted.
+      LOG.log(Level.WARNING, "Unable to read cached response for " + key, e);
+      synchronized (this) {
+        if (index.get(key) == entry) {
+          removeLocked(key);
+        }
+      }
+      return null;
+    } finally {
+      unpin(entry);
+    }
+  }
+
+  public void addElement(String key, HttpResponse value) {
+    byte[] head;
+    try {
+      head = writeHead(value);
+    } catch (IOException e) {
+      // Only happens for header values too long for writeUTF; such responses aren't cached.
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.log(Level.FINE, "Unable to serialize response for " + key, e);
+      }
+      return;
+    }
+    byte[] body = value.getResponseAsBytes();
+    int length = head.length + body.length;
+
+    synchronized (this) {
+      removeLocked(key);
+      SlabClass slabClass = classFor(length);
+      if (slabClass == null) {
+        return;
+      }
+      Chunk chunk = allocate(slabClass);
+      if (chunk == null) {
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("No room in " + slabClass.chunkSize + " byte slab class for " + key);
+        }
+        return;
+      }
+      ByteBuffer target = chunk.buffer.duplicate();
+      target.clear();
+      target.put(head);
+      target.put(body);
+      Entry entry = new Entry(slabClass, chunk, length);
+      entry.lastUsed = ++clock;
+      chunk.slab.lastUsed = entry.lastUsed;
+      chunk.slab.entries++;
+      index.put(key, entry);
+      slabClass.lru.put(key, entry);
+      usedBytes += slabClass.chunkSize;
+    }
+  }
+
+  public HttpResponse removeElement(String key) {
+    HttpResponse response = getElement(key);
+    synchronized (this) {
+      removeLocked(key);
+    }
+    return response;
+  }
+
+  /**
+   * @return -1, the cache is bounded by bytes rather than by entry count.
+   */
+  public long getCapacity() {
+    return -1;
+  }
+
+  public synchronized long getSize() {
+    return index.size();
+  }
+
+  /**
+   * @return The number of bytes of direct memory holding entries.
+   */
+  public synchronized long getWeight() {
+    return usedBytes;
+  }
+
+  public long getMaxWeight() {
+    return (long) maxSlabs * slabSize;
+  }
+
+  private synchronized Entry pin(String key) {
+    Entry entry = index.get(key);
+    if (entry != null) {
+      // Touch for LRU ordering.
+      entry.slabClass.lru.get(key);
+      entry.lastUsed = ++clock;
+      entry.chunk.slab.lastUsed = entry.lastUsed;
+      entry.pins++;
+      entry.chunk.slab.pins++;
+    }
+    return entry;
+  }
+
+  private synchronized void unpin(Entry entry) {
+    entry.pins--;
+    entry.chunk.slab.pins--;
+    if (entry.removed && entry.pins == 0) {
+      entry.slabClass.free.add(entry.chunk);
+    }
+  }
+
+  private void removeLocked(String key) {
+    Entry entry = index.remove(key);
+    if (entry != null) {
+      entry.slabClass.lru.remove(key);
+      release(entry);
+    }
+  }
+
+  private void release(Entry entry) {
+    entry.removed = true;
+    entry.chunk.slab.entries--;
+    usedBytes -= entry.slabClass.chunkSize;
+    if (entry.pins == 0) {
+      entry.slabClass.free.add(entry.chunk);
+    }
+  }
+
+  private SlabClass classFor(int length) {
+    for (SlabClass slabClass : classes) {
+      if (slabClass.chunkSize >= length) {
+        return slabClass;
+      }
+    }
+    return null;
+  }
+
+  private Chunk allocate(SlabClass slabClass) {
+    if (slabClass.free.isEmpty() && slabs.size() < maxSlabs) {
+      Slab slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+      slabs.add(slab);
+      assign(slab, slabClass);
+    }
+    if (slabClass.free.isEmpty()) {
+      // The least recently used entry of this class that isn't being read.
+      Map.Entry<String, Entry> eldest = null;
+      for (Map.Entry<String, Entry> candidate : slabClass.lru.entrySet()) {
+        if (candidate.getValue().pins == 0) {
+          eldest = candidate;
+          break;
+        }
+      }
+      Slab slab = leastRecentlyUsedSlab(slabClass);
+      if (slab != null && (eldest == null || slab.age() < eldest.getValue().lastUsed)) {
+        // Everything in the slab is colder than anything this class would evict.
+        reassign(slab, slabClass);
+      } else if (eldest != null) {
+        slabClass.lru.remove(eldest.getKey());
+        index.remove(eldest.getKey());
+        release(eldest.getValue());
+      }
+    }
+    if (slabClass.free.isEmpty()) {
+      return null;
+    }
+    return slabClass.free.remove(slabClass.free.size() - 1);
+  }
+
+  /**
+   * @return The least recently used slab of another class that isn't being read, or null.
+   */
+  private Slab leastRecentlyUsedSlab(SlabClass slabClass) {
+    Slab oldest = null;
+    for (Slab slab : slabs) {
+      if (slab.owner != slabClass && slab.pins == 0 &&
+          (oldest == null || slab.age() < oldest.age())) {
+        oldest = slab;
+      }
+    }
+    return oldest;
+  }
+
+  /**
+   * Evict every entry in the slab and hand it over to another class.
+   */
+  private void reassign(Slab slab, SlabClass slabClass) {
+    SlabClass owner = slab.owner;
+    Iterator<Map.Entry<String, Entry>> entries = owner.lru.entrySet().iterator();
+    while (entries.hasNext() && slab.entries > 0) {
+      Map.Entry<String, Entry> entry = entries.next();
+      if (entry.getValue().chunk.slab == slab) {
+        entries.remove();
+        index.remove(entry.getKey());
+        release(entry.getValue());
+      }
+    }
+    Iterator<Chunk> chunks = owner.free.iterator();
+    while (chunks.hasNext()) {
+      if (chunks.next().slab == slab) {
+        chunks.remove();
+      }
+    }
+    if (LOG.isLoggable(Level.FINE)) {
+      LOG.fine("Moving a slab from the " + owner.chunkSize + " to the " + slabClass.chunkSize +
+          " byte slab class");
+    }
+    assign(slab, slabClass);
+  }
+
+  private void assign(Slab slab, SlabClass slabClass) {
+    slab.owner = slabClass;
+    for (int offset = 0; offset + slabClass.chunkSize <= slabSize;
+         offset += slabClass.chunkSize) {
+      ByteBuffer view = slab.memory.duplicate();
+      view.position(offset);
+      view.limit(offset + slabClass.chunkSize);
+      slabClass.free.add(new Chunk(slab, view.slice()));
+    }
+  }
+
+  private static byte[] writeHead(HttpResponse response) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(response.getHttpStatusCode());
+    out.writeLong(response.getRefetchStrictNoCacheAfterMs());
+    out.writeInt(response.getHeaders().size());
+    for (Map.Entry<String, String> header : response.getHeaders().entries()) {
+      out.writeUTF(header.getKey());
+      out.writeUTF(header.getValue());
+    }
+    Map<String, String> metadata = response.getMetadata();
+    out.writeInt(metadata.size());
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeUTF(entry.getValue());
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static HttpResponseBuilder readHead(DataInputStream in) throws IOException {
+    HttpResponseBuilder builder = new HttpResponseBuilder()
+        .setHttpStatusCode(in.readInt())
+        .setRefetchStrictNoCacheAfterMs(in.readLong());
+    for (int i = in.readInt(); i > 0; --i) {
+      builder.addHeader(in.readUTF(), in.readUTF());
+    }
+    for (int i = in.readInt(); i > 0; --i) {
+      builder.setMetadata(in.readUTF(), in.readUTF());
+    }
+    return builder;
+  }
+
+  private static class SlabClass {
+    private final int chunkSize;
+    private final List<Chunk> free = Lists.newArrayList();
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private SlabClass(int chunkSize) {
+      this.chunkSize = chunkSize;
+    }
+  }
+
+  private static class Slab {
+    private final ByteBuffer memory;
+    private SlabClass owner;
+    private long lastUsed = 0;
+    // Entries stored in the slab, and readers of those entries.
+    private int entries = 0;
+    private int pins = 0;
+
+    private Slab(ByteBuffer memory) {
+      this.memory = memory;
+    }
+
+    /**
+     * @return When the slab was last used, or -1 if it holds nothing and can be taken right away.
+     */
+    private long age() {
+      return entries == 0 ? -1 : lastUsed;
+    }
+  }
+
+  private static class Chunk {
+    private final Slab slab;
+    private final ByteBuffer buffer;
+
+    private Chunk(Slab slab, ByteBuffer buffer) {
+      this.slab = slab;
+      this.buffer = buffer;
+    }
+  }
+
+  private static class Entry {
+    private final SlabClass slabClass;
+    private final Chunk chunk;
+    private final int length;
+    private long lastUsed;
+    private int pins = 0;
+    private boolean removed = false;
+
+    private Entry(SlabClass slabClass, Chunk chunk, int length) {
+      this.slabClass = slabClass;
+      this.chunk = chunk;
+      this.length = length;
+    }
+
+    /**
+     * @return A private view over the stored bytes, positioned at the start of the entry.
+     */
+    private ByteBuffer contents() {
+      ByteBuffer view = chunk.buffer.duplicate();
+      view.clear();
+      view.limit(length);
+      return view;
+    }
+  }
+
+  /**
+   * Reads a ByteBuffer, consuming it as it goes.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collapses concurrent fetches for the same cache key into a single upstream fetch.
+ *
+ * The first caller for a key (the leader) performs the fetch, while every other caller that
+ * arrives before it completes waits for, and shares, the leader's result. Waiters give up after
+ * a per-call timeout and receive {@link HttpResponse#timeout()} so that a single hung origin
+ * cannot pin an unbounded number of request threads.
+ */
+@Singleton
+public class RequestCoalescer {
+  private static final Logger LOG = Logger.getLogger(RequestCoalescer.class.getName());
+
+  static final long DEFAULT_WAIT_TIMEOUT_MS = 10000L;
+
+  private final ConcurrentMap<String, Flight> flights = new MapMaker().makeMap();
+  private long defaultWaitTimeoutMs = DEFAULT_WAIT_TIMEOUT_MS;
+
+  private final AtomicLong flightCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  @Inject(optional = true)
+  public void setDefaultWaitTimeoutMs(
+      @Named("shindig.http.coalesce.wait-timeout-ms") long defaultWaitTimeoutMs) {
+    this.defaultWaitTimeoutMs = defaultWaitTimeoutMs;
+  }
+
+  /**
+   * The work performed by the leader of a flight.
+   */
+  public interface Fetch {
+    HttpResponse fetch() throws GadgetException;
+  }
+
+  /**
+   * Execute the fetch with the default wait timeout.
+   *
+   * @see #execute(String, long, Fetch)
+   */
+  public HttpResponse execute(String key, Fetch fetch) throws GadgetException {
+    return execute(key, defaultWaitTimeoutMs, fetch);
+  }
+
+  /**
+   * Execute the given fetch, or join an in-flight fetch for the same key.
+   *
+   * @param key The cache key identifying equivalent requests. A null key disables coalescing.
+   * @param waitTimeoutMs How long a waiting caller will block for the leader's result.
+   * @param fetch The work to perform if no fetch for this key is in flight.
+   * @return The shared response, or {@link HttpResponse#timeout()} if the wait timed out.
+   */
+  public HttpResponse execute(String key, long waitTimeoutMs, Fetch fetch)
+      throws GadgetException {
+    if (key == null) {
+      return fetch.fetch();
+    }
+
+    Flight flight = new Flight();
+    Flight existing = flights.putIfAbsent(key, flight);
+    if (existing != null) {
+      return existing.await(key, waitTimeoutMs);
+    }
+
+    flightCount.incrementAndGet();
+    try {
+      HttpResponse response = fetch.fetch();
+      flight.response = response;
+      return response;
+    } catch (GadgetException e) {
+      flight.gadgetException = e;
+      throw e;
+    } catch (RuntimeException e) {
+      flight.runtimeException = e;
+      throw e;
+    } finally {
+      // Remove before releasing waiters so that late arrivals start a fresh flight rather than
+      // joining one whose result has already been handed out.
+      flights.remove(key, flight);
+      flight.done.countDown();
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Fetch for " + key + " served " + (flight.waiters.get() + 1) + " callers");
+      }
+    }
+  }
+
+  /**
+   * @return The number of fetches actually performed through this coalescer.
+   */
+  public long getFlightCount() {
+    return flightCount.get();
+  }
+
+  /**
+   * @return The number of callers that were served by another caller's fetch.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * @return The number of callers that gave up waiting for another caller's fetch.
+   */
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /**
+   * @return The number of keys with a fetch currently in progress.
+   */
+  public int getInFlightCount() {
+    return flights.size();
+  }
+
+  private class Flight {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile HttpResponse response;
+    private volatile GadgetException gadgetException;
+    private volatile RuntimeException runtimeException;
+
+    private HttpResponse await(String key, long waitTimeoutMs) throws GadgetException {
+      waiters.incrementAndGet();
+      try {
+        if (!done.await(waitTimeoutMs, TimeUnit.MILLISECONDS)) {
+          timeoutCount.incrementAndGet();
+          if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Timed out after " + waitTimeoutMs + "ms waiting for fetch of " + key);
+          }
+          return HttpResponse.timeout();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+      }
+      coalescedCount.incrementAndGet();
+      if (gadgetException != null) {
+        throw gadgetException;
+      }
+      if (runtimeException != null) {
+        throw runtimeException;
+      }
+      return response;
+    }
+  }
+}
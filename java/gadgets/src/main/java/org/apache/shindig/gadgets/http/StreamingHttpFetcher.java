@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import com.google.inject.ImplementedBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link HttpFetcher} that can hand a response body to the caller as it arrives, instead of
+ * reading it into memory first. Used to pass large resources through without buffering them.
+ */
+@ImplementedBy(BasicHttpFetcher.class)
+public interface StreamingHttpFetcher extends HttpFetcher {
+
+  /**
+   * Fetch HTTP content, letting the handler decide from the status and headers whether the body
+   * is streamed to it or buffered as usual.
+   *
+   * @param request The request to fetch.
+   * @param handler Decides where the body goes.
+   * @return The response. If the body was streamed, the response has an empty body.
+   * @throws GadgetException In the event of a failure that can't be mapped to an HTTP result code,
+   *     including failures while streaming the body.
+   */
+  HttpResponse fetch(HttpRequest request, BodyHandler handler) throws GadgetException;
+
+  /**
+   * Receives the head of a response before its body is read.
+   */
+  interface BodyHandler {
+    /**
+     * @param head The status and headers of the response, with an empty body.
+     * @param contentLength The declared length of the body, or -1 if unknown.
+     * @return The stream to copy the body to, or null to buffer the body into the response.
+     */
+    OutputStream getBodyStream(HttpResponse head, long contentLength) throws IOException;
+  }
+}
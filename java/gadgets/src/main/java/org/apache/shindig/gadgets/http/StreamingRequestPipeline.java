@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+/**
+ * Implemented by request pipelines that can hand the body of a response that bypasses the cache
+ * to the caller as it arrives. Callers check whether the injected {@link RequestPipeline}
+ * implements this, and otherwise execute requests as usual.
+ */
+public interface StreamingRequestPipeline {
+
+  /**
+   * Execute the given request like {@link RequestPipeline#execute(HttpRequest)}, letting the
+   * handler take the body as it arrives where the request bypasses the cache. Other requests are
+   * executed as usual without calling the handler.
+   *
+   * @return The response. If the body was streamed to the handler, the response has an empty
+   *     body.
+   * @throws GadgetException As for {@link RequestPipeline#execute(HttpRequest)}, and for failures
+   *     while streaming the body.
+   */
+  HttpResponse executeStreaming(HttpRequest request, StreamingHttpFetcher.BodyHandler handler)
+      throws GadgetException;
+}
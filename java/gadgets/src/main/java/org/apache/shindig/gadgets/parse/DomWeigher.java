@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.parse;
+
+import org.apache.shindig.common.cache.Weigher;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Estimates the heap footprint, in bytes, of a parsed DOM tree for weight-bounded caches.
+ *
+ * Walks the tree once, counting a fixed overhead per node plus two bytes per character of node
+ * names and values. Only called when a tree is added to a cache, so the walk is paid once per
+ * parse rather than once per read.
+ */
+public class DomWeigher implements Weigher<Node> {
+  // Rough cost of a Xerces node object, excluding its name and value strings.
+  static final int NODE_OVERHEAD = 96;
+
+  public long weigh(Node node) {
+    long weight = NODE_OVERHEAD + chars(node.getNodeName()) + chars(node.getNodeValue());
+    NamedNodeMap attributes = node.getAttributes();
+    if (attributes != null) {
+      for (int i = 0; i < attributes.getLength(); ++i) {
+        Node attr = attributes.item(i);
+        weight += NODE_OVERHEAD + chars(attr.getNodeName()) + chars(attr.getNodeValue());
+      }
+    }
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      weight += weigh(child);
+    }
+    return weight;
+  }
+
+  private static long chars(String str) {
+    return str == null ? 0 : 2L * str.length();
+  }
+}
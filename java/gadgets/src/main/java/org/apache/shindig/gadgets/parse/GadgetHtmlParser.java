@@ -23,6 +23,7 @@ import com.google.inject.Provider;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.WeightedCacheProvider;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.GadgetException;
@@ -54,6 +55,9 @@ public abstract class GadgetHtmlParser {
   public static final String PARSED_DOCUMENTS = "parsedDocuments";
   public static final String PARSED_FRAGMENTS = "parsedFragments";
 
+  // User data key marking documents held in the cache.
+  private static final String SHARED_DOCUMENT = "sharedDocument";
+
   private Cache<String, Document> documentCache;
   private Cache<String, DocumentFragment> fragmentCache;
   private Provider<HtmlSerializer> serializerProvider = new DefaultSerializerProvider();
@@ -75,8 +79,15 @@ public abstract class GadgetHtmlParser {
 
   @Inject
   public void setCacheProvider(CacheProvider cacheProvider) {
-    documentCache = cacheProvider.createCache(PARSED_DOCUMENTS);
-    fragmentCache = cacheProvider.createCache(PARSED_FRAGMENTS);
+    if (cacheProvider instanceof WeightedCacheProvider) {
+      WeightedCacheProvider weighted = (WeightedCacheProvider) cacheProvider;
+      DomWeigher weigher = new DomWeigher();
+      documentCache = weighted.createCache(PARSED_DOCUMENTS, weigher);
+      fragmentCache = weighted.createCache(PARSED_FRAGMENTS, weigher);
+    } else {
+      documentCache = cacheProvider.createCache(PARSED_DOCUMENTS);
+      fragmentCache = cacheProvider.createCache(PARSED_FRAGMENTS);
+    }
   }
 
   @Inject
@@ -93,7 +104,21 @@ public abstract class GadgetHtmlParser {
     return normalized.contains("<!DOCTYPE") || normalized.contains("<HTML");
   }
 
+  /**
+   * Parses the source into a Document that the caller may modify. When parsed documents are
+   * cached, this is a private copy of the cached document.
+   */
   public Document parseDom(String source) throws GadgetException {
+    return mutableCopy(parseDomReadOnly(source));
+  }
+
+  /**
+   * Parses the source into a Document that may be shared with other callers, and so must not be
+   * modified. This avoids copying the cached document for callers that only inspect it, such as
+   * rewriters checking whether there is anything for them to do. Use {@link #mutableCopy} to get
+   * a copy that can be modified.
+   */
+  public Document parseDomReadOnly(String source) throws GadgetException {
     Document document = null;
     String key = null;
     // Avoid checksum overhead if we arent caching
@@ -206,16 +231,32 @@ public abstract class GadgetHtmlParser {
       reprocessScriptForOpenSocial(html);
 
       if (shouldCache) {
+        document.setUserData(SHARED_DOCUMENT, Boolean.TRUE, null);
         documentCache.addElement(key, document);
       }
     }
+    return document;
+  }
 
-    if (shouldCache) {
-      Document copy = (Document)document.cloneNode(true);
-      HtmlSerialization.copySerializer(document, copy);
-      return copy;
+  /**
+   * @param document A document returned by {@link #parseDomReadOnly}.
+   * @return The document itself if no one else holds it, otherwise a deep copy of it.
+   */
+  public Document mutableCopy(Document document) {
+    if (!isShared(document)) {
+      return document;
     }
-    return document;
+    // User data isn't cloned, so the copy isn't marked as shared.
+    Document copy = (Document)document.cloneNode(true);
+    HtmlSerialization.copySerializer(document, copy);
+    return copy;
+  }
+
+  /**
+   * @return True if the document is held in the parse cache and must not be modified.
+   */
+  public static boolean isShared(Document document) {
+    return document.getUserData(SHARED_DOCUMENT) != null;
   }
 
   protected void transferChildren(Node to, Node from) {
@@ -282,6 +323,13 @@ public abstract class GadgetHtmlParser {
     }
   }
 
+  /**
+   * @return A new empty document, for creating nodes outside of any parsed content.
+   */
+  public Document newDocument() {
+    return documentFactory.createDocument(null, null, null);
+  }
+
   protected Document errorDom(DOMException e) {
     // Create a bare-bones DOM whose body is just error text.
     // We do this to echo information to the developer that originally
@@ -22,6 +22,7 @@ import java.util.List;
 import org.apache.shindig.common.xml.DomUtil;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.google.common.collect.BiMap;
@@ -82,6 +83,32 @@ public final class SocialDataTags {
     return elements;
   }
   
+  /**
+   * @return Whether getTags would find any tags. The tree is walked with getFirstChild and
+   *     getNextSibling only, which don't register anything on the document, so this is safe
+   *     to call concurrently on parse trees shared between requests.
+   */
+  public static boolean hasTags(Document doc, String tagName) {
+    String scriptType = SCRIPT_TYPE_TO_OSML_TAG.inverse().get(tagName);
+    Node current = doc.getFirstChild();
+    while (current != null) {
+      if (current.getNodeType() == Node.ELEMENT_NODE) {
+        String name = current.getNodeName();
+        if (tagName.equals(name) || (scriptType != null && "script".equalsIgnoreCase(name) &&
+            scriptType.equalsIgnoreCase(((Element) current).getAttribute("type")))) {
+          return true;
+        }
+      }
+      Node next = current.getFirstChild();
+      while (next == null && current != doc) {
+        next = current.getNextSibling();
+        current = current.getParentNode();
+      }
+      current = next;
+    }
+    return false;
+  }
+
   public static boolean isOpenSocialScript(Element script) {
     Attr typeAttr = (Attr)script.getAttributes().getNamedItem("type");
     return (typeAttr != null && typeAttr.getValue() != null &&
@@ -46,7 +46,7 @@ public class VanillaCajaHtmlParser extends GadgetHtmlParser {
   }
 
   @Override
-  public Document parseDom(String source) throws GadgetException {
+  public Document parseDomReadOnly(String source) throws GadgetException {
     // TODO: Add support for caching the DOM after evaluation.
     return parseDomImpl(source);
   }
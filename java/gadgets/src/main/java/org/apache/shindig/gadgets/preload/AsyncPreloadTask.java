@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.preload;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A preload task whose work was already started asynchronously when it was created, so calling
+ * it only waits for the result. {@link ConcurrentPreloaderService} runs these in the thread that
+ * reads the preloads, and {@link PipelineExecutor} once their future is done, instead of giving
+ * each one a thread.
+ */
+public interface AsyncPreloadTask extends Callable<PreloadedData> {
+
+  /**
+   * @return The work in progress. Calling the task does not block once this is done.
+   */
+  ListenableFuture<?> getFuture();
+}
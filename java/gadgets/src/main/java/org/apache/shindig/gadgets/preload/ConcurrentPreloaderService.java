@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.common.util.LazyFutureTask;
 import org.apache.shindig.gadgets.Gadget;
 
 import java.util.Collection;
@@ -31,7 +32,8 @@ import com.google.inject.Inject;
  * lazily using the returned map of futures.
  *
  * The last preloaded object always executes in the current thread to avoid creating unnecessary
- * additional threads when we're blocking the current request anyway.
+ * additional threads when we're blocking the current request anyway. Tasks that implement
+ * {@link AsyncPreloadTask} are already running and are only waited on when read.
  */
 public class ConcurrentPreloaderService implements PreloaderService {
   private final ExecutorService executor;
@@ -52,8 +54,19 @@ public class ConcurrentPreloaderService implements PreloaderService {
 
   public Collection<PreloadedData> preload(Collection<Callable<PreloadedData>> tasks) {
     ConcurrentPreloads preloads = new ConcurrentPreloads(tasks.size());
-    int processed = tasks.size();
+    int processed = 0;
     for (Callable<PreloadedData> task : tasks) {
+      if (!(task instanceof AsyncPreloadTask)) {
+        processed += 1;
+      }
+    }
+    for (Callable<PreloadedData> task : tasks) {
+      if (task instanceof AsyncPreloadTask) {
+        // Already in progress, there's nothing for another thread to do.
+        preloads.add(new LazyFutureTask<PreloadedData>(task,
+            ((AsyncPreloadTask) task).getFuture()));
+        continue;
+      }
       processed -= 1;
       if (processed == 0) {
         // The last preload fires in the current thread.
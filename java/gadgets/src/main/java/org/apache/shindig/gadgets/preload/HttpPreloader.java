@@ -18,10 +18,12 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.gadgets.AuthType;
 import org.apache.shindig.gadgets.FetchResponseUtils;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.AsyncRequestPipeline;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.RequestPipeline;
@@ -31,6 +33,7 @@ import org.apache.shindig.gadgets.spec.RequestAuthenticationInfo;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 
 import java.util.Collection;
@@ -38,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Handles HTTP Preloading (/ModulePrefs/Preload elements).
@@ -60,13 +64,31 @@ public class HttpPreloader implements Preloader {
     for (Preload preload : gadget.getSpec().getModulePrefs().getPreloads()) {
       Set<String> preloadViews = preload.getViews();
       if (preloadViews.isEmpty() || preloadViews.contains(context.getView())) {
-        preloads.add(new PreloadTask(context, preload, preload.getHref().toString()));
+        String key = preload.getHref().toString();
+        Callable<PreloadedData> task = null;
+        if (requestPipeline instanceof AsyncRequestPipeline &&
+            preload.getAuthType() == AuthType.NONE) {
+          task = startAsyncPreload(context, preload, key);
+        }
+        preloads.add(task != null ? task : new PreloadTask(context, preload, key));
       }
     }
 
     return preloads;
   }
 
+  private Callable<PreloadedData> startAsyncPreload(GadgetContext context, Preload preload,
+      String key) {
+    HttpRequest request;
+    try {
+      request = newHttpRequest(context, preload);
+    } catch (GadgetException e) {
+      // Let the regular task report it.
+      return null;
+    }
+    return new AsyncTask(((AsyncRequestPipeline) requestPipeline).executeAsync(request), key);
+  }
+
   // TODO: move somewhere more sensible
   public static HttpRequest newHttpRequest(GadgetContext context,
       RequestAuthenticationInfo authenticationInfo) throws GadgetException {
@@ -97,6 +119,33 @@ public class HttpPreloader implements Preloader {
     }
   }
 
+  private static class AsyncTask implements AsyncPreloadTask {
+    private final ListenableFuture<HttpResponse> response;
+    private final String key;
+
+    public AsyncTask(ListenableFuture<HttpResponse> response, String key) {
+      this.response = response;
+      this.key = key;
+    }
+
+    public ListenableFuture<?> getFuture() {
+      return response;
+    }
+
+    public PreloadedData call() throws Exception {
+      try {
+        return new HttpPreloadData(response.get(), key);
+      } catch (ExecutionException e) {
+        // Report the same exception the blocking task would have thrown.
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      }
+    }
+  }
+
   /**
    * Implements PreloadData by returning a Map that matches the output format used by makeRequest.
    */
@@ -30,7 +30,11 @@ import org.apache.shindig.gadgets.spec.PipelinedData.Batch;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +42,7 @@ import javax.el.CompositeELResolver;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 
 /**
@@ -45,6 +50,7 @@ import com.google.inject.Inject;
  */
 public class PipelineExecutor {
   // TODO: support configuration
+  // The most batches a single pipeline is split into, i.e. the longest chain of dependencies.
   private static final int MAX_BATCH_COUNT = 3;
   //class name for logging purpose
   private static final String classname = PipelineExecutor.class.getName();
@@ -52,15 +58,15 @@ public class PipelineExecutor {
   
 
   private final PipelinedDataPreloader preloader;
-  private final PreloaderService preloaderService;
+  private final ExecutorService executor;
   private final Expressions expressions;
 
   @Inject
   public PipelineExecutor(PipelinedDataPreloader preloader,
-      PreloaderService preloaderService,
+      ExecutorService executor,
       Expressions expressions) {
     this.preloader = preloader;
-    this.preloaderService = preloaderService;
+    this.executor = executor;
     this.expressions = expressions;
   }
 
@@ -95,6 +101,13 @@ public class PipelineExecutor {
 
   /**
    * Executes a pipeline, or set of pipelines.
+   *
+   * Preloads are not run in rounds: each time a preload completes, every pipeline is evaluated
+   * again and any requests whose variables have become available are dispatched right away,
+   * without waiting for unrelated preloads that are still running. The calling thread only
+   * waits: ordinary preloads run on the executor, and {@link AsyncPreloadTask}s report back from
+   * whichever thread completes them.
+   *
    * @param context the gadget context for the state in which the pipelines execute
    * @param pipelines a collection of pipelines
    * @return results from the pipeline, or null if there are no results
@@ -106,72 +119,46 @@ public class PipelineExecutor {
     rootObjects.add(new GadgetELResolver(context));
     rootObjects.add(new RootELResolver(elResults));
 
+    // Preloads are handed back through this queue as soon as each one completes.
+    BlockingQueue<PreloadedData> completed = new LinkedBlockingQueue<PreloadedData>();
+
     List<PipelineState> pipelineStates = Lists.newArrayList();
+    int inFlight = 0;
     for (PipelinedData pipeline : pipelines) {
       PipelinedData.Batch batch = pipeline.getBatch(expressions, rootObjects);
-      pipelineStates.add(new PipelineState(pipeline, batch));
-    }
-
-    int batchCount = 0;
-    while (true) {
-      List<Callable<PreloadedData>> tasks = Lists.newArrayList();
-      for (PipelineState pipeline : pipelineStates) {
-        if (pipeline.batch != null) {
-          tasks.addAll(preloader.createPreloadTasks(context, pipeline.batch));
-        }
-      }
-
-      if (tasks.isEmpty()) {
-        break;
+      PipelineState state = new PipelineState(pipeline, batch);
+      pipelineStates.add(state);
+      if (batch != null) {
+        inFlight += dispatch(context, state, completed);
       }
+    }
 
-      Collection<PreloadedData> preloads = preloaderService.preload(tasks);
-      for (PreloadedData preloaded : preloads) {
-        try {
-          for (Object entry : preloaded.toJson()) {
-            results.add(entry);
-
-            String id = (String) JsonUtil.getProperty(entry, "id");
-
-            Object data = JsonUtil.getProperty(entry, "result");
-            if (data == null) {
-              // For backward compatiblity, check maybe return old 'data' field:
-              data = JsonUtil.getProperty(entry, "data");
-            }
-            if (data != null) {
-              elResults.put(id, data);
-            } else {
-              Object error = JsonUtil.getProperty(entry, "error");
-              if (error != null) {
-                elResults.put(id, error);
-              }
-            }
-          }
-        } catch (PreloadException pe) {
-          // This will be thrown in the event of some unexpected exception. We can move on.
-          if (LOG.isLoggable(Level.WARNING)) {
-            LOG.logp(Level.WARNING, classname, "execute", MessageKeys.ERROR_PRELOADING);
-            LOG.log(Level.WARNING, "", pe);
-          } 
-        }
+    while (inFlight > 0) {
+      PreloadedData preloaded;
+      try {
+        preloaded = completed.take();
+      } catch (InterruptedException ie) {
+        // Do NOT Propagate the interrupt
+        throw new RuntimeException("Preloading was interrupted by thread termination", ie);
       }
+      inFlight--;
+      addResults(preloaded, results, elResults);
 
-      // Advance to the next batch
+      // Dispatch whatever the new results have made evaluable
       for (PipelineState pipeline : pipelineStates) {
-        if (pipeline.batch != null) {
-          pipeline.batch = pipeline.batch.getNextBatch(rootObjects);
+        if (pipeline.batch != null && pipeline.batchCount < MAX_BATCH_COUNT) {
+          PipelinedData.Batch next = pipeline.batch.getNextBatch(rootObjects);
+          pipeline.batch = next;
+          if (next != null && !next.getPreloads().isEmpty()) {
+            inFlight += dispatch(context, pipeline, completed);
+          }
         }
       }
-
-      batchCount++;
-      if (batchCount == MAX_BATCH_COUNT) {
-        break;
-      }
     }
 
     List<PipelinedData> remainingPipelines = Lists.newArrayList();
     for (PipelineState pipeline : pipelineStates) {
-      if (pipeline.batch != null) {
+      if (pipeline.batch != null && pipeline.batch.getNextBatch(rootObjects) != null) {
         remainingPipelines.add(pipeline.pipeline);
       }
     }
@@ -179,6 +166,65 @@ public class PipelineExecutor {
     return new Results(remainingPipelines, results, elResults);
   }
 
+  /**
+   * Start the tasks for the pipeline's current batch. Each task adds its preload to the
+   * completed queue when it finishes, whether or not it succeeded.
+   *
+   * @return the number of tasks started.
+   */
+  private int dispatch(GadgetContext context, PipelineState pipeline,
+      BlockingQueue<PreloadedData> completed) {
+    pipeline.batchCount++;
+    int count = 0;
+    for (Callable<PreloadedData> task : preloader.createPreloadTasks(context, pipeline.batch)) {
+      Runnable report = new ReportingTask(task, completed);
+      if (task instanceof AsyncPreloadTask) {
+        // Already in progress; calling it once it is done doesn't block the reporting thread.
+        ((AsyncPreloadTask) task).getFuture().addListener(report,
+            MoreExecutors.sameThreadExecutor());
+      } else {
+        try {
+          executor.execute(report);
+        } catch (RejectedExecutionException e) {
+          completed.add(new FailedPreload(e));
+        }
+      }
+      count++;
+    }
+    return count;
+  }
+
+  private void addResults(PreloadedData preloaded, List<Object> results,
+      Map<String, Object> elResults) {
+    try {
+      for (Object entry : preloaded.toJson()) {
+        results.add(entry);
+
+        String id = (String) JsonUtil.getProperty(entry, "id");
+
+        Object data = JsonUtil.getProperty(entry, "result");
+        if (data == null) {
+          // For backward compatiblity, check maybe return old 'data' field:
+          data = JsonUtil.getProperty(entry, "data");
+        }
+        if (data != null) {
+          elResults.put(id, data);
+        } else {
+          Object error = JsonUtil.getProperty(entry, "error");
+          if (error != null) {
+            elResults.put(id, error);
+          }
+        }
+      }
+    } catch (PreloadException pe) {
+      // This will be thrown in the event of some unexpected exception. We can move on.
+      if (LOG.isLoggable(Level.WARNING)) {
+        LOG.logp(Level.WARNING, classname, "execute", MessageKeys.ERROR_PRELOADING);
+        LOG.log(Level.WARNING, "", pe);
+      }
+    }
+  }
+
   /** State of one of the pipelines */
   static class PipelineState {
     public PipelineState(PipelinedData pipeline, Batch batch) {
@@ -187,6 +233,46 @@ public class PipelineExecutor {
     }
 
     public final PipelinedData pipeline;
+    // The latest batch; its pending preloads have not been dispatched yet.
     public PipelinedData.Batch batch;
+    public int batchCount;
+  }
+
+  /** Runs a task and adds its preload, or its failure, to the completed queue */
+  private static class ReportingTask implements Runnable {
+    private final Callable<PreloadedData> task;
+    private final BlockingQueue<PreloadedData> completed;
+
+    public ReportingTask(Callable<PreloadedData> task, BlockingQueue<PreloadedData> completed) {
+      this.task = task;
+      this.completed = completed;
+    }
+
+    public void run() {
+      PreloadedData preloaded;
+      try {
+        preloaded = task.call();
+      } catch (Exception e) {
+        preloaded = new FailedPreload(e);
+      }
+      completed.add(preloaded);
+    }
+  }
+
+  /** PreloadedData for a task that failed */
+  private static class FailedPreload implements PreloadedData {
+    private final Exception e;
+
+    public FailedPreload(Exception e) {
+      this.e = e;
+    }
+
+    public Collection<Object> toJson() throws PreloadException {
+      if (e instanceof PreloadException) {
+        throw (PreloadException) e;
+      }
+
+      throw new PreloadException(e);
+    }
   }
 }
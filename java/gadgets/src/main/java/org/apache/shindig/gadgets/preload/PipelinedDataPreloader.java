@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.preload;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.common.JsonUtil;
 import org.apache.shindig.common.uri.Uri;
@@ -34,15 +35,24 @@ import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.PipelinedData;
 import org.apache.shindig.gadgets.spec.RequestAuthenticationInfo;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.JsonRpcServlet;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.ResponseItem;
+import org.apache.shindig.protocol.conversion.BeanConverter;
+import org.apache.shindig.protocol.multipart.FormDataItem;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -51,7 +61,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Processes a single batch of pipeline data into tasks.
@@ -63,12 +75,36 @@ public class PipelinedDataPreloader {
   private static final Set<String> HTTP_RESPONSE_HEADERS =
     ImmutableSet.of("content-type", "location", "set-cookie");
 
+  private boolean inProcessSocialRequests;
+  private HandlerRegistry handlerRegistry;
+  private BeanConverter beanConverter;
+
   @Inject
   public PipelinedDataPreloader(RequestPipeline requestPipeline, ContainerConfig config) {
     this.requestPipeline = requestPipeline;
     this.config = config;
   }
 
+  /**
+   * Execute social requests by calling the social API handlers directly, instead of sending them
+   * to the JSON-RPC endpoint. Only takes effect if the handlers are deployed with the gadget
+   * server.
+   */
+  @Inject(optional = true)
+  public void setInProcessSocialRequests(
+      @Named("shindig.pipelining.in-process-social") boolean inProcessSocialRequests) {
+    this.inProcessSocialRequests = inProcessSocialRequests;
+  }
+
+  @Inject(optional = true)
+  public void setSocialHandlers(HandlerRegistry handlerRegistry,
+      @Named("org.apache.shindig.handlers") Set<Object> handlers,
+      @Named("shindig.bean.converter.json") BeanConverter beanConverter) {
+    handlerRegistry.addHandlers(handlers);
+    this.handlerRegistry = handlerRegistry;
+    this.beanConverter = beanConverter;
+  }
+
   /** Create preload tasks from a batch of social and http preloads */
   public Collection<Callable<PreloadedData>> createPreloadTasks(GadgetContext context,
       PipelinedData.Batch batch) {
@@ -116,6 +152,61 @@ public class PipelinedDataPreloader {
     return requestPipeline.execute(request);
   }
 
+  /**
+   * Execute social requests by calling their handlers directly. The results are shaped as the
+   * JSON-RPC endpoint would return them and converted straight to the JSON objects parsing its
+   * response would give, so expressions and templates see the same data either way without it
+   * being serialized and parsed again.
+   *
+   * @param token the security token the requests are made with
+   * @param requests the JSON-RPC requests
+   * @return the response to each request
+   */
+  protected List<Object> executeSocialRequestsInProcess(SecurityToken token,
+      Collection<? extends Object> requests) {
+    // Start every request before waiting for any, as the servlet does.
+    List<Future<?>> futures = Lists.newArrayListWithCapacity(requests.size());
+    for (Object request : requests) {
+      futures.add(handlerRegistry.getRpcHandler((JSONObject) request)
+          .execute(ImmutableMap.<String, FormDataItem>of(), token, beanConverter));
+    }
+
+    List<Object> data = Lists.newArrayListWithCapacity(requests.size());
+    int i = 0;
+    for (Object request : requests) {
+      Map<String, Object> response = Maps.newHashMap();
+      Object id = JsonUtil.getProperty(request, "id");
+      if (id != null) {
+        response.put("id", id);
+      }
+      ResponseItem item = getResponseItem(futures.get(i++));
+      if (item.getErrorCode() < 200 || item.getErrorCode() >= 400) {
+        response.put("error", JsonRpcServlet.getErrorJson(item));
+      } else {
+        response.put("result", JsonRpcServlet.getJSONResult(item.getResponse()));
+      }
+      data.add(JsonSerializer.toJson(response));
+    }
+    return data;
+  }
+
+  private static ResponseItem getResponseItem(Future<?> future) {
+    try {
+      Object result = future != null ? future.get() : null;
+      return new ResponseItem(result != null ? result : Collections.emptyMap());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return new ResponseItem(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ie.getMessage());
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof ProtocolException) {
+        ProtocolException pe = (ProtocolException) ee.getCause();
+        return new ResponseItem(pe.getCode(), pe.getMessage(), pe.getResponse());
+      }
+      return new ResponseItem(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          ee.getCause().getMessage());
+    }
+  }
+
   private static class VariableTask implements Callable<PreloadedData> {
     private ImmutableMap<String, Object> result;
 
@@ -147,6 +238,16 @@ public class PipelinedDataPreloader {
     }
 
     public PreloadedData call() throws Exception {
+      if (inProcessSocialRequests && handlerRegistry != null && context.getToken() != null) {
+        final List<Object> data = executeSocialRequestsInProcess(context.getToken(),
+            socialRequests);
+        return new PreloadedData() {
+          public Collection<Object> toJson() {
+            return data;
+          }
+        };
+      }
+
       HttpResponse response;
       
       String token = context.getParameter("st");
@@ -41,6 +41,7 @@ public class HtmlRenderer {
   private final ProxyRenderer proxyRenderer;
   private final GadgetRewritersProvider gadgetRewritersProvider;
   private final GadgetHtmlParser htmlParser;
+  private RenderedGadgetCache renderedGadgetCache;
 
   @Inject
   public HtmlRenderer(PreloaderService preloader,
@@ -53,6 +54,11 @@ public class HtmlRenderer {
     this.htmlParser = htmlParser;
   }
 
+  @Inject(optional = true)
+  public void setRenderedGadgetCache(RenderedGadgetCache renderedGadgetCache) {
+    this.renderedGadgetCache = renderedGadgetCache;
+  }
+
   /**
    * Render the gadget into a string by performing the following steps:
    *
@@ -70,6 +76,18 @@ public class HtmlRenderer {
     try {
       View view = gadget.getCurrentView();
 
+      // Output that is the same for every user is only rendered once.
+      RenderedGadgetCache.Key cacheKey = null;
+      if (renderedGadgetCache != null) {
+        cacheKey = renderedGadgetCache.getKey(gadget);
+        if (cacheKey != null) {
+          String cached = renderedGadgetCache.getRenderedContent(cacheKey);
+          if (cached != null) {
+            return cached;
+          }
+        }
+      }
+
       // We always execute these preloads, they have nothing to do with the cache output.
       Collection<PreloadedData> preloads = preloader.preload(gadget);
       gadget.setPreloads(preloads);
@@ -87,8 +105,12 @@ public class HtmlRenderer {
           gadgetRewritersProvider.getRewriters(gadget.getContext())) {
         rewriter.rewrite(gadget, mc);
       }
-      
-      return mc.getContent();
+
+      String rendered = mc.getContent();
+      if (cacheKey != null) {
+        renderedGadgetCache.addRenderedContent(cacheKey, rendered);
+      }
+      return rendered;
     } catch (GadgetException e) {
       throw new RenderingException(e.getMessage(), e, e.getHttpStatusCode());
     } catch (RewritingException e) {
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.render;
+
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.TimeSource;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.apache.shindig.gadgets.spec.View;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the rendered markup of gadgets whose output is the same for every user, so that
+ * repeated renders skip preloading, rewriting and serialization.
+ *
+ * Only gadgets with inline content that declare no user prefs, preloads or pipelined data are
+ * cached, and only for requests without a security token, since the token is written into the
+ * output. Entries are keyed by everything else the output depends on: the spec url and
+ * checksum, container, view, locale, module id and the request parameters read by rewriters.
+ *
+ * Entries expire after a maximum age, so that changes to message bundles and features are
+ * picked up, and are dropped for a spec when it is invalidated through the
+ * {@link org.apache.shindig.gadgets.http.InvalidationService}.
+ */
+@Singleton
+public class RenderedGadgetCache {
+  public static final String CACHE_NAME = "renderedGadgets";
+
+  private final Cache<Key, Entry> cache;
+  private final long maxAgeMs;
+  // When each spec was last invalidated. Older records can't match an unexpired entry.
+  private final ConcurrentMap<Uri, Long> invalidated;
+  private TimeSource timeSource = new TimeSource();
+
+  @Inject
+  public RenderedGadgetCache(CacheProvider cacheProvider,
+      @Named("shindig.cache.rendered-gadgets.max-age-ms") long maxAgeMs) {
+    Cache<Key, Entry> cache = cacheProvider.createCache(CACHE_NAME);
+    this.cache = maxAgeMs > 0 && cache.getCapacity() != 0 ? cache : null;
+    this.maxAgeMs = maxAgeMs;
+    this.invalidated = new MapMaker()
+        .expireAfterWrite(Math.max(maxAgeMs, 1), TimeUnit.MILLISECONDS).makeMap();
+  }
+
+  /**
+   * Set a new time source. For use in testing.
+   */
+  public void setTimeSource(TimeSource timeSource) {
+    this.timeSource = timeSource;
+  }
+
+  /**
+   * @return The key for the gadget's rendered output, or null if its output may differ between
+   *     users or requests and must not be cached.
+   */
+  public Key getKey(Gadget gadget) {
+    if (cache == null) {
+      return null;
+    }
+    GadgetContext context = gadget.getContext();
+    GadgetSpec spec = gadget.getSpec();
+    View view = gadget.getCurrentView();
+    if (context.getIgnoreCache() || context.getToken() != null || view == null ||
+        view.getHref() != null || view.getPipelinedData() != null ||
+        !spec.getUserPrefs().isEmpty() || !spec.getModulePrefs().getPreloads().isEmpty()) {
+      return null;
+    }
+    return new Key(timeSource.currentTimeMillis(), spec.getUrl(), spec.getChecksum(),
+        context.getContainer(), view.getName(), context.getLocale(), context.getModuleId(),
+        context.getDebug(), context.getSanitize(), context.getCajoled(), context.getRepository(),
+        context.getHost(), context.getParameter("libs"), context.getParameter("sanitize"),
+        context.getParameter("view-params"));
+  }
+
+  /**
+   * @return The cached output for the key, or null if there is none.
+   */
+  public String getRenderedContent(Key key) {
+    Entry entry = cache.getElement(key);
+    if (entry == null || key.created - entry.created > maxAgeMs) {
+      return null;
+    }
+    Long invalidatedAt = invalidated.get(key.url);
+    if (invalidatedAt != null && invalidatedAt >= entry.created) {
+      return null;
+    }
+    return entry.content;
+  }
+
+  /**
+   * Cache output rendered for the key. The entry is considered as old as the key, so that
+   * output rendered while the spec was being invalidated isn't kept.
+   */
+  public void addRenderedContent(Key key, String content) {
+    cache.addElement(key, new Entry(content, key.created));
+  }
+
+  /**
+   * Drop all output rendered for the given specs.
+   */
+  public void invalidate(Iterable<Uri> specUris) {
+    long now = timeSource.currentTimeMillis();
+    for (Uri uri : specUris) {
+      invalidated.put(uri, now);
+    }
+  }
+
+  /**
+   * Identifies a rendering of a gadget. Equality ignores when the key was created.
+   */
+  public static final class Key {
+    private final long created;
+    private final Uri url;
+    private final List<Object> parts;
+    private final int hashCode;
+
+    Key(long created, Uri url, Object... parts) {
+      this.created = created;
+      this.url = url;
+      this.parts = Arrays.asList(parts);
+      this.hashCode = url.hashCode() * 31 + this.parts.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hashCode == other.hashCode && url.equals(other.url) && parts.equals(other.parts);
+    }
+  }
+
+  private static final class Entry {
+    private final String content;
+    private final long created;
+
+    private Entry(String content, long created) {
+      this.content = content;
+      this.created = created;
+    }
+  }
+}
@@ -20,6 +20,8 @@ package org.apache.shindig.gadgets.render;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
@@ -66,6 +68,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
@@ -106,6 +109,7 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
   static final String REWRITE_DOCTYPE_PUBID = "gadgets.doctype_pubid";
   static final String REWRITE_DOCTYPE_SYSID = "gadgets.doctype_sysid";
   static final String FEATURES_KEY = "gadgets.features";
+  public static final String FEATURE_SCRIPTS_CACHE = "featureScripts";
 
   protected final MessageBundleFactory messageBundleFactory;
   protected final ContainerConfig containerConfig;
@@ -118,6 +122,9 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
 
   protected Boolean externalizeFeatures = false;
 
+  // Feature js, or the url to load it from, by everything injectScript builds it from.
+  private Cache<String, String> featureScriptCache;
+
   // DOCTYPE for HTML5, OpenSocial 2.0 default
   private String defaultDoctypeQName = "html";
   private String defaultDoctypePubId = null;
@@ -165,6 +172,12 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
     this.externalizeFeatures = externalizeFeatures;
   }
 
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    Cache<String, String> cache = cacheProvider.createCache(FEATURE_SCRIPTS_CACHE);
+    featureScriptCache = cache.getCapacity() != 0 ? cache : null;
+  }
+
   public void rewrite(Gadget gadget, MutableContent mutableContent) throws RewritingException {
     // Don't touch sanitized gadgets.
     if (gadget.sanitizeOutput()) {
@@ -381,17 +394,37 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
         libs, loaded, null, false, false, RenderingContext.getDefault(), null,
         getFeatureRepositoryId(gadget));
 
+    // The same libraries are injected the same way for every gadget with the same feature set,
+    // so the js (or its url) is only assembled once.
+    String cacheKey = null;
+    String script = null;
+    if (featureScriptCache != null && !context.getIgnoreCache()) {
+      cacheKey = Joiner.on('|').useForNull("").join(inline, context.getDebug(),
+          context.getContainer(), getFeatureRepositoryId(gadget), Joiner.on(':').join(libs),
+          loaded == null ? "" : Joiner.on(':').join(loaded));
+      script = featureScriptCache.getElement(cacheKey);
+    }
+    if (script == null) {
+      if (!inline) {
+        script = new UriBuilder(jsUriManager.makeExternJsUri(jsUri))
+            // Avoid jsload by adding jsload=0
+            .addQueryParameter(UriCommon.Param.JSLOAD.getKey(), "0")
+            .toString();
+      } else {
+        script = getFeaturesContent(jsUri);
+      }
+      if (cacheKey != null) {
+        featureScriptCache.addElement(cacheKey, script);
+      }
+    }
+
     String content = "";
     if (!inline) {
-      String jsUrl = new UriBuilder(jsUriManager.makeExternJsUri(jsUri))
-          // Avoid jsload by adding jsload=0
-          .addQueryParameter(UriCommon.Param.JSLOAD.getKey(), "0")
-          .toString();
       Element libsTag = headTag.getOwnerDocument().createElement("script");
-      libsTag.setAttribute("src", jsUrl);
+      libsTag.setAttribute("src", script);
       headTag.insertBefore(libsTag, firstHeadChild);
     } else {
-      content = getFeaturesContent(jsUri);
+      content = script;
     }
 
     content = content + extraContent;
@@ -25,7 +25,7 @@ import com.google.inject.Inject;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
-import org.apache.shindig.gadgets.rewrite.DomWalker.Visitor;
+import org.apache.shindig.gadgets.rewrite.DomWalker.ElementVisitor;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
@@ -43,7 +43,7 @@ import java.util.Map;
  *
  * @since 2.0.0
  */
-public class AbsolutePathReferenceVisitor implements Visitor {
+public class AbsolutePathReferenceVisitor implements ElementVisitor {
   public enum Tags {
     // Resources which would be fetched by the browser when rendering the page.
     //TODO: Document the second parameter for clarity
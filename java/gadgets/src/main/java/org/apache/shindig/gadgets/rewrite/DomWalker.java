@@ -20,6 +20,8 @@ package org.apache.shindig.gadgets.rewrite;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
@@ -102,6 +104,15 @@ public final class DomWalker {
      */
     boolean revisit(Gadget gadget, List<Node> nodes) throws RewritingException;
   }
+
+  /**
+   * A {@code Visitor} that only looks at elements, and only reads and changes the attributes
+   * of the elements it is given: it never inspects their parents, siblings or children, and
+   * never adds or removes nodes. Rewriters whose visitors are all {@code ElementVisitor}s can
+   * run in a single streaming pass over the content instead of building a DOM.
+   */
+  public interface ElementVisitor extends Visitor {
+  }
   
   /**
    * Rewriter that traverses the DOM, passing each node to its
@@ -112,6 +123,7 @@ public final class DomWalker {
    */
   public static class Rewriter implements GadgetRewriter, ResponseRewriter {
     private final List<Visitor> visitors;
+    private boolean streamingEnabled;
     
     public Rewriter(List<Visitor> visitors) {
       this.visitors = visitors;
@@ -125,6 +137,17 @@ public final class DomWalker {
       this.visitors = null;
     }
 
+    /**
+     * When enabled, content that hasn't been parsed yet is rewritten by scanning its tags
+     * rather than by walking a DOM, if all visitors are {@link ElementVisitor}s. Unlike DOM
+     * mode, the rest of the content is left exactly as it was.
+     */
+    @Inject(optional = true)
+    public void setStreamingEnabled(
+        @Named("shindig.content-rewrite.streaming") boolean streamingEnabled) {
+      this.streamingEnabled = streamingEnabled;
+    }
+
     // Override this to supply a list of Visitors generated using request context
     // rather than supplied at construction time.
     protected List<Visitor> makeVisitors(Gadget context, Uri gadgetUri) {
@@ -149,6 +172,10 @@ public final class DomWalker {
     
     private boolean rewrite(List<Visitor> visitors, Gadget gadget, MutableContent content) 
         throws RewritingException {
+      if (streamingEnabled && !content.hasDocument() && allElementVisitors(visitors)) {
+        return StreamingTagWalker.rewrite(visitors, gadget, content);
+      }
+
       Map<Visitor, List<Node>> reservations = Maps.newHashMap();
         
       LinkedList<Node> toVisit = Lists.newLinkedList();
@@ -214,6 +241,15 @@ public final class DomWalker {
       
       return mutated;
     }
+
+    private static boolean allElementVisitors(List<Visitor> visitors) {
+      for (Visitor visitor : visitors) {
+        if (!(visitor instanceof ElementVisitor)) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 
   // TODO: Remove these lame hacks by changing Gadget to a proper general Context object.
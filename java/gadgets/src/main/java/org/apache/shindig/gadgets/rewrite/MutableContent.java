@@ -58,6 +58,8 @@ public class MutableContent {
   private HttpResponse contentSource;
 
   private Document document;
+  // Parse tree that may be shared with other requests; only replaced by document on first write.
+  private Document readOnlyDocument;
   private int numChanges = 0;
   private final GadgetHtmlParser contentParser;
   private Map<String, Object> pipelinedData;
@@ -131,6 +133,7 @@ public class MutableContent {
     if (content == null || !content.equals(newContent)) {
       content = newContent;
       document = null;
+      readOnlyDocument = null;
       contentSource = null;
       contentBytes = null;
       incrementNumChanges();
@@ -183,6 +186,7 @@ public class MutableContent {
     if (contentBytes == null || !Arrays.equals(contentBytes, newBytes)) {
       setContentBytesState(newBytes, newEncoding);
       document = null;
+      readOnlyDocument = null;
       contentSource = null;
       content = null;
       incrementNumChanges();
@@ -239,7 +243,12 @@ public class MutableContent {
       return document;
     }
     try {
-      document = contentParser.parseDom(getContent());
+      if (readOnlyDocument != null) {
+        document = contentParser.mutableCopy(readOnlyDocument);
+        readOnlyDocument = null;
+      } else {
+        document = contentParser.parseDom(getContent());
+      }
       document.setUserData(MUTABLE_CONTENT_LISTENER, this, null);
     } catch (GadgetException e) {
       if (LOG.isLoggable(Level.WARNING)) {
@@ -251,6 +260,32 @@ public class MutableContent {
     return document;
   }
   
+  /**
+   * Retrieves the object contents in parsed form for inspection only. The returned
+   * document may be shared with other requests and MUST NOT be modified; call
+   * {@code getDocument} to get a document that can be edited. Rewriters that often find
+   * nothing to change should check this first, which avoids copying the cached parse tree
+   * and re-serializing unchanged content.
+   */
+  public Document getReadOnlyDocument() {
+    if (document != null) {
+      return document;
+    }
+    if (readOnlyDocument == null) {
+      try {
+        readOnlyDocument = contentParser.parseDomReadOnly(getContent());
+      } catch (GadgetException e) {
+        if (LOG.isLoggable(Level.WARNING)) {
+          LOG.logp(Level.WARNING, classname, "getReadOnlyDocument",
+              MessageKeys.EXCEPTION_PARSING_CONTENT);
+          LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+        return null;
+      }
+    }
+    return readOnlyDocument;
+  }
+
   public GadgetHtmlParser getContentParser() {
     return contentParser;
   }
@@ -62,6 +62,13 @@ public class PipelineDataGadgetRewriter implements GadgetRewriter {
       return;
     }
     
+    // Check the shared parse tree first, so content without data tags is neither copied
+    // nor re-serialized.
+    Document readOnlyDoc = content.getReadOnlyDocument();
+    if (readOnlyDoc == null || !SocialDataTags.hasTags(readOnlyDoc, SocialDataTags.OSML_DATA_TAG)) {
+      return;
+    }
+
     Document doc = content.getDocument();
     Map<PipelinedData, Node> pipelineNodes = parsePipelinedData(gadget, doc);
     
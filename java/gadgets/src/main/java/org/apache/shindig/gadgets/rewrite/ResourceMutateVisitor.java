@@ -43,7 +43,7 @@ import java.util.Map;
  *
  * @since 2.0.0
  */
-public abstract class ResourceMutateVisitor implements DomWalker.Visitor {
+public abstract class ResourceMutateVisitor implements DomWalker.ElementVisitor {
   /**
    * Enum for resource tags and associated attributes that should be mutated.
    */
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.parse.HtmlSerialization;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs {@link DomWalker.ElementVisitor}s over HTML content without parsing it into a DOM.
+ *
+ * The content is scanned once for start tags. Each start tag is turned into a detached
+ * Element holding only its attributes, which is passed to the visitors in document order just
+ * as {@link DomWalker.Rewriter} would. Start tags whose attributes were changed are serialized
+ * again; everything else, including text, comments and the contents of script and style
+ * elements, is copied through untouched.
+ *
+ * Only the first &lt;base&gt; element of the content is attached to the detached elements'
+ * owner document, so visitors resolving urls against it see the same base as in DOM mode.
+ */
+final class StreamingTagWalker {
+  private StreamingTagWalker() {}
+
+  // Elements whose contents are text up to the matching end tag.
+  private static final Set<String> RAW_TEXT_ELEMENTS = ImmutableSet.of(
+      "script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes");
+
+  /**
+   * A start tag found in the content.
+   */
+  static final class Tag {
+    // Offsets of the opening '<' and just past the closing '>'.
+    final int start;
+    final int end;
+    final String name;
+    final boolean selfClosing;
+    // Attribute values, with entities decoded, in source order. The first of any duplicates wins.
+    final Map<String, String> attributes;
+    Element element;
+
+    Tag(int start, int end, String name, boolean selfClosing, Map<String, String> attributes) {
+      this.start = start;
+      this.end = end;
+      this.name = name;
+      this.selfClosing = selfClosing;
+      this.attributes = attributes;
+    }
+
+    boolean isModified() {
+      NamedNodeMap current = element.getAttributes();
+      if (current.getLength() != attributes.size()) {
+        return true;
+      }
+      for (int i = 0; i < current.getLength(); i++) {
+        Attr attr = (Attr) current.item(i);
+        if (!attr.getValue().equals(attributes.get(attr.getName()))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Visits every start tag in the content, and replaces the content if any were modified.
+   *
+   * @return True if the content was modified.
+   */
+  static boolean rewrite(List<DomWalker.Visitor> visitors, Gadget gadget, MutableContent content)
+      throws RewritingException {
+    String source = content.getContent();
+    if (source == null) {
+      return false;
+    }
+
+    List<Tag> tags = scan(source);
+    if (tags.isEmpty()) {
+      return false;
+    }
+
+    Document scratch = content.getContentParser().newDocument();
+    Element root = scratch.createElement("html");
+    scratch.appendChild(root);
+    boolean hasBase = false;
+    for (Tag tag : tags) {
+      tag.element = toElement(scratch, tag);
+      if (!hasBase && tag.element != null && "base".equals(tag.name)) {
+        root.appendChild(tag.element);
+        hasBase = true;
+      }
+    }
+
+    Map<DomWalker.Visitor, List<Node>> reservations = Maps.newHashMap();
+    for (Tag tag : tags) {
+      if (tag.element == null) {
+        continue;
+      }
+      for (DomWalker.Visitor visitor : visitors) {
+        DomWalker.Visitor.VisitStatus status = visitor.visit(gadget, tag.element);
+        if (status == DomWalker.Visitor.VisitStatus.RESERVE_NODE ||
+            status == DomWalker.Visitor.VisitStatus.RESERVE_TREE) {
+          List<Node> reserved = reservations.get(visitor);
+          if (reserved == null) {
+            reserved = Lists.newLinkedList();
+            reservations.put(visitor, reserved);
+          }
+          reserved.add(tag.element);
+          break;
+        }
+      }
+    }
+
+    for (DomWalker.Visitor visitor : visitors) {
+      List<Node> reserved = reservations.get(visitor);
+      if (reserved != null) {
+        visitor.revisit(gadget, reserved);
+      }
+    }
+
+    StringBuilder output = null;
+    int copied = 0;
+    for (Tag tag : tags) {
+      if (tag.element == null || !tag.isModified()) {
+        continue;
+      }
+      if (output == null) {
+        output = new StringBuilder(source.length() + 256);
+      }
+      output.append(source, copied, tag.start);
+      try {
+        HtmlSerialization.printStartElement(tag.element, output, tag.selfClosing);
+      } catch (IOException e) {
+        // Doesn't occur; StringBuilder doesn't throw.
+      }
+      copied = tag.end;
+    }
+
+    if (output == null) {
+      return false;
+    }
+    output.append(source, copied, source.length());
+    content.setContent(output.toString());
+    return true;
+  }
+
+  /**
+   * @return A detached element for the tag, or null if its name or one of its attribute
+   *     names isn't valid in a DOM, in which case the tag is left alone.
+   */
+  private static Element toElement(Document scratch, Tag tag) {
+    try {
+      Element element = scratch.createElement(tag.name);
+      for (Map.Entry<String, String> attr : tag.attributes.entrySet()) {
+        element.setAttribute(attr.getKey(), attr.getValue());
+      }
+      return element;
+    } catch (DOMException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Finds the start tags in HTML content, following the HTML tokenization rules closely
+   * enough for attribute rewriting. Content after an unterminated tag is not scanned.
+   */
+  static List<Tag> scan(String source) {
+    List<Tag> tags = Lists.newArrayList();
+    int length = source.length();
+    int pos = 0;
+    while (pos < length) {
+      int open = source.indexOf('<', pos);
+      if (open < 0 || open + 1 >= length) {
+        break;
+      }
+      char next = source.charAt(open + 1);
+      if (source.startsWith("<!--", open)) {
+        int close = source.indexOf("-->", open + 4);
+        pos = close < 0 ? length : close + 3;
+        continue;
+      }
+      if (next == '!' || next == '?' || next == '/') {
+        // Doctypes, processing instructions and end tags.
+        int close = source.indexOf('>', open);
+        pos = close < 0 ? length : close + 1;
+        continue;
+      }
+      if (!Character.isLetter(next)) {
+        pos = open + 1;
+        continue;
+      }
+
+      Tag tag = scanStartTag(source, open);
+      if (tag == null) {
+        break;
+      }
+      tags.add(tag);
+      pos = tag.end;
+      if (!tag.selfClosing && RAW_TEXT_ELEMENTS.contains(tag.name)) {
+        pos = findEndTag(source, tag.name, pos);
+      }
+    }
+    return tags;
+  }
+
+  private static Tag scanStartTag(String source, int open) {
+    int length = source.length();
+    int pos = open + 1;
+    while (pos < length && !isTagNameEnd(source.charAt(pos))) {
+      pos++;
+    }
+    String name = source.substring(open + 1, pos).toLowerCase(Locale.ENGLISH);
+
+    Map<String, String> attributes = Maps.newLinkedHashMap();
+    while (pos < length) {
+      char c = source.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        pos++;
+      } else if (c == '>') {
+        return new Tag(open, pos + 1, name, false, attributes);
+      } else if (c == '/') {
+        if (pos + 1 < length && source.charAt(pos + 1) == '>') {
+          return new Tag(open, pos + 2, name, true, attributes);
+        }
+        pos++;
+      } else {
+        int nameStart = pos;
+        // An '=' can only start an attribute name, not continue it.
+        pos++;
+        while (pos < length && !isAttributeNameEnd(source.charAt(pos))) {
+          pos++;
+        }
+        String attrName = source.substring(nameStart, pos).toLowerCase(Locale.ENGLISH);
+        pos = skipWhitespace(source, pos);
+
+        String value = "";
+        if (pos < length && source.charAt(pos) == '=') {
+          pos = skipWhitespace(source, pos + 1);
+          if (pos >= length) {
+            return null;
+          }
+          char quote = source.charAt(pos);
+          if (quote == '"' || quote == '\'') {
+            int close = source.indexOf(quote, pos + 1);
+            if (close < 0) {
+              return null;
+            }
+            value = source.substring(pos + 1, close);
+            pos = close + 1;
+          } else {
+            int valueStart = pos;
+            while (pos < length && !Character.isWhitespace(source.charAt(pos)) &&
+                   source.charAt(pos) != '>') {
+              pos++;
+            }
+            value = source.substring(valueStart, pos);
+          }
+          if (value.indexOf('&') >= 0) {
+            value = StringEscapeUtils.unescapeHtml(value);
+          }
+        }
+        if (!attributes.containsKey(attrName)) {
+          attributes.put(attrName, value);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static int findEndTag(String source, String name, int from) {
+    int pos = from;
+    while (true) {
+      int close = source.indexOf("</", pos);
+      if (close < 0) {
+        return source.length();
+      }
+      int after = close + 2 + name.length();
+      if (source.regionMatches(true, close + 2, name, 0, name.length()) &&
+          (after >= source.length() || isTagNameEnd(source.charAt(after)))) {
+        return close;
+      }
+      pos = close + 2;
+    }
+  }
+
+  private static int skipWhitespace(String source, int pos) {
+    while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return Character.isWhitespace(c) || c == '/' || c == '>';
+  }
+
+  private static boolean isAttributeNameEnd(char c) {
+    return Character.isWhitespace(c) || c == '/' || c == '>' || c == '=';
+  }
+}
@@ -83,6 +83,8 @@ public class ConcatProxyServlet extends InjectedServlet {
   private transient Executor executor = Executors.newSingleThreadExecutor();
 
   private Integer longLivedRefreshSec = LONG_LIVED_REFRESH;
+  private boolean streaming = false;
+  private int streamingRefreshSec = DEFAULT_REFRESH;
 
   @Inject(optional = true)
   public void setLongLivedRefresh(
@@ -90,6 +92,24 @@ public class ConcatProxyServlet extends InjectedServlet {
     this.longLivedRefreshSec = longLivedRefreshSec;
   }
 
+  /**
+   * In streaming mode the output is sent as soon as every resource has been fetched, and then
+   * resource by resource as each one is rewritten, instead of once the whole batch is done. The
+   * headers go out with the first output, so the cache lifetime comes from the given refresh
+   * rather than from the resources, and errors can no longer change the status code. Responses
+   * with failed fetches are not cached. Should rewriting a later resource fail, the output ends
+   * with an error comment instead.
+   *
+   * @param streaming Whether to stream concat responses.
+   * @param refreshSec Cache lifetime of streamed responses that don't specify one.
+   */
+  @Inject(optional = true)
+  public void setStreaming(@Named("shindig.concat.streaming") boolean streaming,
+      @Named("shindig.concat.streaming.refresh-sec") int refreshSec) {
+    this.streaming = streaming;
+    this.streamingRefreshSec = refreshSec;
+  }
+
   @Inject
   public void setRequestPipeline(RequestPipeline requestPipeline) {
     checkInitialized();
@@ -145,10 +165,9 @@ public class ConcatProxyServlet extends InjectedServlet {
     response.setHeader("Content-Type", concatType.getMimeType() + "; charset=UTF8");
     response.setHeader("Content-Disposition", "attachment;filename=p.txt");
 
-    if (doFetchConcatResources(response, concatUri, uri)) {
-      response.setStatus(HttpResponse.SC_OK);
-    } else {
-      response.setStatus(HttpResponse.SC_BAD_REQUEST);
+    boolean success = doFetchConcatResources(response, concatUri, uri);
+    if (!response.isCommitted()) {
+      response.setStatus(success ? HttpResponse.SC_OK : HttpResponse.SC_BAD_REQUEST);
     }
   }
 
@@ -195,6 +214,12 @@ public class ConcatProxyServlet extends InjectedServlet {
         }
       }
 
+      boolean failed = false;
+      boolean cacheable = false;
+      // Headers go out with the first output when streaming, so use the configured lifetime.
+      Integer streamingTtl = streaming
+          ? concatUri.translateStatusRefresh(longLivedRefreshSec, streamingRefreshSec) : null;
+
       MultipleResourceHttpFetcher parallelFetcher =
           new MultipleResourceHttpFetcher(requestPipeline, executor);
       List<Pair<Uri, FutureTask<RequestContext>>> futureTasks = parallelFetcher.fetchAll(requests);
@@ -225,20 +250,38 @@ public class ConcatProxyServlet extends InjectedServlet {
             }
             minCacheTtl = Math.min(minCacheTtl, httpResp.getCacheTtl());
             isMinCacheTtlSet = true;
+            failed |= httpResp.getHttpStatusCode() != HttpResponse.SC_OK;
             cos.output(futureTask.one, httpResp);
           } else {
             return false;
           }
         } catch (GadgetException ge) {
+          failed = true;
           if (cos.outputError(futureTask.one, ge)) {
             return false;
           }
         }
+        // Only once every fetch is done is it known whether the response may be cached.
+        if (streaming && allFetched(futureTasks)) {
+          if (!response.isCommitted()) {
+            cacheable = !failed && !anyFetchFailed(futureTasks);
+            response.setStatus(HttpResponse.SC_OK);
+            HttpUtil.setCachingHeaders(response, cacheable ? streamingTtl : 0, false);
+          } else if (failed && cacheable) {
+            // Too late for the headers; tell the client the cached output is incomplete.
+            cos.println(formatHttpError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Incomplete response", uri));
+            cacheable = false;
+          }
+          // Without a content length this commits the response using chunked encoding.
+          cos.flush();
+        }
+      }
+      if (!response.isCommitted()) {
+        minCacheTtl = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
+        HttpUtil.setCachingHeaders(response,
+            concatUri.translateStatusRefresh(longLivedRefreshSec, minCacheTtl.intValue()), false);
       }
-      // TODO: Investigate Chunked Encoding
-      minCacheTtl = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
-      HttpUtil.setCachingHeaders(response,
-          concatUri.translateStatusRefresh(longLivedRefreshSec, minCacheTtl.intValue()), false);
     } catch (GadgetException gex) {
       cos.outputError(uri, gex);
     } finally {
@@ -254,6 +297,36 @@ public class ConcatProxyServlet extends InjectedServlet {
     return true;
   }
 
+  private static boolean allFetched(List<Pair<Uri, FutureTask<RequestContext>>> futureTasks) {
+    for (Pair<Uri, FutureTask<RequestContext>> futureTask : futureTasks) {
+      if (!futureTask.two.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Whether any of the fetches, which must all be done, failed.
+   */
+  private static boolean anyFetchFailed(List<Pair<Uri, FutureTask<RequestContext>>> futureTasks) {
+    for (Pair<Uri, FutureTask<RequestContext>> futureTask : futureTasks) {
+      try {
+        RequestContext requestCxt = futureTask.two.get();
+        if (requestCxt.getGadgetException() != null || requestCxt.getHttpResp() == null ||
+            requestCxt.getHttpResp().getHttpStatusCode() != HttpResponse.SC_OK) {
+          return true;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return true;
+      } catch (ExecutionException e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private static String formatHttpError(int status, String errorMessage, Uri uri) {
     StringBuilder err = new StringBuilder();
     err.append("/* ---- Error ");
@@ -329,6 +402,16 @@ public class ConcatProxyServlet extends InjectedServlet {
       wrapped.write(b);
     }
 
+    /**
+     * Send everything output so far to the client.
+     */
+    @Override
+    public void flush() throws IOException {
+      wrapped.write(CharsetUtil.getUtf8Bytes(stringBuilder.toString()));
+      stringBuilder.setLength(0);
+      wrapped.flush();
+    }
+
     @Override
     public void close() throws IOException {
       wrapped.write(CharsetUtil.getUtf8Bytes(stringBuilder.toString()));
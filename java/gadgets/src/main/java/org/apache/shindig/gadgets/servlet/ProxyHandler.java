@@ -25,6 +25,7 @@ import com.google.inject.name.Named;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.GadgetBlacklist;
 import org.apache.shindig.gadgets.GadgetException;
@@ -32,9 +33,12 @@ import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
+import org.apache.shindig.gadgets.http.StreamingRequestPipeline;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.RewriterRegistry;
+import org.apache.shindig.gadgets.rewrite.RewriterUtils;
 import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
 import org.apache.shindig.gadgets.uri.UriUtils;
@@ -42,17 +46,25 @@ import org.apache.shindig.gadgets.uri.UriUtils.DisallowedHeaders;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Handles open proxy requests.
  */
 @Singleton
 public class ProxyHandler {
+  private static final Logger LOG = Logger.getLogger(ProxyHandler.class.getName());
+
   private final RequestPipeline requestPipeline;
   private final ResponseRewriterRegistry contentRewriterRegistry;
   protected final boolean remapInternalServerError;
   private final GadgetBlacklist gadgetBlacklist;
   private final Integer longLivedRefreshSec;
+  private boolean streaming;
 
   @Inject
   public ProxyHandler(RequestPipeline requestPipeline,
@@ -70,6 +82,14 @@ public class ProxyHandler {
     this.longLivedRefreshSec = longLivedRefreshSec;
   }
 
+  /**
+   * Enables streaming of responses that bypass the cache, where the request pipeline supports it.
+   */
+  @Inject(optional = true)
+  public void setStreaming(@Named("shindig.proxy.streaming") boolean streaming) {
+    this.streaming = streaming;
+  }
+
   /**
    * Generate a remote content request based on the parameters sent from the client.
    */
@@ -83,6 +103,19 @@ public class ProxyHandler {
 
   public HttpResponse fetch(ProxyUriManager.ProxyUri proxyUri)
       throws IOException, GadgetException {
+    return fetch(proxyUri, null);
+  }
+
+  /**
+   * Fetch the resource for a proxy request. When streaming is enabled, responses that bypass the
+   * cache and won't be rewritten are copied to the servlet response as they arrive instead of
+   * being read into memory first.
+   *
+   * @param servletResponse Where streamed responses are written. May be null to never stream.
+   * @return The response to send, or null if it has already been written to servletResponse.
+   */
+  public HttpResponse fetch(ProxyUriManager.ProxyUri proxyUri,
+      HttpServletResponse servletResponse) throws IOException, GadgetException {
     HttpRequest rcr = buildHttpRequest(proxyUri, proxyUri.getResource());
     if (rcr == null) {
       throw new GadgetException(GadgetException.Code.INVALID_PARAMETER,
@@ -93,8 +126,29 @@ public class ProxyHandler {
       throw new GadgetException(GadgetException.Code.BLACKLISTED_GADGET,
           "The requested content is unavailable", HttpResponse.SC_FORBIDDEN);
     }
-    
-    HttpResponse results = requestPipeline.execute(rcr);
+
+    HttpResponse results;
+    if (servletResponse != null && streaming && rcr.getIgnoreCache() &&
+        requestPipeline instanceof StreamingRequestPipeline) {
+      StreamingBodyHandler handler = new StreamingBodyHandler(proxyUri, rcr, servletResponse);
+      try {
+        results = ((StreamingRequestPipeline) requestPipeline).executeStreaming(rcr, handler);
+      } catch (GadgetException e) {
+        if (!handler.started) {
+          throw e;
+        }
+        // The status and headers are already out, all we can do is cut the response short.
+        if (LOG.isLoggable(Level.INFO)) {
+          LOG.log(Level.INFO, "Failed while streaming " + rcr.getUri(), e);
+        }
+        return null;
+      }
+      if (handler.started) {
+        return null;
+      }
+    } else {
+      results = requestPipeline.execute(rcr);
+    }
 
     if (results.isError()) {
       // Error: try the fallback. Particularly useful for proxied images.
@@ -118,17 +172,32 @@ public class ProxyHandler {
       }
     }
 
-    HttpResponseBuilder response = new HttpResponseBuilder(results);
-    response.clearAllHeaders();
-
+    HttpResponseBuilder response;
     try {
-      ServletUtil.setCachingHeaders(response,
-          proxyUri.translateStatusRefresh(longLivedRefreshSec, (int) (results.getCacheTtl() / 1000)),
-          false);
+      response = buildResponseHead(proxyUri, rcr, results);
     } catch (GadgetException gex) {
       return ServletUtil.errorResponse(gex);
     }
 
+    // TODO: replace this with streaming APIs when ready
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    IOUtils.copy(results.getResponse(), baos);
+    response.setResponse(baos.toByteArray());
+    return response.create();
+  }
+
+  /**
+   * Build the status and headers sent to the client for the given results, with no body.
+   */
+  private HttpResponseBuilder buildResponseHead(ProxyUriManager.ProxyUri proxyUri,
+      HttpRequest rcr, HttpResponse results) throws GadgetException {
+    HttpResponseBuilder response = new HttpResponseBuilder(results);
+    response.clearAllHeaders();
+
+    ServletUtil.setCachingHeaders(response,
+        proxyUri.translateStatusRefresh(longLivedRefreshSec, (int) (results.getCacheTtl() / 1000)),
+        false);
+
     UriUtils.copyResponseHeadersAndStatusCode(results, response, remapInternalServerError, true,
         DisallowedHeaders.CACHING_DIRECTIVES,  // Proxy sets its own caching headers.
         DisallowedHeaders.CLIENT_STATE_DIRECTIVES,  // Overridden or irrelevant to proxy.
@@ -140,12 +209,23 @@ public class ProxyHandler {
     setResponseContentHeaders(response, results);
 
     UriUtils.maybeRewriteContentType(rcr, response);
+    return response;
+  }
 
-    // TODO: replace this with streaming APIs when ready
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    IOUtils.copy(results.getResponse(), baos);
-    response.setResponse(baos.toByteArray());
-    return response.create();
+  /**
+   * Returns true if the response can be streamed to the client as is, meaning no rewriter on the
+   * proxy path would change it. Only called for requests that bypass the cache.
+   *
+   * @param request The request being proxied.
+   * @param head The status and headers of the response.
+   */
+  protected boolean isStreamable(HttpRequest request, HttpResponse head) {
+    if (head.getHttpStatusCode() != HttpResponse.SC_OK || request.getRewriteMimeType() != null ||
+        request.isSanitizationRequested() || request.isCajaRequested()) {
+      return false;
+    }
+    return !RewriterUtils.isHtml(request, head) && !RewriterUtils.isCss(request, head) &&
+        !RewriterUtils.isJavascript(request, head);
   }
 
   protected void setResponseContentHeaders(HttpResponseBuilder response, HttpResponse results) {
@@ -188,4 +268,42 @@ public class ProxyHandler {
     return !(Strings.isNullOrEmpty(results.getResponseAsString()) &&
              results.getHeaders() == null);
   }
+
+  /**
+   * Writes the client response headers and hands out the servlet output stream for responses
+   * that can be streamed.
+   */
+  private class StreamingBodyHandler implements StreamingHttpFetcher.BodyHandler {
+    private final ProxyUriManager.ProxyUri proxyUri;
+    private final HttpRequest request;
+    private final HttpServletResponse servletResponse;
+    private boolean started = false;
+
+    private StreamingBodyHandler(ProxyUriManager.ProxyUri proxyUri, HttpRequest request,
+        HttpServletResponse servletResponse) {
+      this.proxyUri = proxyUri;
+      this.request = request;
+      this.servletResponse = servletResponse;
+    }
+
+    public OutputStream getBodyStream(HttpResponse head, long contentLength) throws IOException {
+      if (!isStreamable(request, head)) {
+        return null;
+      }
+      HttpResponse response;
+      try {
+        response = buildResponseHead(proxyUri, request, head).create();
+      } catch (GadgetException e) {
+        // Let the buffered path produce the error.
+        return null;
+      }
+      started = true;
+      ServletUtil.copyHeadersAndStatusToServletResponse(response, servletResponse);
+      HttpUtil.setCachingHeaders(servletResponse, (int) (response.getCacheTtl() / 1000L));
+      if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+        servletResponse.setContentLength((int) contentLength);
+      }
+      return servletResponse.getOutputStream();
+    }
+  }
 }
@@ -98,7 +98,11 @@ public class ProxyServlet extends InjectedServlet {
             HttpResponse.SC_BAD_REQUEST);
       }
       
-      response = proxyHandler.fetch(proxyUri);
+      response = proxyHandler.fetch(proxyUri, servletResponse);
+      if (response == null) {
+        // Already streamed to the client.
+        return;
+      }
     } catch (GadgetException e) {
       response = ServletUtil.errorResponse(new GadgetException(e.getCode(), e.getMessage(),
           HttpServletResponse.SC_BAD_REQUEST));
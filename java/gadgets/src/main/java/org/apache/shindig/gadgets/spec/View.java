@@ -25,6 +25,7 @@ import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.AuthType;
+import org.apache.shindig.gadgets.variables.SubstitutionTemplate;
 import org.apache.shindig.gadgets.variables.Substitutions;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -110,6 +111,7 @@ public class View implements RequestAuthenticationInfo {
       }
     }
     this.content = content.toString();
+    this.contentTemplate = SubstitutionTemplate.compile(this.content);
     this.needsUserPrefSubstitution = this.content.contains("__UP_");
     this.quirks = quirks;
     this.href = href;
@@ -157,7 +159,9 @@ public class View implements RequestAuthenticationInfo {
     signOwner = view.signOwner;
     signViewer = view.signViewer;
 
-    content = substituter.substituteString(view.content);
+    content = view.contentTemplate == null
+        ? substituter.substituteString(view.content)
+        : substituter.substituteString(view.contentTemplate);
     base = view.base;
     href = base.resolve(substituter.substituteUri(view.href));
     
@@ -238,6 +242,9 @@ public class View implements RequestAuthenticationInfo {
    * All substitutions
    */
   private String content;
+  // The content as parsed, compiled once since it is substituted on every render. Null once the
+  // content has been substituted or replaced.
+  private SubstitutionTemplate contentTemplate;
   public String getContent() {
     return content;
   }
@@ -252,6 +259,7 @@ public class View implements RequestAuthenticationInfo {
    */
   public void setHrefContent(String content) {
     this.content = content;
+    this.contentTemplate = null;
     this.href = null;
   }
 
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.variables;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A string with its substitution placeholders located ahead of time, so that substituting it
+ * is a single pass over the placeholders instead of a scan of the whole string. Compile strings
+ * that are parsed once and substituted on many requests, such as view content.
+ *
+ * Only placeholders starting with the prefix of a {@link Substitutions.Type} can ever be
+ * replaced, so those are the only ones recorded.
+ */
+public final class SubstitutionTemplate {
+  private final String input;
+  private final int[] starts;
+  private final int[] ends;
+  private final String[] patterns;
+  private final boolean[] messages;
+
+  private SubstitutionTemplate(String input, List<Integer> starts, List<Integer> ends) {
+    this.input = input;
+    int count = starts.size();
+    this.starts = new int[count];
+    this.ends = new int[count];
+    this.patterns = new String[count];
+    this.messages = new boolean[count];
+    for (int n = 0; n < count; n++) {
+      this.starts[n] = starts.get(n);
+      this.ends[n] = ends.get(n);
+      this.patterns[n] = input.substring(this.starts[n], this.ends[n]);
+      this.messages[n] = patterns[n].startsWith(Substitutions.Type.MESSAGE.getPrefix());
+    }
+  }
+
+  /**
+   * Locate the placeholders in the given string.
+   */
+  public static SubstitutionTemplate compile(String input) {
+    List<Integer> starts = Lists.newArrayList();
+    List<Integer> ends = Lists.newArrayList();
+    for (int i = input.indexOf("__"); i != -1; i = input.indexOf("__", i + 1)) {
+      if (isPlaceholder(input, i)) {
+        int end = input.indexOf("__", i + 2);
+        if (end == -1) {
+          // No later placeholder can be closed either.
+          break;
+        }
+        starts.add(i);
+        ends.add(end);
+      }
+    }
+    return new SubstitutionTemplate(input, starts, ends);
+  }
+
+  private static boolean isPlaceholder(String input, int offset) {
+    for (Substitutions.Type type : Substitutions.Type.values()) {
+      if (input.startsWith(type.getPrefix(), offset)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The string the template was compiled from.
+   */
+  public String getInput() {
+    return input;
+  }
+
+  int size() {
+    return starts.length;
+  }
+
+  /**
+   * @return The offset of the n-th placeholder's leading underscores.
+   */
+  int getStart(int n) {
+    return starts[n];
+  }
+
+  /**
+   * @return The offset of the n-th placeholder's trailing underscores.
+   */
+  int getEnd(int n) {
+    return ends[n];
+  }
+
+  /**
+   * @return The n-th placeholder, without its trailing underscores.
+   */
+  String getPattern(int n) {
+    return patterns[n];
+  }
+
+  boolean isMessage(int n) {
+    return messages[n];
+  }
+}
@@ -66,6 +66,10 @@ public class Substitutions {
     Type(String prefix) {
       this.prefix = "__" + prefix + '_';
     }
+
+    String getPrefix() {
+      return prefix;
+    }
   }
 
   private final Map<String, String> substitutions;
@@ -164,6 +168,43 @@ public class Substitutions {
     return input;
   }
 
+  /**
+   * Performs substitution on a precompiled string. Produces the same result as
+   * {@link #substituteString(String)} on the template's input, without rescanning it.
+   *
+   * @param template The compiled string, with substitution markers.
+   * @return The substituted string.
+   */
+  public String substituteString(SubstitutionTemplate template) {
+    String input = template.getInput();
+    int count = template.size();
+    if (count == 0) {
+      return input;
+    }
+    StringBuilder output = new StringBuilder(input.length() * 120 / 100);
+    int lastPosition = 0;
+    for (int n = 0; n < count; n++) {
+      int start = template.getStart(n);
+      if (start < lastPosition) {
+        // Inside a placeholder that has already been replaced.
+        continue;
+      }
+      String replacement = substitutions.get(template.getPattern(n));
+      if (replacement != null) {
+        output.append(input, lastPosition, start);
+        if (template.isMessage(n)) {
+          // Messages can be recursive
+          performSubstitutions(replacement, output, true);
+        } else {
+          output.append(replacement);
+        }
+        lastPosition = template.getEnd(n) + 2;
+      }
+    }
+    output.append(input, lastPosition, input.length());
+    return output.toString();
+  }
+
   /**
    * Substitutes a uri
    * @param uri
@@ -19,38 +19,152 @@
 package org.apache.shindig.gadgets.variables;
 
 import java.util.List;
+import java.util.Locale;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.SoftExpiringCache;
+import org.apache.shindig.common.util.TimeSource;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.UserPrefs;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 
 /**
  * Performs variable substitution on a gadget spec.
+ *
+ * Substituted specs are cached by the spec's url and checksum and the parts of the context the
+ * default substituters read: the message bundle (locale, container and view) and the module id.
+ * Requests that set any of the spec's user prefs are substituted without the cache, since their
+ * values differ from user to user. Substituters that depend on anything else must be used
+ * without a cache provider.
+ *
+ * Entries are only used for the bundle refresh interval, so that updated message bundles show up
+ * as soon as the bundle factory has fetched them.
  */
 public class VariableSubstituter {
+  public static final String CACHE_NAME = "substitutedSpecs";
+  static final long DEFAULT_REFRESH_INTERVAL = 5L * 60L * 1000L;
+
   private final List<Substituter> substituters;
+  private SoftExpiringCache<SubstitutionKey, GadgetSpec> cache;
+  private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
 
   @Inject
   public VariableSubstituter(@Named("shindig.substituters.gadget") List<Substituter> substituters) {
     this.substituters = ImmutableList.copyOf(substituters);
   }
 
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    Cache<SubstitutionKey, GadgetSpec> substituted = cacheProvider.createCache(CACHE_NAME);
+    cache = new SoftExpiringCache<SubstitutionKey, GadgetSpec>(substituted);
+  }
+
+  @Inject(optional = true)
+  public void setRefreshInterval(@Named("shindig.cache.xml.refreshInterval") long refreshInterval) {
+    this.refreshInterval = refreshInterval;
+  }
+
+  /**
+   * Set a new time source. For use in testing.
+   */
+  void setTimeSource(TimeSource timeSource) {
+    if (cache != null) {
+      cache.setTimeSource(timeSource);
+    }
+  }
+
   /**
    * Substitutes all hangman variables into the gadget spec.
    *
-   * @return A new GadgetSpec, with all fields substituted as needed.
+   * @return A new GadgetSpec, with all fields substituted as needed. Specs returned from the cache
+   *     are shared between requests and must not be modified.
    */
-  public GadgetSpec substitute(GadgetContext context, GadgetSpec spec) throws GadgetException {   
+  public GadgetSpec substitute(GadgetContext context, GadgetSpec spec) throws GadgetException {
+    SubstitutionKey key = null;
+    if (cache != null && !context.getIgnoreCache() && !hasUserPrefs(context, spec)) {
+      key = new SubstitutionKey(spec, context);
+      SoftExpiringCache.CachedObject<GadgetSpec> cached = cache.getElement(key);
+      if (cached != null && !cached.isExpired) {
+        return cached.obj;
+      }
+    }
+
     Substitutions substitutions = new Substitutions();
-    
     for (Substituter substituter : substituters) {
-        substituter.addSubstitutions(substitutions, context, spec);
+      substituter.addSubstitutions(substitutions, context, spec);
+    }
+    GadgetSpec substituted = spec.substitute(substitutions);
+
+    if (key != null) {
+      cache.addElement(key, substituted, refreshInterval);
+    }
+    return substituted;
+  }
+
+  /**
+   * @return Whether the request sets any of the spec's user prefs. Default values are part of the
+   *     spec, so they don't count.
+   */
+  private static boolean hasUserPrefs(GadgetContext context, GadgetSpec spec) {
+    UserPrefs prefs = context.getUserPrefs();
+    if (prefs == null) {
+      return false;
+    }
+    for (String name : spec.getUserPrefs().keySet()) {
+      if (prefs.getPref(name) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Identifies a spec version and the context it was substituted for, short of user prefs.
+   */
+  private static class SubstitutionKey {
+    private final String url;
+    private final String checksum;
+    private final Locale locale;
+    private final String container;
+    private final String view;
+    private final int moduleId;
+    private final int hashCode;
+
+    private SubstitutionKey(GadgetSpec spec, GadgetContext context) {
+      this.url = String.valueOf(spec.getUrl());
+      this.checksum = spec.getChecksum();
+      this.locale = context.getLocale();
+      this.container = context.getContainer();
+      this.view = context.getView();
+      this.moduleId = context.getModuleId();
+      this.hashCode = Objects.hashCode(url, checksum, locale, container, view, moduleId);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof SubstitutionKey)) {
+        return false;
+      }
+      SubstitutionKey other = (SubstitutionKey) obj;
+      return hashCode == other.hashCode && url.equals(other.url) &&
+          Objects.equal(checksum, other.checksum) && Objects.equal(locale, other.locale) &&
+          Objects.equal(container, other.container) && Objects.equal(view, other.view) &&
+          moduleId == other.moduleId;
     }
-    
-    return spec.substitute(substitutions);
   }
 }
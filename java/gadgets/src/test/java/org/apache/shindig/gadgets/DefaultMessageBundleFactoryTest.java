@@ -39,10 +39,18 @@ import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.MessageBundle;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.easymock.EasyMock;
 import org.junit.Test;
 
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -368,6 +376,63 @@ public class DefaultMessageBundleFactoryTest {
     assertEquals(MAX_AGE / 1000, capturingFetcher.request.getCacheTtl());
   }
 
+  @Test
+  public void uncachedBundlesFetchedConcurrently() throws Exception {
+    String spec
+        = "<Module>" +
+          "<ModulePrefs title='foo'>" +
+          " <Locale messages='http://example.org/all.xml'/>" +
+          " <Locale country='" + LOCALE.getCountry() + "' messages='http://example.org/country.xml'/>" +
+          " <Locale lang='" + LOCALE.getLanguage() + "' messages='http://example.org/lang.xml'/>" +
+          " <Locale lang='" + LOCALE.getLanguage() + "' country='" + LOCALE.getCountry() + "' " +
+          "  messages='" + BUNDLE_URI + "'/>" +
+          "</ModulePrefs>" +
+          "<Content type='html'/>" +
+          "</Module>";
+    GadgetSpec distinctSpec = new GadgetSpec(SPEC_URI, spec);
+
+    // Each fetch waits until all four have started, which only happens if they run concurrently.
+    final CountDownLatch started = new CountDownLatch(4);
+    final Map<String, String> bundles = ImmutableMap.of(
+        "/messagex.xml", BASIC_BUNDLE,
+        "/lang.xml", LANG_BUNDLE,
+        "/country.xml", COUNTRY_BUNDLE,
+        "/all.xml", ALL_ALL_BUNDLE);
+    final AtomicInteger fetches = new AtomicInteger();
+    RequestPipeline blockingPipeline = new RequestPipeline() {
+      public HttpResponse execute(HttpRequest request) throws GadgetException {
+        fetches.incrementAndGet();
+        started.countDown();
+        try {
+          started.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+        }
+        return new HttpResponse(bundles.get(request.getUri().getPath()));
+      }
+    };
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      MessageBundleFactory factory = new DefaultMessageBundleFactory(
+          executor, blockingPipeline, new LruCacheProvider(10), MAX_AGE);
+
+      MessageBundle bundle =
+          factory.getBundle(distinctSpec, LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+
+      assertEquals(0, started.getCount());
+      assertEquals(4, fetches.get());
+      assertEquals("true", bundle.getMessages().get("lang"));
+      assertEquals("true", bundle.getMessages().get("country"));
+      assertEquals("true", bundle.getMessages().get("all"));
+      assertEquals(MSG_0_VALUE, bundle.getMessages().get(MSG_0_NAME));
+
+      factory.getBundle(distinctSpec, LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+      assertEquals(4, fetches.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   private static class CapturingFetcher implements RequestPipeline {
     HttpRequest request;
 
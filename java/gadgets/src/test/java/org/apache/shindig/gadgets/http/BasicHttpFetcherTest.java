@@ -17,12 +17,17 @@
  */
 package org.apache.shindig.gadgets.http;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.easymock.EasyMock;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
@@ -32,6 +37,7 @@ import org.junit.Test;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 
 public class BasicHttpFetcherTest {
   private static final int ECHO_PORT = 9003;
@@ -193,4 +199,43 @@ public class BasicHttpFetcherTest {
     assertEquals(200, response.getHttpStatusCode());
     assertEquals("", response.getResponseAsString());
   }
+
+  @Test
+  public void testConnectionPoolStats() throws Exception {
+    fetcher.setMaxConnectionsPerRoute(64);
+    fetcher.setMaxConnectionsPerHost(" WWW.google.com=4, slow.example.com = 8 ");
+    Uri uri = new UriBuilder(Uri.parse("http://www.google.com/search"))
+        .addQueryParameter("body", "pooled")
+        .toUri();
+    fetcher.fetch(new HttpRequest(uri));
+    fetcher.fetch(new HttpRequest(uri));
+
+    ConnectionPoolStats stats = null;
+    for (Map.Entry<HttpRoute, ConnectionPoolStats> entry :
+        fetcher.getConnectionPoolStats().entrySet()) {
+      if ("www.google.com".equals(entry.getKey().getTargetHost().getHostName())) {
+        stats = entry.getValue();
+      }
+    }
+    assertNotNull(stats);
+    assertEquals(4, stats.getMax());
+    assertEquals(2, stats.getLeaseCount());
+    assertEquals(0, stats.getLeased());
+    assertEquals(0, stats.getPending());
+    assertEquals(0, stats.getTimeoutCount());
+  }
+
+  @Test
+  public void testHostConnPerRoute() throws Exception {
+    BasicHttpFetcher.HostConnPerRoute connPerRoute = new BasicHttpFetcher.HostConnPerRoute(256);
+    connPerRoute.setHostMax(ImmutableMap.of("slow.example.com", 4));
+    assertEquals(4, connPerRoute.getMaxForRoute(
+        new HttpRoute(new HttpHost("SLOW.example.com", 443, "https"))));
+    assertEquals(256, connPerRoute.getMaxForRoute(new HttpRoute(new HttpHost("example.com"))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadMaxConnectionsPerHost() throws Exception {
+    fetcher.setMaxConnectionsPerHost("slow.example.com");
+  }
 }
@@ -18,8 +18,13 @@
 package org.apache.shindig.gadgets.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Provider;
 
@@ -32,7 +37,12 @@ import org.apache.shindig.gadgets.rewrite.DefaultResponseRewriterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class DefaultRequestPipelineTest {
   private static final Uri DEFAULT_URI = Uri.parse("http://example.org/gadget.xml");
@@ -311,6 +321,368 @@ public class DefaultRequestPipelineTest {
         response.getHeader("Date"));
   }
 
+  @Test
+  public void staleHitServedWhileRevalidating() throws Exception {
+    DeferredRevalidator revalidator = new DeferredRevalidator();
+    DefaultRequestPipeline revalidatingPipeline = newRevalidatingPipeline(revalidator);
+    HttpResponse cached = expiredResponse();
+    cache.data.put(DEFAULT_URI, cached);
+    fetcher.response = new HttpResponse("fresh");
+
+    HttpResponse response = revalidatingPipeline.execute(new HttpRequest(DEFAULT_URI));
+
+    assertSame(cached, response);
+    assertEquals(0, fetcher.fetchCount);
+    assertNotNull(revalidator.refresh);
+
+    revalidator.refresh.run();
+
+    assertEquals(1, fetcher.fetchCount);
+    assertEquals("\"v1\"", fetcher.request.getHeader("If-None-Match"));
+    assertEquals("fresh", cache.data.get(DEFAULT_URI).getResponseAsString());
+  }
+
+  @Test
+  public void notModifiedMergedIntoCachedEntry() throws Exception {
+    DeferredRevalidator revalidator = new DeferredRevalidator();
+    DefaultRequestPipeline revalidatingPipeline = newRevalidatingPipeline(revalidator);
+    cache.data.put(DEFAULT_URI, expiredResponse());
+    fetcher.response = new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_NOT_MODIFIED)
+        .addHeader("Cache-Control", "public,max-age=600")
+        .addHeader("ETag", "\"v2\"")
+        .create();
+
+    revalidatingPipeline.execute(new HttpRequest(DEFAULT_URI));
+    revalidator.refresh.run();
+
+    HttpResponse refreshed = cache.data.get(DEFAULT_URI);
+    assertEquals(HttpResponse.SC_OK, refreshed.getHttpStatusCode());
+    assertEquals("stale", refreshed.getResponseAsString());
+    assertEquals("\"v2\"", refreshed.getHeader("ETag"));
+    assertFalse(refreshed.isStale());
+    assertEquals(1, cache.writeCount);
+  }
+
+  @Test
+  public void failedRevalidationKeepsStaleEntry() throws Exception {
+    DeferredRevalidator revalidator = new DeferredRevalidator();
+    DefaultRequestPipeline revalidatingPipeline = newRevalidatingPipeline(revalidator);
+    HttpResponse cached = expiredResponse();
+    cache.data.put(DEFAULT_URI, cached);
+    fetcher.response = HttpResponse.error();
+
+    revalidatingPipeline.execute(new HttpRequest(DEFAULT_URI));
+    revalidator.refresh.run();
+
+    assertEquals(1, fetcher.fetchCount);
+    assertSame(cached, cache.data.get(DEFAULT_URI));
+    assertEquals(0, cache.writeCount);
+    assertSame(cached, revalidatingPipeline.execute(new HttpRequest(DEFAULT_URI)));
+  }
+
+  private DefaultRequestPipeline newRevalidatingPipeline(HttpResponseRevalidator revalidator) {
+    DefaultRequestPipeline revalidatingPipeline = new DefaultRequestPipeline(fetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    revalidator.setStaleWhileRevalidateMs(60000L);
+    revalidatingPipeline.setRevalidator(revalidator);
+    return revalidatingPipeline;
+  }
+
+  /** A response with an ETag that expired five seconds ago. */
+  private static HttpResponse expiredResponse() {
+    long now = HttpResponseTest.timeSource.currentTimeMillis();
+    return new HttpResponseBuilder()
+        .setResponseString("stale")
+        .setCacheTtl(1)
+        .addHeader("Date", DateUtil.formatRfc1123Date(now - 6000L))
+        .addHeader("ETag", "\"v1\"")
+        .create();
+  }
+
+  /** Holds on to the refresh so that tests decide when the background work runs. */
+  private static class DeferredRevalidator extends HttpResponseRevalidator {
+    private Runnable refresh;
+
+    private DeferredRevalidator() {
+      super(null);
+    }
+
+    @Override
+    public boolean submit(String key, Runnable refresh) {
+      this.refresh = refresh;
+      return true;
+    }
+  }
+
+  private DefaultRequestPipeline newCircuitBreakingPipeline(HostCircuitBreaker circuitBreaker) {
+    DefaultRequestPipeline breakingPipeline = new DefaultRequestPipeline(fetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    circuitBreaker.setMinRequests(1);
+    circuitBreaker.setFailurePercent(50);
+    breakingPipeline.setCircuitBreaker(circuitBreaker);
+    return breakingPipeline;
+  }
+
+  @Test
+  public void circuitOpenServesStaleWithoutFetching() throws Exception {
+    HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    DefaultRequestPipeline breakingPipeline = newCircuitBreakingPipeline(circuitBreaker);
+    HttpRequest request = new HttpRequest(DEFAULT_URI)
+        .setAuthType(AuthType.NONE);
+    HttpResponse cached = new HttpResponseBuilder().setCacheTtl(-1).create();
+    cache.data.put(DEFAULT_URI, cached);
+    fetcher.response = HttpResponse.timeout();
+
+    assertEquals(cached, breakingPipeline.execute(request));
+    assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState("example.org"));
+
+    assertEquals(cached, breakingPipeline.execute(new HttpRequest(DEFAULT_URI)));
+    assertEquals(1, fetcher.fetchCount);
+    assertEquals(1, circuitBreaker.getRejectedCount());
+  }
+
+  @Test
+  public void circuitOpenWithoutCacheIsUnavailable() throws Exception {
+    HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    DefaultRequestPipeline breakingPipeline = newCircuitBreakingPipeline(circuitBreaker);
+    fetcher.response = HttpResponse.timeout();
+
+    breakingPipeline.execute(new HttpRequest(DEFAULT_URI).setIgnoreCache(true));
+    HttpResponse response =
+        breakingPipeline.execute(new HttpRequest(DEFAULT_URI).setIgnoreCache(true));
+
+    assertEquals(HttpResponse.SC_SERVICE_UNAVAILABLE, response.getHttpStatusCode());
+    assertEquals(1, fetcher.fetchCount);
+    assertEquals(0, cache.writeCount);
+  }
+
+  @Test
+  public void serverErrorsDoNotOpenCircuit() throws Exception {
+    HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    DefaultRequestPipeline breakingPipeline = newCircuitBreakingPipeline(circuitBreaker);
+    fetcher.response = HttpResponse.error();
+
+    breakingPipeline.execute(new HttpRequest(DEFAULT_URI).setIgnoreCache(true));
+    breakingPipeline.execute(new HttpRequest(DEFAULT_URI).setIgnoreCache(true));
+
+    assertEquals(HostCircuitBreaker.State.CLOSED, circuitBreaker.getState("example.org"));
+    assertEquals(2, fetcher.fetchCount);
+  }
+
+  @Test
+  public void adaptiveTimeoutLeavesRequestAlone() throws Exception {
+    HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    DefaultRequestPipeline breakingPipeline = newCircuitBreakingPipeline(circuitBreaker);
+    circuitBreaker.setTimeoutMultiplier(2.0);
+    circuitBreaker.setMinTimeoutMs(100);
+    fetcher.response = new HttpResponse("response");
+    for (int i = 0; i < HostCircuitBreaker.MIN_SAMPLES; i++) {
+      HttpRequest warmup = new HttpRequest(DEFAULT_URI);
+      circuitBreaker.allowRequest(warmup);
+      circuitBreaker.record(warmup, true, 200);
+    }
+
+    HttpRequest request = new HttpRequest(DEFAULT_URI).setIgnoreCache(true);
+    breakingPipeline.execute(request);
+
+    assertEquals(400, fetcher.request.getTimeoutMs());
+    assertEquals(-1, request.getTimeoutMs());
+  }
+
+  private static class FakeStreamingHttpFetcher extends FakeHttpFetcher
+      implements StreamingHttpFetcher {
+    protected int streamCount = 0;
+
+    public HttpResponse fetch(HttpRequest request, BodyHandler handler) throws GadgetException {
+      streamCount++;
+      return fetch(request);
+    }
+  }
+
+  private static final StreamingHttpFetcher.BodyHandler BUFFERING_HANDLER =
+      new StreamingHttpFetcher.BodyHandler() {
+        public OutputStream getBodyStream(HttpResponse head, long contentLength) {
+          return null;
+        }
+      };
+
+  @Test
+  public void executeStreamingUncached() throws Exception {
+    FakeStreamingHttpFetcher streamingFetcher = new FakeStreamingHttpFetcher();
+    streamingFetcher.response = new HttpResponse("response");
+    DefaultRequestPipeline streamingPipeline = new DefaultRequestPipeline(streamingFetcher, cache,
+        oauth, new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(),
+        helper);
+
+    HttpResponse response = streamingPipeline.executeStreaming(
+        new HttpRequest(DEFAULT_URI).setIgnoreCache(true), BUFFERING_HANDLER);
+
+    assertEquals("response", response.getResponseAsString());
+    assertEquals(1, streamingFetcher.streamCount);
+    assertEquals(0, cache.writeCount);
+  }
+
+  @Test
+  public void executeStreamingCachedNotStreamed() throws Exception {
+    FakeStreamingHttpFetcher streamingFetcher = new FakeStreamingHttpFetcher();
+    streamingFetcher.response = new HttpResponse("response");
+    DefaultRequestPipeline streamingPipeline = new DefaultRequestPipeline(streamingFetcher, cache,
+        oauth, new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(),
+        helper);
+
+    streamingPipeline.executeStreaming(new HttpRequest(DEFAULT_URI), BUFFERING_HANDLER);
+
+    assertEquals(0, streamingFetcher.streamCount);
+    assertEquals(1, streamingFetcher.fetchCount);
+    assertEquals(1, cache.writeCount);
+  }
+
+  @Test(expected = GadgetException.class)
+  public void executeStreamingChecksScheme() throws Exception {
+    FakeStreamingHttpFetcher streamingFetcher = new FakeStreamingHttpFetcher();
+    DefaultRequestPipeline streamingPipeline = new DefaultRequestPipeline(streamingFetcher, cache,
+        oauth, new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(),
+        helper);
+
+    streamingPipeline.executeStreaming(
+        new HttpRequest(Uri.parse("ftp://example.org/file")).setIgnoreCache(true), BUFFERING_HANDLER);
+  }
+
+  @Test
+  public void executeStreamingThroughCircuitBreaker() throws Exception {
+    FakeStreamingHttpFetcher streamingFetcher = new FakeStreamingHttpFetcher();
+    streamingFetcher.response = HttpResponse.timeout();
+    DefaultRequestPipeline streamingPipeline = new DefaultRequestPipeline(streamingFetcher, cache,
+        oauth, new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(),
+        helper);
+    HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    circuitBreaker.setMinRequests(1);
+    circuitBreaker.setFailurePercent(50);
+    streamingPipeline.setCircuitBreaker(circuitBreaker);
+
+    streamingPipeline.executeStreaming(new HttpRequest(DEFAULT_URI).setIgnoreCache(true), BUFFERING_HANDLER);
+    HttpResponse response = streamingPipeline.executeStreaming(
+        new HttpRequest(DEFAULT_URI).setIgnoreCache(true), BUFFERING_HANDLER);
+
+    assertEquals(HttpResponse.SC_SERVICE_UNAVAILABLE, response.getHttpStatusCode());
+    assertEquals(1, streamingFetcher.streamCount);
+  }
+
+  private DefaultRequestPipeline newAsyncPipeline() {
+    DefaultRequestPipeline asyncPipeline = new DefaultRequestPipeline(fetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    asyncPipeline.setAsyncHttpFetcher(new ExecutorAsyncHttpFetcher(fetcher, null));
+    return asyncPipeline;
+  }
+
+  @Test
+  public void executeAsyncCacheHitCompletesImmediately() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI)
+        .setAuthType(AuthType.NONE);
+    HttpResponse cached = new HttpResponse("cached");
+    cache.data.put(DEFAULT_URI, cached);
+
+    Future<HttpResponse> response = newAsyncPipeline().executeAsync(request);
+
+    assertTrue(response.isDone());
+    assertEquals(cached, response.get());
+    assertEquals(0, fetcher.fetchCount);
+  }
+
+  @Test
+  public void executeAsyncMissFetchedAndCached() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI)
+        .setAuthType(AuthType.NONE);
+    fetcher.response = new HttpResponse("response");
+
+    HttpResponse response = newAsyncPipeline().executeAsync(request).get();
+
+    assertEquals(fetcher.response, response);
+    assertEquals(response, cache.data.get(DEFAULT_URI));
+    assertEquals(1, cache.writeCount);
+    assertEquals(1, fetcher.fetchCount);
+  }
+
+  @Test
+  public void executeAsyncFailure() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI)
+        .setAuthType(AuthType.NONE);
+
+    try {
+      newAsyncPipeline().executeAsync(request).get();
+      fail("Expected the fetch to fail");
+    } catch (ExecutionException e) {
+      assertEquals(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+          ((GadgetException) e.getCause()).getCode());
+    }
+  }
+
+  @Test
+  public void executeAsyncRejectedWhenQueueFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    HttpFetcher blockingFetcher = new HttpFetcher() {
+      public HttpResponse fetch(HttpRequest request) throws GadgetException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+        }
+        return new HttpResponse("response");
+      }
+    };
+    ExecutorAsyncHttpFetcher asyncFetcher = new ExecutorAsyncHttpFetcher(blockingFetcher, null);
+    asyncFetcher.setPoolSize(1, 1);
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+
+    // One running and one queued.
+    Future<HttpResponse> running = asyncFetcher.fetch(request, null);
+    Future<HttpResponse> queued = asyncFetcher.fetch(request, null);
+    Future<HttpResponse> rejected = asyncFetcher.fetch(request, null);
+
+    assertTrue(rejected.isDone());
+    try {
+      rejected.get();
+      fail("Expected the fetch to be rejected");
+    } catch (ExecutionException e) {
+      assertEquals(HttpResponse.SC_SERVICE_UNAVAILABLE,
+          ((GadgetException) e.getCause()).getHttpStatusCode());
+    }
+
+    release.countDown();
+    assertEquals("response", running.get().getResponseAsString());
+    assertEquals("response", queued.get().getResponseAsString());
+    asyncFetcher.cleanup();
+  }
+
+  @Test
+  public void executeAsyncUnboundedByDefault() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    HttpFetcher blockingFetcher = new HttpFetcher() {
+      public HttpResponse fetch(HttpRequest request) throws GadgetException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+        }
+        return new HttpResponse("response");
+      }
+    };
+    ExecutorAsyncHttpFetcher asyncFetcher = new ExecutorAsyncHttpFetcher(blockingFetcher, null);
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+
+    List<Future<HttpResponse>> responses = Lists.newArrayList();
+    for (int i = 0; i < 50; ++i) {
+      responses.add(asyncFetcher.fetch(request, null));
+    }
+
+    release.countDown();
+    for (Future<HttpResponse> response : responses) {
+      assertEquals("response", response.get().getResponseAsString());
+    }
+    asyncFetcher.cleanup();
+  }
+
   public static class FakeHttpFetcher implements HttpFetcher {
     protected HttpRequest request;
     protected HttpResponse response;
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class DiskResponseStoreTest {
+  private static final int SEGMENT_SIZE = 16 * 1024;
+  private static final long RETENTION = 60L * 1000L;
+
+  private File directory;
+  private DiskResponseStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    HttpResponseTest.setHttpTimeSource();
+    File tmpFile = File.createTempFile("diskcache", ".dat");
+    tmpFile.delete();
+    directory = new File(tmpFile.getParentFile(), tmpFile.getName() + ".dir");
+    store = open(4);
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private DiskResponseStore open(int maxSegments) throws Exception {
+    return new DiskResponseStore(directory, SEGMENT_SIZE, maxSegments, RETENTION);
+  }
+
+  private static HttpResponse response(String body) {
+    return new HttpResponseBuilder()
+        .setResponseString(body)
+        .setCacheTtl(3600)
+        .create();
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    HttpResponse original = response("hello");
+    store.addElement("key", original);
+    assertEquals(original, store.getElement("key"));
+    assertEquals(1, store.getSize());
+    assertNull(store.getElement("missing"));
+  }
+
+  @Test
+  public void metadataRoundTrip() throws Exception {
+    HttpResponse original = new HttpResponseBuilder(response("hello"))
+        .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash")
+        .create();
+    store.addElement("key", original);
+    assertEquals("hash",
+        store.getElement("key").getMetadata().get(HttpResponseMetadataHelper.DATA_HASH));
+    store.close();
+
+    store = open(4);
+    assertEquals("hash",
+        store.getElement("key").getMetadata().get(HttpResponseMetadataHelper.DATA_HASH));
+  }
+
+  @Test(expected = IOException.class)
+  public void directoryInUseRejected() throws Exception {
+    open(4);
+  }
+
+  @Test
+  public void survivesReopen() throws Exception {
+    HttpResponse original = response("persistent");
+    store.addElement("key", original);
+    store.addElement("other", response("other"));
+    store.addElement("other", response("replaced"));
+    store.close();
+
+    store = open(4);
+    assertEquals(original, store.getElement("key"));
+    assertEquals("replaced", store.getElement("other").getResponseAsString());
+    assertEquals(2, store.getSize());
+  }
+
+  @Test
+  public void removalSurvivesReopen() throws Exception {
+    store.addElement("key", response("gone"));
+    assertNotNull(store.removeElement("key"));
+    assertNull(store.getElement("key"));
+    store.close();
+
+    store = open(4);
+    assertNull(store.getElement("key"));
+  }
+
+  @Test
+  public void removalSurvivesCompactionAndReopen() throws Exception {
+    char[] chars = new char[SEGMENT_SIZE * 6 / 10];
+    Arrays.fill(chars, 'x');
+    String body = new String(chars);
+    // The first segment stays mostly live, so it outlives the segment holding the markers.
+    store.addElement("gone", response("gone"));
+    store.addElement("keep", response(body));
+    store.addElement("filler", response(body));
+    store.removeElement("gone");
+    store.removeElement("filler");
+    // Starts a new segment, which compacts the one holding nothing but dead records and markers.
+    store.addElement("next", response(body));
+    store.close();
+
+    store = open(4);
+    assertNull(store.getElement("gone"));
+    assertNull(store.getElement("filler"));
+    assertNotNull(store.getElement("keep"));
+    assertNotNull(store.getElement("next"));
+    assertEquals(2, store.getSize());
+  }
+
+  @Test
+  public void expiredBeyondRetentionDropped() throws Exception {
+    HttpResponse expired = new HttpResponseBuilder()
+        .setResponseString("old")
+        .setExpirationTime(HttpResponseTest.timeSource.currentTimeMillis() - 2 * RETENTION)
+        .create();
+    store.addElement("key", expired);
+    assertNull(store.getElement("key"));
+  }
+
+  @Test
+  public void oldestSegmentDroppedWhenFull() throws Exception {
+    char[] chars = new char[SEGMENT_SIZE / 3];
+    Arrays.fill(chars, 'x');
+    String body = new String(chars);
+    // Two records per segment; with two segments the first record has to go eventually.
+    store.close();
+    store = open(2);
+    for (int i = 0; i < 6; ++i) {
+      store.addElement("key" + i, response(body));
+    }
+    assertNull(store.getElement("key0"));
+    assertNotNull(store.getElement("key5"));
+  }
+
+  @Test
+  public void oversizedNotStored() throws Exception {
+    char[] chars = new char[SEGMENT_SIZE];
+    Arrays.fill(chars, 'x');
+    store.addElement("key", response(new String(chars)));
+    assertNull(store.getElement("key"));
+  }
+}
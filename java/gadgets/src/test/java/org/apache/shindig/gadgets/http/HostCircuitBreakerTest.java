@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.uri.Uri;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostCircuitBreakerTest {
+  private static final Uri SLOW_URI = Uri.parse("http://slow.example.org/data");
+  private static final Uri OTHER_URI = Uri.parse("http://other.example.org/data");
+
+  private final HostCircuitBreaker breaker = new HostCircuitBreaker();
+
+  @Before
+  public void setUp() {
+    HttpResponseTest.setHttpTimeSource();
+    breaker.setMinRequests(4);
+    breaker.setFailurePercent(50);
+    breaker.setOpenMs(5000);
+    breaker.setWindowMs(10000);
+  }
+
+  private void fetch(Uri uri, boolean succeeded, long latencyMs) {
+    HttpRequest request = new HttpRequest(uri);
+    assertTrue(breaker.allowRequest(request) != HostCircuitBreaker.REJECTED);
+    breaker.record(request, succeeded, latencyMs);
+  }
+
+  @Test
+  public void opensAfterFailureRate() {
+    fetch(SLOW_URI, true, 10);
+    fetch(SLOW_URI, true, 10);
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("slow.example.org"));
+
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("slow.example.org"));
+    assertEquals(HostCircuitBreaker.REJECTED, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+    assertEquals(1, breaker.getRejectedCount());
+
+    // Other hosts are unaffected.
+    fetch(OTHER_URI, true, 10);
+  }
+
+  @Test
+  public void failuresOutsideWindowDontCount() {
+    fetch(SLOW_URI, false, 10);
+    fetch(SLOW_URI, false, 10);
+    fetch(SLOW_URI, false, 10);
+    HttpResponseTest.timeSource.incrementSeconds(11);
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("slow.example.org"));
+  }
+
+  @Test
+  public void halfOpenProbeCloses() {
+    breaker.setMinRequests(1);
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("slow.example.org"));
+
+    HttpResponseTest.timeSource.incrementSeconds(6);
+    HttpRequest probe = new HttpRequest(SLOW_URI);
+    assertEquals(0, breaker.allowRequest(probe));
+    assertEquals(HostCircuitBreaker.State.HALF_OPEN, breaker.getState("slow.example.org"));
+    // Only one probe at a time.
+    assertEquals(HostCircuitBreaker.REJECTED, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+
+    breaker.record(probe, true, 10);
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("slow.example.org"));
+    assertEquals(0, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+  }
+
+  @Test
+  public void halfOpenProbeFailureReopens() {
+    breaker.setMinRequests(1);
+    fetch(SLOW_URI, false, 10);
+    HttpResponseTest.timeSource.incrementSeconds(6);
+
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState("slow.example.org"));
+    assertEquals(HostCircuitBreaker.REJECTED, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+  }
+
+  @Test
+  public void timeoutAdaptsToLatency() {
+    breaker.setMinTimeoutMs(100);
+    breaker.setMaxTimeoutMs(5000);
+    breaker.setTimeoutMultiplier(2.0);
+    breaker.setTimeoutPercentile(99);
+    for (int i = 0; i < HostCircuitBreaker.MIN_SAMPLES - 1; i++) {
+      fetch(SLOW_URI, true, 200);
+    }
+    assertEquals(-1, breaker.getTimeoutMs("slow.example.org"));
+
+    fetch(SLOW_URI, true, 300);
+    assertEquals(600, breaker.getTimeoutMs("slow.example.org"));
+
+    // The request itself isn't changed.
+    HttpRequest request = new HttpRequest(SLOW_URI);
+    assertEquals(600, breaker.allowRequest(request));
+    assertEquals(-1, request.getTimeoutMs());
+  }
+
+  @Test
+  public void samplesKeepWorkingForBusyHosts() {
+    breaker.setMinTimeoutMs(100);
+    breaker.setMaxTimeoutMs(5000);
+    breaker.setTimeoutMultiplier(2.0);
+    breaker.seedSamples(new HttpRequest(SLOW_URI), Integer.MAX_VALUE, 200);
+
+    for (int i = 0; i < HostCircuitBreaker.SAMPLE_SIZE; i++) {
+      fetch(SLOW_URI, true, 300);
+    }
+    assertEquals(600, breaker.getTimeoutMs("slow.example.org"));
+  }
+
+  @Test
+  public void timeoutDoesNotAdaptByDefault() {
+    for (int i = 0; i < HostCircuitBreaker.MIN_SAMPLES; i++) {
+      fetch(SLOW_URI, true, 200);
+    }
+    assertEquals(-1, breaker.getTimeoutMs("slow.example.org"));
+    assertEquals(0, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+  }
+
+  @Test
+  public void releasedProbeLetsNextProbeThrough() {
+    breaker.setMinRequests(1);
+    fetch(SLOW_URI, false, 10);
+    HttpResponseTest.timeSource.incrementSeconds(6);
+
+    HttpRequest probe = new HttpRequest(SLOW_URI);
+    assertEquals(0, breaker.allowRequest(probe));
+    breaker.release(probe);
+    assertEquals(HostCircuitBreaker.State.HALF_OPEN, breaker.getState("slow.example.org"));
+    assertEquals(0, breaker.allowRequest(new HttpRequest(SLOW_URI)));
+  }
+
+  @Test
+  public void onlyUnavailableHostsAreFailures() {
+    assertTrue(HostCircuitBreaker.isHostFailure(HttpResponse.SC_BAD_GATEWAY));
+    assertTrue(HostCircuitBreaker.isHostFailure(HttpResponse.SC_SERVICE_UNAVAILABLE));
+    assertTrue(HostCircuitBreaker.isHostFailure(HttpResponse.SC_GATEWAY_TIMEOUT));
+    assertFalse(HostCircuitBreaker.isHostFailure(HttpResponse.SC_INTERNAL_SERVER_ERROR));
+    assertFalse(HostCircuitBreaker.isHostFailure(HttpResponse.SC_NOT_IMPLEMENTED));
+    assertFalse(HostCircuitBreaker.isHostFailure(HttpResponse.SC_NOT_FOUND));
+  }
+
+  @Test
+  public void disabledByDefault() {
+    HostCircuitBreaker defaultBreaker = new HostCircuitBreaker();
+    HttpRequest request = new HttpRequest(SLOW_URI);
+    for (int i = 0; i < HostCircuitBreaker.DEFAULT_MIN_REQUESTS; i++) {
+      assertEquals(0, defaultBreaker.allowRequest(request));
+      defaultBreaker.record(request, false, 10);
+    }
+    assertEquals(HostCircuitBreaker.State.CLOSED, defaultBreaker.getState("slow.example.org"));
+  }
+
+  @Test
+  public void disabled() {
+    breaker.setFailurePercent(0);
+    breaker.setMinRequests(1);
+    fetch(SLOW_URI, false, 10);
+    fetch(SLOW_URI, false, 10);
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState("slow.example.org"));
+  }
+}
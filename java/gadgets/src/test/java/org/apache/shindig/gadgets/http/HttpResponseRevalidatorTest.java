@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.util.DateUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HttpResponseRevalidatorTest {
+  private HttpResponseRevalidator revalidator;
+
+  @Before
+  public void setUp() {
+    HttpResponseTest.setHttpTimeSource();
+    revalidator = new HttpResponseRevalidator(null);
+  }
+
+  @After
+  public void tearDown() {
+    revalidator.cleanup();
+  }
+
+  private HttpResponse expiredResponse(long expiredAgoMs) {
+    long now = HttpResponseTest.timeSource.currentTimeMillis();
+    return new HttpResponseBuilder()
+        .setResponseString("stale")
+        .setCacheTtl(1)
+        .addHeader("Date", DateUtil.formatRfc1123Date(now - expiredAgoMs - 1000L))
+        .create();
+  }
+
+  @Test
+  public void disabledByDefault() {
+    assertFalse(revalidator.isWithinGracePeriod(expiredResponse(1000L)));
+  }
+
+  @Test
+  public void withinGracePeriod() {
+    revalidator.setStaleWhileRevalidateMs(60000L);
+    assertTrue(revalidator.isWithinGracePeriod(expiredResponse(5000L)));
+  }
+
+  @Test
+  public void beyondGracePeriod() {
+    revalidator.setStaleWhileRevalidateMs(60000L);
+    assertFalse(revalidator.isWithinGracePeriod(expiredResponse(120000L)));
+  }
+
+  @Test
+  public void freshResponseNotRevalidated() {
+    revalidator.setStaleWhileRevalidateMs(60000L);
+    HttpResponse fresh = new HttpResponseBuilder()
+        .setResponseString("fresh")
+        .setCacheTtl(100)
+        .create();
+    assertFalse(revalidator.isWithinGracePeriod(fresh));
+  }
+
+  @Test
+  public void errorsNotRevalidated() {
+    revalidator.setStaleWhileRevalidateMs(Long.MAX_VALUE);
+    assertFalse(revalidator.isWithinGracePeriod(HttpResponse.error()));
+  }
+
+  @Test
+  public void onlyOneRefreshPerKey() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    Runnable refresh = new Runnable() {
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finished.countDown();
+      }
+    };
+
+    assertTrue(revalidator.submit("key", refresh));
+    assertFalse(revalidator.submit("key", refresh));
+    assertEquals(1, revalidator.getPendingCount());
+
+    release.countDown();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    while (revalidator.getPendingCount() > 0) {
+      Thread.sleep(5);
+    }
+    assertTrue(revalidator.submit("key", refresh));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class OffHeapResponseCacheTest {
+  private static final int SLAB_SIZE = 4096;
+
+  private OffHeapResponseCache cache;
+
+  @Before
+  public void setUp() {
+    HttpResponseTest.setHttpTimeSource();
+    cache = new OffHeapResponseCache(2 * SLAB_SIZE, SLAB_SIZE);
+  }
+
+  private static HttpResponse response(String body) {
+    return new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_OK)
+        .addHeader("Content-Type", "text/plain; charset=UTF-8")
+        .addHeader("X-Multi", "one")
+        .addHeader("X-Multi", "two")
+        .setMetadata("hash", "abc")
+        .setResponseString(body)
+        .create();
+  }
+
+  @Test
+  public void roundTrip() {
+    HttpResponse original = response("hello world");
+    cache.addElement("key", original);
+
+    HttpResponse cached = cache.getElement("key");
+    assertNotNull(cached);
+    assertEquals(original, cached);
+    assertEquals("hello world", cached.getResponseAsString());
+    assertEquals(2, cached.getHeaders("X-Multi").size());
+    assertEquals("abc", cached.getMetadata().get("hash"));
+    assertEquals(1, cache.getSize());
+    assertTrue(cache.getWeight() > 0);
+  }
+
+  @Test
+  public void missingKey() {
+    assertNull(cache.getElement("missing"));
+  }
+
+  @Test
+  public void removeFreesSpace() {
+    cache.addElement("key", response("body"));
+    assertEquals("body", cache.removeElement("key").getResponseAsString());
+    assertNull(cache.getElement("key"));
+    assertEquals(0, cache.getWeight());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void replaceKeepsLatest() {
+    cache.addElement("key", response("first"));
+    cache.addElement("key", response("second"));
+    assertEquals("second", cache.getElement("key").getResponseAsString());
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void oversizedNotCached() {
+    char[] body = new char[SLAB_SIZE + 1];
+    Arrays.fill(body, 'x');
+    cache.addElement("key", response(new String(body)));
+    assertNull(cache.getElement("key"));
+  }
+
+  @Test
+  public void leastRecentlyUsedEvicted() {
+    // Each entry needs a full slab, so only two fit.
+    char[] body = new char[SLAB_SIZE - 512];
+    Arrays.fill(body, 'x');
+    String big = new String(body);
+    cache.addElement("a", response(big));
+    cache.addElement("b", response(big));
+    cache.getElement("a");
+    cache.addElement("c", response(big));
+
+    assertNotNull(cache.getElement("a"));
+    assertNull(cache.getElement("b"));
+    assertNotNull(cache.getElement("c"));
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void slabMovedToStarvedClass() {
+    // Small entries take up both slabs first.
+    for (int i = 0; i < 8; ++i) {
+      cache.addElement("small" + i, response("small"));
+    }
+    for (int i = 4; i < 8; ++i) {
+      cache.getElement("small" + i);
+    }
+    char[] body = new char[SLAB_SIZE - 512];
+    Arrays.fill(body, 'x');
+    cache.addElement("big", response(new String(body)));
+
+    assertNotNull(cache.getElement("big"));
+    // The least recently used slab of small entries made room for it.
+    assertNull(cache.getElement("small0"));
+    assertNotNull(cache.getElement("small7"));
+    assertEquals(5, cache.getSize());
+  }
+}
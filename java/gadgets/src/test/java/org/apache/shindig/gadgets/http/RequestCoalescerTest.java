@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.apache.shindig.gadgets.GadgetException;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestCoalescerTest {
+  private final RequestCoalescer coalescer = new RequestCoalescer();
+
+  @Test
+  public void nullKeyAlwaysFetches() throws Exception {
+    CountingFetch fetch = new CountingFetch(new HttpResponse("ok"));
+    coalescer.execute(null, fetch);
+    coalescer.execute(null, fetch);
+    assertEquals(2, fetch.count.get());
+    assertEquals(0, coalescer.getFlightCount());
+  }
+
+  @Test
+  public void sequentialCallsFetchIndependently() throws Exception {
+    CountingFetch fetch = new CountingFetch(new HttpResponse("ok"));
+    coalescer.execute("key", fetch);
+    coalescer.execute("key", fetch);
+    assertEquals(2, fetch.count.get());
+    assertEquals(2, coalescer.getFlightCount());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void concurrentCallsShareOneFetch() throws Exception {
+    final HttpResponse expected = new HttpResponse("shared");
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingFetch fetch = new CountingFetch(expected) {
+      @Override
+      public HttpResponse fetch() throws GadgetException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+        }
+        return super.fetch();
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<HttpResponse> leader = executor.submit(call("key", fetch));
+      while (coalescer.getInFlightCount() == 0) {
+        Thread.sleep(5);
+      }
+      Future<HttpResponse> waiter1 = executor.submit(call("key", fetch));
+      Future<HttpResponse> waiter2 = executor.submit(call("key", fetch));
+      Thread.sleep(50);
+      release.countDown();
+
+      assertSame(expected, leader.get());
+      assertSame(expected, waiter1.get());
+      assertSame(expected, waiter2.get());
+      assertEquals(1, fetch.count.get());
+      assertEquals(1, coalescer.getFlightCount());
+      assertEquals(2, coalescer.getCoalescedCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void waiterTimesOut() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingFetch fetch = new CountingFetch(new HttpResponse("slow")) {
+      @Override
+      public HttpResponse fetch() throws GadgetException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+        }
+        return super.fetch();
+      }
+    };
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(call("key", fetch));
+      while (coalescer.getInFlightCount() == 0) {
+        Thread.sleep(5);
+      }
+      HttpResponse response = coalescer.execute("key", 10L, fetch);
+      assertEquals(HttpResponse.SC_GATEWAY_TIMEOUT, response.getHttpStatusCode());
+      assertEquals(1, coalescer.getTimeoutCount());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void leaderExceptionIsRethrown() throws Exception {
+    try {
+      coalescer.execute("key", new CountingFetch(null));
+      fail("Should have thrown");
+    } catch (GadgetException e) {
+      assertEquals(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e.getCode());
+    }
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  private Callable<HttpResponse> call(final String key, final RequestCoalescer.Fetch fetch) {
+    return new Callable<HttpResponse>() {
+      public HttpResponse call() throws Exception {
+        return coalescer.execute(key, fetch);
+      }
+    };
+  }
+
+  private static class CountingFetch implements RequestCoalescer.Fetch {
+    private final AtomicInteger count = new AtomicInteger();
+    private final HttpResponse response;
+
+    private CountingFetch(HttpResponse response) {
+      this.response = response;
+    }
+
+    public HttpResponse fetch() throws GadgetException {
+      count.incrementAndGet();
+      if (response == null) {
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT);
+      }
+      return response;
+    }
+  }
+}
@@ -49,16 +49,18 @@ import org.w3c.dom.Element;
 
 import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 public class PipelineExecutorTest {
 
   private IMocksControl control;
   private PipelinedDataPreloader preloader;
-  private PreloaderService preloaderService;
   private GadgetContext context;
   private PipelineExecutor executor;
   
@@ -83,12 +85,18 @@ public class PipelineExecutorTest {
     + "  <os:PeopleRequest key=\"me\" userId=\"${json.user}\"/>"
     + "</Content>";
 
+  // A single request that doesn't depend on anything
+  private static final String SLOW_CONTENT =
+    "<Content xmlns:os=\"http://ns.opensocial.org/2008/markup\">"
+    + "  <os:HttpRequest key=\"slow\" href=\"slow.json\"/>"
+    + "</Content>";
+
   @Before
   public void setUp() throws Exception {
     control = EasyMock.createStrictControl();
     preloader = control.createMock(PipelinedDataPreloader.class);
-    preloaderService = new ConcurrentPreloaderService(Executors.newSingleThreadExecutor(), null);
-    executor = new PipelineExecutor(preloader, preloaderService, Expressions.forTesting());
+    executor = new PipelineExecutor(preloader, Executors.newSingleThreadExecutor(),
+        Expressions.forTesting());
     
     context = new GadgetContext(){};
   }
@@ -196,6 +204,100 @@ public class PipelineExecutorTest {
     assertEquals("canonical", personRequest.getJSONObject("params").getJSONArray("userId").get(0));
   }
 
+  @Test(timeout = 10000)
+  public void executeDoesNotWaitForUnrelatedPreloads() throws Exception {
+    executeWithUnrelatedSlowPreload(true);
+  }
+
+  @Test(timeout = 10000)
+  public void executeDoesNotWaitForUnrelatedPreloadsDispatchedLast() throws Exception {
+    executeWithUnrelatedSlowPreload(false);
+  }
+
+  private void executeWithUnrelatedSlowPreload(boolean slowFirst) throws Exception {
+    PipelinedData slowPipeline = getPipelinedData(SLOW_CONTENT);
+    PipelinedData pipeline = getPipelinedData(TWO_BATCH_CONTENT);
+    executor = new PipelineExecutor(preloader, Executors.newCachedThreadPool(),
+        Expressions.forTesting());
+    context = new ViewParamsContext();
+
+    // The slow request only completes once the second batch of the other pipeline has run.
+    final CountDownLatch secondBatchRun = new CountDownLatch(1);
+    final Callable<PreloadedData> slowResult = createPreloadTask("slow", "{result: 'slow'}");
+    Callable<PreloadedData> slowTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        secondBatchRun.await();
+        return slowResult.call();
+      }
+    };
+    final Callable<PreloadedData> secondResult = createPreloadTask("me",
+        "{result: {'id':'canonical'}}");
+    Callable<PreloadedData> secondTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        secondBatchRun.countDown();
+        return secondResult.call();
+      }
+    };
+
+    expectUnrelatedPreloads(slowFirst, slowTask, secondTask);
+    control.replay();
+
+    PipelineExecutor.Results results = executor.execute(context, slowFirst
+        ? ImmutableList.of(slowPipeline, pipeline)
+        : ImmutableList.of(pipeline, slowPipeline));
+
+    assertUnrelatedPreloadResults(results);
+    control.verify();
+  }
+
+  @Test(timeout = 10000)
+  public void executeDoesNotGiveAsyncPreloadsAThread() throws Exception {
+    PipelinedData slowPipeline = getPipelinedData(SLOW_CONTENT);
+    PipelinedData pipeline = getPipelinedData(TWO_BATCH_CONTENT);
+    context = new ViewParamsContext();
+
+    // Completed by the second batch of the other pipeline. If it were waited on in the executor's
+    // only thread, the second batch could never run.
+    final SettableFuture<PreloadedData> slowFuture = SettableFuture.create();
+    Callable<PreloadedData> slowTask = new FakeAsyncPreloadTask(slowFuture);
+    final PreloadedData slowResult = createPreloadTask("slow", "{result: 'slow'}").call();
+    final Callable<PreloadedData> secondResult = createPreloadTask("me",
+        "{result: {'id':'canonical'}}");
+    Callable<PreloadedData> secondTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        slowFuture.set(slowResult);
+        return secondResult.call();
+      }
+    };
+
+    expectUnrelatedPreloads(true, slowTask, secondTask);
+    control.replay();
+
+    PipelineExecutor.Results results = executor.execute(context,
+        ImmutableList.of(slowPipeline, pipeline));
+
+    assertUnrelatedPreloadResults(results);
+    control.verify();
+  }
+
+  private void expectUnrelatedPreloads(boolean slowFirst, Callable<PreloadedData> slowTask,
+      Callable<PreloadedData> secondTask) throws Exception {
+    Callable<PreloadedData> firstTask =
+        createPreloadTask("json", "{result: {user: 'canonical'}}");
+    expect(preloader.createPreloadTasks(same(context), eqBatch(0, 1)))
+        .andReturn(ImmutableList.of(slowFirst ? slowTask : firstTask));
+    expect(preloader.createPreloadTasks(same(context), eqBatch(0, 1)))
+        .andReturn(ImmutableList.of(slowFirst ? firstTask : slowTask));
+    expect(preloader.createPreloadTasks(same(context), eqBatch(1, 0)))
+        .andReturn(ImmutableList.of(secondTask));
+  }
+
+  private void assertUnrelatedPreloadResults(PipelineExecutor.Results results) {
+    assertEquals(ImmutableSet.of("slow", "json", "me"), results.keyedResults.keySet());
+    assertEquals(3, results.results.size());
+    assertTrue(results.remainingPipelines.isEmpty());
+  }
+
   @Test
   public void executeWithBlockedBatch() throws Exception {
     PipelinedData pipeline = getPipelinedData(BLOCKED_FIRST_BATCH_CONTENT);
@@ -322,6 +424,33 @@ public class PipelineExecutorTest {
     }
     
   }
+
+  private static class ViewParamsContext extends GadgetContext {
+    @Override
+    public String getParameter(String property) {
+      if ("view-params".equals(property)) {
+        return "{'file': 'test.json'}";
+      }
+      return null;
+    }
+  }
+
+  private static class FakeAsyncPreloadTask implements AsyncPreloadTask {
+    private final ListenableFuture<PreloadedData> future;
+
+    public FakeAsyncPreloadTask(ListenableFuture<PreloadedData> future) {
+      this.future = future;
+    }
+
+    public ListenableFuture<?> getFuture() {
+      return future;
+    }
+
+    public PreloadedData call() throws Exception {
+      return future.get();
+    }
+  }
+
   /** Create a mock Callable for a single preload task */
   private Callable<PreloadedData> createPreloadTask(final String key, String jsonResult)
       throws JSONException {
@@ -22,30 +22,58 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.JsonAssert;
+import org.apache.shindig.common.JsonProperty;
 import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.common.JsonUtil;
+import org.apache.shindig.common.util.ImmediateFuture;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.expressions.Expressions;
+import org.apache.shindig.expressions.RootELResolver;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetELResolver;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.parse.DefaultHtmlSerializer;
+import org.apache.shindig.gadgets.parse.ParseModule;
+import org.apache.shindig.gadgets.parse.SocialDataTags;
+import org.apache.shindig.gadgets.parse.nekohtml.NekoSimplifiedHtmlParser;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.PipelinedData;
 import org.apache.shindig.gadgets.spec.PipelinedData.Batch;
+import org.apache.shindig.gadgets.templates.DefaultTemplateProcessor;
+import org.apache.shindig.gadgets.templates.TemplateContext;
+import org.apache.shindig.gadgets.templates.tags.DefaultTagRegistry;
+import org.apache.shindig.gadgets.templates.tags.TagHandler;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestHandler;
+import org.apache.shindig.protocol.RpcHandler;
+import org.apache.shindig.protocol.conversion.BeanConverter;
+import org.apache.shindig.protocol.multipart.FormDataItem;
 import org.easymock.EasyMock;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -224,6 +252,148 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     JsonAssert.assertJsonEquals(resultWithKeyP.toString(), resultsById.get("p"));
   }
 
+  @Test
+  public void testSocialPreloadInProcess() throws Exception {
+    GadgetSpec spec = new GadgetSpec(GADGET_URL, XML);
+
+    RecordingRequestPipeline pipeline = new RecordingRequestPipeline("");
+    PipelinedDataPreloader preloader = new PipelinedDataPreloader(pipeline, containerConfig);
+    Object person = ImmutableMap.of("displayName", "you");
+    FakeHandlerRegistry registry = new FakeHandlerRegistry(ImmutableMap.<String, Future<?>>of(
+        "p", ImmediateFuture.newInstance(person),
+        "a", ImmediateFuture.errorInstance(new ProtocolException(403, "denied"))));
+    preloader.setInProcessSocialRequests(true);
+    preloader.setSocialHandlers(registry, ImmutableSet.<Object>of(), null);
+
+    view = "profile";
+    contextParams.put("st", "token");
+
+    Gadget gadget = new Gadget()
+        .setContext(context)
+        .setSpec(spec)
+        .setCurrentView(spec.getView("profile"));
+
+    PipelinedData.Batch batch = getBatch(gadget);
+    Collection<Callable<PreloadedData>> tasks = preloader.createPreloadTasks(
+        context, batch);
+    assertEquals(1, tasks.size());
+
+    Collection<Object> result = tasks.iterator().next().call().toJson();
+    assertEquals(2, result.size());
+
+    // The handlers were called directly, and their results converted to JSON objects
+    assertEquals(0, pipeline.requests.size());
+    assertEquals(2, registry.requests.size());
+    for (Object o : result) {
+      assertTrue(o instanceof JSONObject);
+    }
+    Map<String, String> resultsById = getResultsById(result);
+    JsonAssert.assertJsonEquals("{id: 'p', result: {displayName: 'you'}}", resultsById.get("p"));
+    JsonAssert.assertJsonEquals("{id: 'a', error: {code: 403, message: 'forbidden: denied'}}",
+        resultsById.get("a"));
+  }
+
+  @Test
+  public void testSocialPreloadRendersSameInProcess() throws Exception {
+    GadgetSpec spec = new GadgetSpec(GADGET_URL, XML);
+    Object person = new TestPerson();
+    view = "profile";
+    contextParams.put("st", "token");
+    Gadget gadget = new Gadget()
+        .setContext(context)
+        .setSpec(spec)
+        .setCurrentView(spec.getView("profile"));
+
+    // What the JSON-RPC endpoint returns for the same handler result
+    String socialResult = JsonSerializer.serialize(ImmutableList.of(
+        ImmutableMap.of("id", "p", "result", person),
+        ImmutableMap.of("id", "a", "result", ImmutableMap.of())));
+    PipelinedDataPreloader preloader = new PipelinedDataPreloader(
+        new RecordingRequestPipeline(socialResult), containerConfig);
+    String overHttp = renderPerson(preloader.createPreloadTasks(context, getBatch(gadget)));
+
+    preloader = new PipelinedDataPreloader(new RecordingRequestPipeline(""), containerConfig);
+    preloader.setInProcessSocialRequests(true);
+    preloader.setSocialHandlers(new FakeHandlerRegistry(ImmutableMap.<String, Future<?>>of(
+        "p", ImmediateFuture.newInstance(person),
+        "a", ImmediateFuture.newInstance(ImmutableMap.of()))),
+        ImmutableSet.<Object>of(), null);
+    String inProcess = renderPerson(preloader.createPreloadTasks(context, getBatch(gadget)));
+
+    assertTrue(overHttp, overHttp.startsWith("you|Your Name|1970-01-01"));
+    assertTrue(overHttp, overHttp.endsWith("|||Dublin"));
+    assertEquals(overHttp, inProcess);
+  }
+
+  /**
+   * Renders a template showing person "p" from the preloaded data, as pipelined data is shown.
+   */
+  private String renderPerson(Collection<Callable<PreloadedData>> tasks) throws Exception {
+    Map<String, Object> variables = Maps.newHashMap();
+    for (Callable<PreloadedData> task : tasks) {
+      for (Object entry : task.call().toJson()) {
+        variables.put((String) JsonUtil.getProperty(entry, "id"),
+            JsonUtil.getProperty(entry, "result"));
+      }
+    }
+
+    NekoSimplifiedHtmlParser parser =
+        new NekoSimplifiedHtmlParser(new ParseModule.DOMImplementationProvider().get());
+    Document document = parser.parseDom("<script type=\"text/os-template\">" +
+        "${p.displayName}|${p.name.formatted}|${p.birthday}|${p.nickname}|${p.isOwner}|" +
+        "${p.addresses[0].locality}</script>");
+    Element template = SocialDataTags.getTags(document, SocialDataTags.OSML_TEMPLATE_TAG).get(0);
+    DocumentFragment result = new DefaultTemplateProcessor(expressions).processTemplate(
+        template, new TemplateContext(new Gadget(), variables), new RootELResolver(),
+        new DefaultTagRegistry(ImmutableSet.<TagHandler>of()));
+
+    StringBuilder sb = new StringBuilder();
+    NodeList children = result.getChildNodes();
+    for (int i = 0; i < children.getLength(); i++) {
+      new DefaultHtmlSerializer().serialize(children.item(i), sb);
+    }
+    return sb.toString();
+  }
+
+  public static class TestPerson {
+    public String getDisplayName() {
+      return "you";
+    }
+
+    public TestName getName() {
+      return new TestName();
+    }
+
+    public Date getBirthday() {
+      return new Date(0L);
+    }
+
+    public String getNickname() {
+      return null;
+    }
+
+    @JsonProperty("isOwner")
+    public boolean getOwner() {
+      return false;
+    }
+
+    public List<TestAddress> getAddresses() {
+      return ImmutableList.of(new TestAddress());
+    }
+  }
+
+  public static class TestName {
+    public String getFormatted() {
+      return "Your Name";
+    }
+  }
+
+  public static class TestAddress {
+    public String getLocality() {
+      return "Dublin";
+    }
+  }
+
   @Test
   /** 
    * Verify that social preloads where the request doesn't contain a token
@@ -491,6 +661,40 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     JsonAssert.assertObjectEquals("{id: 'p', result: 2}", result.iterator().next());
   }
 
+  private static class FakeHandlerRegistry implements HandlerRegistry {
+    public final List<JSONObject> requests = Lists.newArrayList();
+    private final Map<String, Future<?>> responses;
+
+    public FakeHandlerRegistry(Map<String, Future<?>> responses) {
+      this.responses = responses;
+    }
+
+    public void addHandlers(Set<Object> handlers) {
+    }
+
+    public RpcHandler getRpcHandler(final JSONObject rpc) {
+      requests.add(rpc);
+      return new RpcHandler() {
+        public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+            BeanConverter converter) {
+          return responses.get(rpc.optString("id"));
+        }
+      };
+    }
+
+    public RestHandler getRestHandler(String path, String method) {
+      throw new UnsupportedOperationException();
+    }
+
+    public Set<String> getSupportedRestServices() {
+      throw new UnsupportedOperationException();
+    }
+
+    public Set<String> getSupportedRpcServices() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   private static class RecordingRequestPipeline implements RequestPipeline {
     public final List<HttpRequest> requests = Lists.newArrayList();
     private final HttpResponse response;
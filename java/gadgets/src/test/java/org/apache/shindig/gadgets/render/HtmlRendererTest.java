@@ -19,10 +19,12 @@
 package org.apache.shindig.gadgets.render;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.auth.AnonymousSecurityToken;
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.Gadget;
@@ -113,6 +115,40 @@ public class HtmlRendererTest {
     assertTrue("Rewriting not performed.", captureRewriter.viewWasRewritten());
   }
 
+  private HtmlRenderer newRenderer(CaptureRewriter rewriter, RenderedGadgetCache cache) {
+    HtmlRenderer cachingRenderer = new HtmlRenderer(preloaderService, proxyRenderer,
+        new GadgetRewritersProvider(ImmutableList.of((GadgetRewriter) rewriter)), null);
+    cachingRenderer.setRenderedGadgetCache(cache);
+    return cachingRenderer;
+  }
+
+  @Test
+  public void renderedOutputCached() throws Exception {
+    RenderedGadgetCache cache = new RenderedGadgetCache(new LruCacheProvider(10), 60000L);
+    Gadget gadget = makeGadget(BASIC_HTML_CONTENT).setContext(new GadgetContext());
+    assertEquals(BASIC_HTML_CONTENT, newRenderer(captureRewriter, cache).render(gadget));
+    assertTrue(captureRewriter.viewWasRewritten());
+
+    CaptureRewriter second = new CaptureRewriter();
+    assertEquals(BASIC_HTML_CONTENT, newRenderer(second, cache).render(gadget));
+    assertFalse("Cached output was rewritten again.", second.viewWasRewritten());
+
+    cache.invalidate(ImmutableList.of(SPEC_URL));
+    CaptureRewriter third = new CaptureRewriter();
+    newRenderer(third, cache).render(gadget);
+    assertTrue("Invalidated output was reused.", third.viewWasRewritten());
+  }
+
+  @Test
+  public void renderedOutputWithTokenNotCached() throws Exception {
+    RenderedGadgetCache cache = new RenderedGadgetCache(new LruCacheProvider(10), 60000L);
+    newRenderer(captureRewriter, cache).render(makeGadget(BASIC_HTML_CONTENT));
+
+    CaptureRewriter second = new CaptureRewriter();
+    newRenderer(second, cache).render(makeGadget(BASIC_HTML_CONTENT));
+    assertTrue(second.viewWasRewritten());
+  }
+
   private static class FakeProxyRenderer extends ProxyRenderer {
     public FakeProxyRenderer() {
       super(null, null, null);
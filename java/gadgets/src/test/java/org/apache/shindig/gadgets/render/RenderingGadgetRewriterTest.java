@@ -35,6 +35,7 @@ import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.common.JsonAssert;
 import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.config.BasicContainerConfig;
@@ -428,6 +429,36 @@ public class RenderingGadgetRewriterTest {
     assertTrue("Requested scripts not inlined.", rewritten.contains("foo_content();"));
   }
 
+  @Test
+  public void inlinedFeaturesCached() throws Exception {
+    String gadgetXml =
+      "<Module><ModulePrefs title=''>" +
+      "  <Require feature='foo'/>" +
+      "</ModulePrefs>" +
+      "<Content type='html'/>" +
+      "</Module>";
+
+    Gadget gadget = makeGadgetWithSpec(gadgetXml);
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo_content();", "foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+    rewrite(gadget, "");
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo_content();", "foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+    // The js must not be fetched again.
+    reset(jsServingPipeline);
+    replay(jsServingPipeline);
+    String rewritten = rewrite(gadget, "");
+
+    assertTrue("Requested scripts not inlined.", rewritten.contains("foo_content();"));
+  }
+
   @Test
   public void featuresNotInjectedWhenRemoved() throws Exception {
     String gadgetXml =
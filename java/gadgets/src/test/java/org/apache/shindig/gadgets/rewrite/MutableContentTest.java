@@ -19,15 +19,20 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
 import org.apache.commons.io.IOUtils;
 import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
 import org.apache.shindig.gadgets.parse.ParseModule;
+import org.apache.shindig.gadgets.parse.SocialDataTags;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
@@ -37,6 +42,11 @@ import org.w3c.dom.Node;
 
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MutableContentTest {
   private MutableContent mhc;
@@ -128,4 +138,62 @@ public class MutableContentTest {
     // GadgetHtmlNode hasn't changed because string hasn't changed
     assertSame(document, mhc.getDocument());
   }
+
+  @Test
+  public void readOnlyDocumentSharedUntilEdited() throws Exception {
+    GadgetHtmlParser parser = Guice.createInjector(new ParseModule(), new PropertiesModule())
+        .getInstance(GadgetHtmlParser.class);
+    parser.setCacheProvider(new LruCacheProvider(10));
+    MutableContent first = new MutableContent(parser, "SHARED CONTENT");
+    MutableContent second = new MutableContent(parser, "SHARED CONTENT");
+
+    Document shared = first.getReadOnlyDocument();
+    assertSame(shared, second.getReadOnlyDocument());
+    assertFalse(first.hasDocument());
+
+    Document document = first.getDocument();
+    assertNotSame(shared, document);
+    assertSame(document, first.getReadOnlyDocument());
+    document.getDocumentElement().setTextContent("FOO CONTENT");
+    MutableContent.notifyEdit(document);
+    assertEquals(1, first.getNumChanges());
+    assertTrue(first.getContent().contains("FOO CONTENT"));
+
+    // The cached tree is untouched.
+    assertSame(shared, second.getReadOnlyDocument());
+    assertEquals("SHARED CONTENT", second.getDocument().getDocumentElement().getTextContent());
+    assertEquals("SHARED CONTENT", second.getContent());
+    assertEquals(0, second.getNumChanges());
+  }
+
+  @Test
+  public void readOnlyDocumentReadConcurrently() throws Exception {
+    GadgetHtmlParser parser = Guice.createInjector(new ParseModule(), new PropertiesModule())
+        .getInstance(GadgetHtmlParser.class);
+    parser.setCacheProvider(new LruCacheProvider(10));
+    final String content = "<html><head></head><body><div><p>text</p></div>" +
+        "<script type=\"text/os-data\"></script></body></html>";
+    final Document shared = new MutableContent(parser, content).getReadOnlyDocument();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> results = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        public Boolean call() {
+          boolean found = true;
+          for (int j = 0; j < 1000; j++) {
+            found &= SocialDataTags.hasTags(shared, SocialDataTags.OSML_DATA_TAG);
+            found &= !SocialDataTags.hasTags(shared, SocialDataTags.OSML_TEMPLATE_TAG);
+          }
+          return found;
+        }
+      }));
+    }
+    for (Future<Boolean> result : results) {
+      assertTrue(result.get());
+    }
+    executor.shutdown();
+
+    assertSame(shared, new MutableContent(parser, content).getReadOnlyDocument());
+  }
 }
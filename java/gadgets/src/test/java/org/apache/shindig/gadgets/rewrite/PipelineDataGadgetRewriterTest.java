@@ -26,12 +26,10 @@ import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.parse.ParseModule;
 import org.apache.shindig.gadgets.parse.nekohtml.NekoSimplifiedHtmlParser;
-import org.apache.shindig.gadgets.preload.ConcurrentPreloaderService;
 import org.apache.shindig.gadgets.preload.PipelineExecutor;
 import org.apache.shindig.gadgets.preload.PipelinedDataPreloader;
 import org.apache.shindig.gadgets.preload.PreloadException;
 import org.apache.shindig.gadgets.preload.PreloadedData;
-import org.apache.shindig.gadgets.preload.PreloaderService;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.PipelinedData;
 import org.apache.shindig.gadgets.spec.SpecParserException;
@@ -66,7 +64,6 @@ public class PipelineDataGadgetRewriterTest {
 
   private IMocksControl control;
   private PipelinedDataPreloader preloader;
-  private PreloaderService preloaderService;
   private PipelineDataGadgetRewriter rewriter;
   private GadgetSpec gadgetSpec;
   private Gadget gadget;
@@ -95,9 +92,8 @@ public class PipelineDataGadgetRewriterTest {
   public void setUp() throws Exception {
     control = EasyMock.createStrictControl();
     preloader = control.createMock(PipelinedDataPreloader.class);
-    preloaderService = new ConcurrentPreloaderService(Executors.newSingleThreadExecutor(), null);
-    rewriter = new PipelineDataGadgetRewriter(new PipelineExecutor(preloader, preloaderService,
-        Expressions.forTesting()));
+    rewriter = new PipelineDataGadgetRewriter(new PipelineExecutor(preloader,
+        Executors.newSingleThreadExecutor(), Expressions.forTesting()));
   }
 
   private void setupGadget(String gadgetXml) throws SpecParserException {
@@ -216,6 +212,8 @@ public class PipelineDataGadgetRewriterTest {
     rewriter.rewrite(gadget, content);
 
     control.verify();
+    // ... and the parse tree isn't copied.
+    assertFalse(content.hasDocument());
   }
 
   @Test
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.parse.ParseModule;
+import org.apache.shindig.gadgets.parse.nekohtml.NekoSimplifiedHtmlParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import java.util.List;
+
+public class StreamingTagWalkerTest {
+  private static final String BEFORE = "<html><head><base href=\"http://base.com/dir/\"></head>" +
+      "<body><script>document.write('<img src=\"script.png\">');</script>" +
+      "<!-- <img src=\"comment.png\"> -->";
+  private static final String AFTER =
+      "<img src=\"http://other.com/i.png?a=1&amp;b=2\"><a href=\"link.html\">link</a>" +
+      "</body></html>";
+
+  private NekoSimplifiedHtmlParser parser;
+  private Gadget gadget;
+
+  @Before
+  public void setUp() {
+    parser = new NekoSimplifiedHtmlParser(new ParseModule.DOMImplementationProvider().get());
+    gadget = DomWalker.makeGadget(new HttpRequest(Uri.parse("http://gadget.com/gadget.xml")));
+  }
+
+  @Test
+  public void rewritesOnlyModifiedTags() throws Exception {
+    MutableContent content = new MutableContent(parser, BEFORE + "<IMG SRC='img.png'>" + AFTER);
+    AbsolutePathReferenceRewriter rewriter = new AbsolutePathReferenceRewriter();
+    rewriter.setStreamingEnabled(true);
+
+    rewriter.rewrite(gadget, content);
+
+    assertEquals(BEFORE + "<img src=\"http://base.com/dir/img.png\">" + AFTER,
+        content.getContent());
+    assertFalse(content.hasDocument());
+  }
+
+  @Test
+  public void unmodifiedContentIsKept() throws Exception {
+    MutableContent content = new MutableContent(parser, BEFORE + AFTER);
+    AbsolutePathReferenceRewriter rewriter = new AbsolutePathReferenceRewriter();
+    rewriter.setStreamingEnabled(true);
+
+    rewriter.rewrite(gadget, content);
+
+    assertEquals(BEFORE + AFTER, content.getContent());
+    assertEquals(0, content.getNumChanges());
+  }
+
+  @Test
+  public void domVisitorsUseDom() throws Exception {
+    MutableContent content = new MutableContent(parser, BEFORE + AFTER);
+    DomWalker.Rewriter rewriter = new DomWalker.Rewriter(new DomWalker.Visitor() {
+      public VisitStatus visit(Gadget gadget, Node node) {
+        return VisitStatus.BYPASS;
+      }
+
+      public boolean revisit(Gadget gadget, List<Node> nodes) {
+        return false;
+      }
+    });
+    rewriter.setStreamingEnabled(true);
+
+    rewriter.rewrite(gadget, content);
+
+    assertTrue(content.hasDocument());
+  }
+
+  @Test
+  public void scanSkipsRawTextAndComments() {
+    List<StreamingTagWalker.Tag> tags = StreamingTagWalker.scan(
+        "<!DOCTYPE html><STYLE>a { background: url(<img src=x>) }</style ><!-- <p> -->" +
+        "<input type=checkbox disabled/><p class=a class=b>");
+
+    assertEquals(3, tags.size());
+    assertEquals("style", tags.get(0).name);
+    assertEquals("input", tags.get(1).name);
+    assertTrue(tags.get(1).selfClosing);
+    assertEquals("checkbox", tags.get(1).attributes.get("type"));
+    assertEquals("", tags.get(1).attributes.get("disabled"));
+    assertEquals("p", tags.get(2).name);
+    assertEquals("a", tags.get(2).attributes.get("class"));
+  }
+
+  @Test
+  public void scanStopsAtUnterminatedTag() {
+    List<StreamingTagWalker.Tag> tags =
+        StreamingTagWalker.scan("<img src=a.png><img src='b.png><img src=c.png>");
+
+    assertEquals(1, tags.size());
+    assertEquals("a.png", tags.get(0).attributes.get("src"));
+  }
+}
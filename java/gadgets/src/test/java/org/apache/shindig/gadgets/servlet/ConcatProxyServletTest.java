@@ -321,6 +321,66 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     assertEquals((int) (HttpResponse.defaultTtl / 1000), cacheValue, 10);
   }
 
+  @Test
+  public void testStreamingUsesConfiguredTtl() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    expectGetAndSetCacheTtl(URL4, 100000);
+    expectRequestWithUris(Lists.newArrayList(URL1, URL4));
+
+    servlet.setStreaming(true, 120);
+    servlet.doGet(request, recorder);
+    verify();
+
+    assertTrue(recorder.isCommitted());
+    assertEquals(200, recorder.getHttpStatusCode());
+    assertEquals(120, getCacheControlMaxAge(recorder));
+    assertTrue(recorder.getResponseAsString().startsWith(addComment(SCRT1, URL1.toString())));
+  }
+
+  @Test
+  public void testStreamingErrorAfterFirstResource() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    HttpRequest req = new HttpRequest(URL4);
+    expect(pipeline.execute(req)).andThrow(
+        new GadgetException(GadgetException.Code.HTML_PARSE_ERROR)).anyTimes();
+    expectRequestWithUris(Lists.newArrayList(URL1, URL4));
+
+    servlet.setStreaming(true, 120);
+    servlet.doGet(request, recorder);
+    verify();
+
+    String results = addComment(SCRT1, URL1.toString())
+        + addConcatErrComment(GadgetException.Code.HTML_PARSE_ERROR, URL4.toString());
+    assertEquals(results, recorder.getResponseAsString());
+    // The status went out with the first resource.
+    assertEquals(200, recorder.getHttpStatusCode());
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+  }
+
+  @Test
+  public void testStreamingPartialFailureNotCached() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    HttpRequest req = new HttpRequest(URL4);
+    HttpResponse notFound = new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_NOT_FOUND)
+        .setCacheTtl(100000)
+        .create();
+    expect(pipeline.execute(req)).andReturn(notFound).anyTimes();
+    expectRequestWithUris(Lists.newArrayList(URL1, URL4, URL2));
+
+    servlet.setStreaming(true, 120);
+    servlet.setExecutor(threadedExecutor);
+    servlet.doGet(request, recorder);
+    verify();
+
+    String results = addComment(SCRT1, URL1.toString())
+        + addErrComment(URL4.toString(), HttpResponse.SC_NOT_FOUND)
+        + addComment(SCRT2, URL2.toString());
+    assertEquals(results, recorder.getResponseAsString());
+    assertEquals(200, recorder.getHttpStatusCode());
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+  }
+
   private void expectGetAndSetCacheTtl(Uri url, Integer cacheTtl) throws Exception {
     HttpRequest req = new HttpRequest(url);
     HttpResponse resp = new HttpResponseBuilder().setCacheTtl(cacheTtl).create();
@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 import org.apache.shindig.common.EasyMockTestCase;
+import org.apache.shindig.common.servlet.HttpServletResponseRecorder;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.FakeTimeSource;
 import org.apache.shindig.config.ContainerConfig;
@@ -33,6 +34,8 @@ import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
+import org.apache.shindig.gadgets.http.StreamingRequestPipeline;
 import org.apache.shindig.gadgets.rewrite.CaptureRewriter;
 import org.apache.shindig.gadgets.rewrite.DefaultResponseRewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.DomWalker;
@@ -50,10 +53,14 @@ import static org.easymock.EasyMock.isA;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 public class ProxyHandlerTest extends EasyMockTestCase {
   private final static String GADGET = "http://some/gadget.xml";
   private final static String URL_ONE = "http://www.example.org/test.html";
@@ -504,4 +511,116 @@ public class ProxyHandlerTest extends EasyMockTestCase {
     // We use CaptureRewrite which always rewrite - always set encoding
     expectMime("image/*", "image/gif", "image/gif");
   }
+
+  private static class FakeStreamingPipeline implements RequestPipeline,
+      StreamingRequestPipeline {
+    private final String contentType;
+    private boolean streamed;
+
+    private FakeStreamingPipeline(String contentType) {
+      this.contentType = contentType;
+    }
+
+    public HttpResponse execute(HttpRequest request) {
+      return new HttpResponseBuilder()
+          .setHeader("Content-Type", contentType)
+          .setResponseString(DATA_ONE)
+          .create();
+    }
+
+    public HttpResponse executeStreaming(HttpRequest request,
+        StreamingHttpFetcher.BodyHandler handler) throws GadgetException {
+      HttpResponseBuilder builder = new HttpResponseBuilder()
+          .setHeader("Content-Type", contentType);
+      try {
+        OutputStream out = handler.getBodyStream(builder.create(), DATA_ONE.length());
+        if (out != null) {
+          streamed = true;
+          out.write(DATA_ONE.getBytes("UTF-8"));
+          return builder.create();
+        }
+      } catch (IOException e) {
+        throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+      }
+      return builder.setResponseString(DATA_ONE).create();
+    }
+  }
+
+  private ProxyHandler newStreamingHandler(RequestPipeline streamingPipeline) {
+    ProxyHandler handler = new ProxyHandler(streamingPipeline, rewriterRegistry, true,
+        gadgetBlacklist, LONG_LIVED_REFRESH);
+    handler.setStreaming(true);
+    return handler;
+  }
+
+  @Test
+  public void testUncachedMediaStreamed() throws Exception {
+    HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+    HttpServletResponseRecorder recorder = new HttpServletResponseRecorder(servletResponse);
+    setupProxyRequestMock("www.example.org", "http://www.example.org/movie.mp4", true, -1,
+        null, null);
+    FakeStreamingPipeline streamingPipeline = new FakeStreamingPipeline("video/mp4");
+    expect(gadgetBlacklist.isBlacklisted(isA(Uri.class))).andReturn(false);
+    servletResponse.setContentLength(DATA_ONE.length());
+    replay();
+
+    assertNull(newStreamingHandler(streamingPipeline).fetch(request, recorder));
+    verify();
+
+    assertTrue(streamingPipeline.streamed);
+    assertEquals(DATA_ONE, recorder.getResponseAsString());
+    assertEquals("video/mp4", recorder.getHeader("Content-Type"));
+    assertEquals("attachment;filename=p.txt", recorder.getHeader("Content-Disposition"));
+    assertFalse(rewriter.responseWasRewritten());
+  }
+
+  @Test
+  public void testUncachedMediaNotStreamedByDefault() throws Exception {
+    HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+    setupProxyRequestMock("www.example.org", "http://www.example.org/movie.mp4", true, -1,
+        null, null);
+    FakeStreamingPipeline streamingPipeline = new FakeStreamingPipeline("video/mp4");
+    expect(gadgetBlacklist.isBlacklisted(isA(Uri.class))).andReturn(false);
+    replay();
+
+    HttpResponse response = new ProxyHandler(streamingPipeline, rewriterRegistry, true,
+        gadgetBlacklist, LONG_LIVED_REFRESH).fetch(request, servletResponse);
+    verify();
+
+    assertFalse(streamingPipeline.streamed);
+    assertEquals(DATA_ONE, response.getResponseAsString());
+  }
+
+  @Test
+  public void testUncachedHtmlNotStreamed() throws Exception {
+    HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+    HttpServletResponseRecorder recorder = new HttpServletResponseRecorder(servletResponse);
+    setupProxyRequestMock("www.example.org", URL_ONE, true, -1, null, null);
+    FakeStreamingPipeline streamingPipeline = new FakeStreamingPipeline("text/html");
+    expect(gadgetBlacklist.isBlacklisted(isA(Uri.class))).andReturn(false);
+    replay();
+
+    HttpResponse response = newStreamingHandler(streamingPipeline).fetch(request, recorder);
+    verify();
+
+    assertFalse(streamingPipeline.streamed);
+    assertEquals(DATA_ONE, response.getResponseAsString());
+    assertTrue(rewriter.responseWasRewritten());
+    assertEquals(0, recorder.getResponseAsBytes().length);
+  }
+
+  @Test
+  public void testCachedRequestNotStreamed() throws Exception {
+    HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+    setupProxyRequestMock("www.example.org", URL_ONE, false, -1, null, null);
+    FakeStreamingPipeline streamingPipeline = new FakeStreamingPipeline("video/mp4");
+    expect(gadgetBlacklist.isBlacklisted(isA(Uri.class))).andReturn(false);
+    replay();
+
+    HttpResponse response = newStreamingHandler(streamingPipeline).fetch(request, servletResponse);
+    verify();
+
+    assertFalse(streamingPipeline.streamed);
+    assertEquals(DATA_ONE, response.getResponseAsString());
+  }
 }
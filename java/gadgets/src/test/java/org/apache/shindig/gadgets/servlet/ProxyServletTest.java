@@ -92,7 +92,7 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetNormal() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andReturn(new HttpResponse(RESPONSE_BODY));
+    expect(proxyHandler.fetch(proxyUri, recorder)).andReturn(new HttpResponse(RESPONSE_BODY));
     
     replay();
     servlet.doGet(request, recorder);
@@ -104,7 +104,7 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetHttpError() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andReturn(HttpResponse.notFound());
+    expect(proxyHandler.fetch(proxyUri, recorder)).andReturn(HttpResponse.notFound());
     
     replay();
     servlet.doGet(request, recorder);
@@ -116,7 +116,7 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetException() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andThrow(
+    expect(proxyHandler.fetch(proxyUri, recorder)).andThrow(
         new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, ERROR_MESSAGE));
    
     replay();
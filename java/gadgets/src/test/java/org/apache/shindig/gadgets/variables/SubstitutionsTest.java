@@ -120,6 +120,31 @@ public class SubstitutionsTest extends Assert {
     assertEquals("<div id='div___HI_THERE123_'/>", subst.substituteString(msg));
   }
 
+  @Test
+  public void testCompiledTemplateMatchesScan() throws Exception {
+    subst.addSubstitution(Type.MESSAGE, "hello", "Hello");
+    subst.addSubstitution(Type.MESSAGE, "world", "World __MSG_hello__ __UP_punc__");
+    subst.addSubstitution(Type.USER_PREF, "punc", "!");
+    subst.addSubstitution(Type.MODULE, "ID", "123");
+    subst.addSubstitution(Type.BIDI, "DIR", "rtl");
+
+    String[] inputs = {
+        "",
+        "no placeholders",
+        "Hello, __MSG_world__!",
+        "__UP_punc__, __MSG_missing__ __BIDI_DIR__",
+        "__MSG_hello____________ten____________MSG_world______",
+        "<div id='div___MODULE_ID__'/>",
+        "<div id='div___HI_THERE__MODULE_ID___'/>",
+        "__MSG_hello__, var_msg + '__' + 'world __MSG_world__",
+        "dangling __MSG_hello",
+    };
+    for (String input : inputs) {
+      assertEquals(input, subst.substituteString(input),
+          subst.substituteString(SubstitutionTemplate.compile(input)));
+    }
+  }
+
   @Test
   @Ignore("off by default, TODO add test logic")
   public void loadTest() throws Exception {
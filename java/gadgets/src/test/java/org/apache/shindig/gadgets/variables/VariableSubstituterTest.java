@@ -19,8 +19,12 @@
 package org.apache.shindig.gadgets.variables;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.FakeTimeSource;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.MessageBundleFactory;
@@ -119,6 +123,79 @@ public class VariableSubstituterTest {
     assertEquals("Gadget title for 0", spec.getModulePrefs().getTitle());
   }
 
+  @Test
+  public void substitutedSpecsCached() throws Exception {
+    VariableSubstituter cachingSubstituter = new VariableSubstituter(
+        ImmutableList.<Substituter>of(new UserPrefSubstituter(), new ModuleSubstituter()));
+    cachingSubstituter.setCacheProvider(new LruCacheProvider(10));
+    String xml = "<Module>" +
+                 "<ModulePrefs title='I heart __UP_foo__'/>" +
+                 "<UserPref name='foo' default_value='shindig'/>" +
+                 "<Content/>" +
+                 "</Module>";
+    GadgetSpec spec = new GadgetSpec(Uri.parse("http://example.org/gadget.xml"), xml);
+
+    GadgetSpec first = cachingSubstituter.substitute(new GadgetContext(), spec);
+    GadgetSpec second = cachingSubstituter.substitute(new GadgetContext(), spec);
+
+    assertSame(first, second);
+    assertEquals("I heart shindig", second.getModulePrefs().getTitle());
+
+    // A new version of the spec isn't served from the entries for the old one.
+    GadgetSpec updated = new GadgetSpec(Uri.parse("http://example.org/gadget.xml"),
+        xml.replace("I heart", "We heart"));
+    assertEquals("We heart shindig", cachingSubstituter.substitute(new GadgetContext(),
+        updated).getModulePrefs().getTitle());
+  }
+
+  @Test
+  public void substitutedSpecsRefreshedWithBundles() throws Exception {
+    VariableSubstituter cachingSubstituter = new VariableSubstituter(
+        ImmutableList.<Substituter>of(new ModuleSubstituter()));
+    cachingSubstituter.setCacheProvider(new LruCacheProvider(10));
+    cachingSubstituter.setRefreshInterval(1000L);
+    FakeTimeSource timeSource = new FakeTimeSource();
+    cachingSubstituter.setTimeSource(timeSource);
+    GadgetSpec spec = new GadgetSpec(Uri.parse("http://example.org/gadget.xml"),
+        "<Module><ModulePrefs title='__MODULE_ID__'/><Content/></Module>");
+
+    GadgetSpec first = cachingSubstituter.substitute(new GadgetContext(), spec);
+    assertSame(first, cachingSubstituter.substitute(new GadgetContext(), spec));
+
+    timeSource.incrementSeconds(2);
+    assertNotSame(first, cachingSubstituter.substitute(new GadgetContext(), spec));
+  }
+
+  @Test
+  public void specsWithRequestPrefsNotCached() throws Exception {
+    VariableSubstituter cachingSubstituter = new VariableSubstituter(
+        ImmutableList.<Substituter>of(new UserPrefSubstituter(), new ModuleSubstituter()));
+    cachingSubstituter.setCacheProvider(new LruCacheProvider(10));
+    String xml = "<Module>" +
+                 "<ModulePrefs title='I heart __UP_foo__'/>" +
+                 "<UserPref name='foo'/>" +
+                 "<Content/>" +
+                 "</Module>";
+    GadgetSpec spec = new GadgetSpec(Uri.parse("http://example.org/gadget.xml"), xml);
+
+    GadgetSpec first = cachingSubstituter.substitute(contextWithPref("shindig"), spec);
+    GadgetSpec second = cachingSubstituter.substitute(contextWithPref("shindig"), spec);
+    GadgetSpec other = cachingSubstituter.substitute(contextWithPref("caja"), spec);
+
+    assertNotSame(first, second);
+    assertEquals("I heart shindig", second.getModulePrefs().getTitle());
+    assertEquals("I heart caja", other.getModulePrefs().getTitle());
+  }
+
+  private static GadgetContext contextWithPref(final String value) {
+    return new GadgetContext() {
+      @Override
+      public UserPrefs getUserPrefs() {
+        return new UserPrefs(ImmutableMap.of("foo", value));
+      }
+    };
+  }
+
   private static class FakeMessageBundleFactory implements MessageBundleFactory {
 
     public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache, String container, String view)
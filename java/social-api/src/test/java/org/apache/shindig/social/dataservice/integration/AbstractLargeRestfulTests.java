@@ -21,6 +21,7 @@ import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.common.EasyMockTestCase;
 import org.apache.shindig.common.testing.FakeGadgetToken;
 import org.apache.shindig.common.testing.FakeHttpServletRequest;
+import org.apache.shindig.common.testing.FakeServletOutputStream;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.protocol.DataServiceServlet;
 import org.apache.shindig.protocol.HandlerRegistry;
@@ -54,8 +55,6 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -152,9 +151,8 @@ public abstract class AbstractLargeRestfulTests extends EasyMockTestCase {
     }
     req.setMethod(method);
 
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    PrintWriter writer = new PrintWriter(outputStream);
-    EasyMock.expect(res.getWriter()).andReturn(writer);
+    FakeServletOutputStream outputStream = new FakeServletOutputStream();
+    EasyMock.expect(res.getOutputStream()).andReturn(outputStream);
     res.setCharacterEncoding("UTF-8");
     res.setContentType(contentType);
     res.addHeader("Access-Control-Allow-Origin", "*");
@@ -164,7 +162,6 @@ public abstract class AbstractLargeRestfulTests extends EasyMockTestCase {
     EasyMock.verify(res);
     EasyMock.reset(res);
 
-    writer.flush();
     return outputStream.toString();
   }
 